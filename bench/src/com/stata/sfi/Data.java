@@ -0,0 +1,52 @@
+package com.stata.sfi;
+
+import com.stata.sfi.StandIn.StoredVariable;
+
+/**
+ * Stand-in for the SFI {@code Data} class, backed by {@link StandIn}. Only
+ * variable metadata is kept; there are no observations.
+ */
+public class Data {
+	
+	// CONSTANTS ---------------------------------------------------- //
+	
+	private static final double MISSING = 8.98846567431158e307;
+	
+	// PUBLIC ------------------------------------------------------- //
+	
+	public static double getMissingValue() {
+		return MISSING;
+	}
+	
+	public static boolean isValueMissing(double value) {
+		return Double.isNaN(value) || value >= MISSING;
+	}
+	
+	public static int getVarIndex(String name) {
+		return StandIn.varIndex(name);
+	}
+	
+	public static int getVarCount() {
+		return StandIn.variables.size();
+	}
+	
+	public static long getObsTotal() {
+		return 0;
+	}
+	
+	public static String getVarName(int index) {
+		StoredVariable v = StandIn.variable(index);
+		return v == null ? null : v.name;
+	}
+	
+	public static String getVarLabel(int index) {
+		StoredVariable v = StandIn.variable(index);
+		return v == null ? null : v.label;
+	}
+	
+	public static String getVarFormat(int index) {
+		StoredVariable v = StandIn.variable(index);
+		return v == null ? null : v.format;
+	}
+	
+}
@@ -0,0 +1,61 @@
+package com.stata.sfi;
+
+/**
+ * Stand-in for the SFI {@code Macro} class, backed by {@link StandIn}.
+ */
+public class Macro {
+	
+	// CONSTANTS ---------------------------------------------------- //
+	
+	public static final int TYPE_GLOBAL = 0;
+	
+	public static final int TYPE_ERETURN = 1;
+	
+	public static final int TYPE_RRETURN = 2;
+	
+	public static final int TYPE_SRETURN = 3;
+	
+	// PUBLIC ------------------------------------------------------- //
+	
+	public static String getGlobal(String name) {
+		return getGlobal(name, TYPE_GLOBAL);
+	}
+	
+	public static String getGlobal(String name, int type) {
+		return StandIn.macros.get(qualify(name, type));
+	}
+	
+	public static int setGlobal(String name, String value) {
+		return setGlobal(name, value, TYPE_GLOBAL);
+	}
+	
+	public static int setGlobal(String name, String value, int type) {
+		StandIn.macros.put(qualify(name, type), value);
+		return 0;
+	}
+	
+	public static String getLocal(String name) {
+		return StandIn.locals.get(name);
+	}
+	
+	public static int setLocal(String name, String value) {
+		StandIn.locals.put(name, value);
+		return 0;
+	}
+	
+	// PACKAGE ------------------------------------------------------ //
+	
+	static String qualify(String name, int type) {
+		switch (type) {
+		case TYPE_ERETURN:
+			return "e(" + name + ")";
+		case TYPE_RRETURN:
+			return "r(" + name + ")";
+		case TYPE_SRETURN:
+			return "s(" + name + ")";
+		default:
+			return name;
+		}
+	}
+	
+}
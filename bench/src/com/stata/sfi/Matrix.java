@@ -0,0 +1,75 @@
+package com.stata.sfi;
+
+import com.stata.sfi.StandIn.StoredMatrix;
+
+/**
+ * Stand-in for the SFI {@code Matrix} class, backed by {@link StandIn}.
+ */
+public class Matrix {
+	
+	// PUBLIC ------------------------------------------------------- //
+	
+	public static double[] getMatrix(String name) {
+		StoredMatrix m = StandIn.matrices.get(name);
+		if (m == null)
+			return null;
+		
+		int cols = m.colNames.length;
+		double[] flat = new double[m.values.length * cols];
+		for (int row = 0; row < m.values.length; row++)
+			System.arraycopy(m.values[row], 0, flat, row * cols, cols);
+		return flat;
+	}
+	
+	public static double getMatrixValue(String name, int row, int col) {
+		return StandIn.matrices.get(name).values[row][col];
+	}
+	
+	public static int getMatrixRowDim(String name) {
+		StoredMatrix m = StandIn.matrices.get(name);
+		return m == null ? -1 : m.rowNames.length;
+	}
+	
+	public static int getMatrixColDim(String name) {
+		StoredMatrix m = StandIn.matrices.get(name);
+		return m == null ? -1 : m.colNames.length;
+	}
+	
+	public static String[] getMatrixRowNames(String name) {
+		StoredMatrix m = StandIn.matrices.get(name);
+		return m == null ? null : m.rowNames.clone();
+	}
+	
+	public static String[] getMatrixColNames(String name) {
+		StoredMatrix m = StandIn.matrices.get(name);
+		return m == null ? null : m.colNames.clone();
+	}
+	
+	public static int createMatrix(String name, int rows, int cols, double val) {
+		double[][] values = new double[rows][cols];
+		for (double[] row : values)
+			java.util.Arrays.fill(row, val);
+		StandIn.matrices.put(name, new StoredMatrix(names("r", rows), names("c", cols), null, values));
+		return 0;
+	}
+	
+	public static int storeMatrix(String name, double[] val) {
+		StoredMatrix m = StandIn.matrices.get(name);
+		if (m == null)
+			return 111;
+		int cols = m.colNames.length;
+		for (int row = 0; row < m.values.length; row++)
+			System.arraycopy(val, row * cols, m.values[row], 0, cols);
+		return 0;
+	}
+	
+	// PRIVATE ------------------------------------------------------ //
+	
+	private static String[] names(String prefix, int n) {
+		String[] names = new String[n];
+		for (int i = 0; i < n; i++)
+			names[i] = prefix + (i + 1);
+		return names;
+	}
+	
+}
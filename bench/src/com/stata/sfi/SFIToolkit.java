@@ -0,0 +1,66 @@
+package com.stata.sfi;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Locale;
+
+/**
+ * Stand-in for the SFI {@code SFIToolkit} class, backed by {@link StandIn}.
+ * Output is collected instead of printed, so it doesn't distort timings.
+ */
+public class SFIToolkit {
+	
+	// PUBLIC ------------------------------------------------------- //
+	
+	public static void display(String s) {
+		StandIn.output.append(s);
+	}
+	
+	public static void displayln(String s) {
+		StandIn.output.append(s).append('\n');
+	}
+	
+	public static void error(String s) {
+		StandIn.errors.append(s);
+	}
+	
+	public static void errorln(String s) {
+		StandIn.errors.append(s).append('\n');
+	}
+	
+	public static String getWorkingDir() {
+		return StandIn.workingDir;
+	}
+	
+	public static int executeCommand(String cmd, boolean echo) {
+		return StandIn.executeCommand(cmd);
+	}
+	
+	public static String stackTraceToString(Throwable t) {
+		StringWriter sw = new StringWriter();
+		t.printStackTrace(new PrintWriter(sw));
+		return sw.toString();
+	}
+	
+	/**
+	 * Approximates Stata's {@code %w.dg}/{@code %w.df} display formats, which
+	 * is all the exporters use this for.
+	 */
+	public static String formatValue(double value, String format) {
+		if (format != null && format.matches("%-?\\d*\\.\\d+f"))
+			return String.format(Locale.ROOT, format.replace("-", ""), value);
+		else if (value == Math.rint(value))
+			return String.valueOf((long) value);
+		else
+			return String.valueOf(value);
+	}
+	
+	public static boolean pollnow() {
+		return true;
+	}
+	
+	public static boolean pollstd() {
+		return true;
+	}
+	
+}
@@ -0,0 +1,37 @@
+package com.stata.sfi;
+
+/**
+ * Stand-in for the SFI {@code Scalar} class, backed by {@link StandIn}.
+ */
+public class Scalar {
+	
+	// CONSTANTS ---------------------------------------------------- //
+	
+	public static final int TYPE_GLOBAL = Macro.TYPE_GLOBAL;
+	
+	public static final int TYPE_ERETURN = Macro.TYPE_ERETURN;
+	
+	public static final int TYPE_RRETURN = Macro.TYPE_RRETURN;
+	
+	public static final int TYPE_SRETURN = Macro.TYPE_SRETURN;
+	
+	// PUBLIC ------------------------------------------------------- //
+	
+	public static Double getValue(String name) {
+		return getValue(name, TYPE_GLOBAL);
+	}
+	
+	public static Double getValue(String name, int type) {
+		return StandIn.scalars.get(Macro.qualify(name, type));
+	}
+	
+	public static int setValue(String name, double value) {
+		return setValue(name, value, TYPE_GLOBAL);
+	}
+	
+	public static int setValue(String name, double value, int type) {
+		StandIn.scalars.put(Macro.qualify(name, type), value);
+		return 0;
+	}
+	
+}
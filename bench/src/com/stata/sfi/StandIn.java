@@ -0,0 +1,239 @@
+package com.stata.sfi;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ * In-process state behind the {@code com.stata.sfi} stand-ins. Not part of the
+ * real SFI: benchmarks populate it (usually through a recording) before they
+ * call into the exporters.
+ * </p>
+ * <p>
+ * Returned values are keyed the way Stata names them, e.g. {@code e(N)} or
+ * {@code r(table)}; globals and locals by their plain name.
+ * </p>
+ */
+public class StandIn {
+	
+	// CONSTANTS ---------------------------------------------------- //
+	
+	private static final Pattern EXTENDED_MACRO = Pattern.compile(
+			"^\\s*local\\s+(?<local>\\w+)\\s*:\\s*(?<fn>coleq|colnames|rownames)\\s+(?<matrix>\\S+)\\s*$");
+	
+	private static final Pattern ESTIMATES_RESTORE = Pattern.compile(
+			"^\\s*(quietly\\s*:?\\s*)?estimates\\s+restore\\s+(?<name>\\S+)\\s*$");
+	
+	// VARIABLES ---------------------------------------------------- //
+	
+	static final Map<String, String> macros = new HashMap<>();
+	
+	static final Map<String, String> locals = new HashMap<>();
+	
+	static final Map<String, Double> scalars = new HashMap<>();
+	
+	static final Map<String, StoredMatrix> matrices = new HashMap<>();
+	
+	static final List<StoredVariable> variables = new ArrayList<>();
+	
+	static final Map<String, Integer> varIndexes = new HashMap<>();
+	
+	static final Map<String, Map<Integer, String>> valueLabels = new HashMap<>();
+	
+	static final Map<String, Estimates> estimates = new LinkedHashMap<>();
+	
+	static final List<String> commands = new ArrayList<>();
+	
+	static final StringBuilder output = new StringBuilder(), errors = new StringBuilder();
+	
+	static String workingDir = System.getProperty("user.dir");
+	
+	// PUBLIC ------------------------------------------------------- //
+	
+	public static void reset() {
+		macros.clear();
+		locals.clear();
+		scalars.clear();
+		matrices.clear();
+		variables.clear();
+		varIndexes.clear();
+		valueLabels.clear();
+		estimates.clear();
+		commands.clear();
+		output.setLength(0);
+		errors.setLength(0);
+	}
+	
+	public static void setMacro(String name, String value) {
+		macros.put(name, value);
+	}
+	
+	public static void setLocal(String name, String value) {
+		locals.put(name, value);
+	}
+	
+	public static void setScalar(String name, double value) {
+		scalars.put(name, value);
+	}
+	
+	public static void setMatrix(String name, String[] rowNames, String[] colNames, String[] colEqs,
+			double[][] values) {
+		matrices.put(name, new StoredMatrix(rowNames, colNames, colEqs, values));
+	}
+	
+	public static void addVariable(String name, String label, String format, String valueLabel) {
+		variables.add(new StoredVariable(name, label, format, valueLabel));
+		varIndexes.putIfAbsent(name, variables.size());
+	}
+	
+	public static void addValueLabel(String name, int value, String label) {
+		valueLabels.computeIfAbsent(name, k -> new HashMap<>()).put(value, label);
+	}
+	
+	/**
+	 * Stores the current {@code e()} and {@code r()} results under
+	 * {@code name}, so that {@code estimates restore name} brings them back.
+	 */
+	public static void storeEstimates(String name) {
+		estimates.put(name, new Estimates());
+	}
+	
+	public static void setWorkingDir(String dir) {
+		workingDir = dir;
+	}
+	
+	public static List<String> getCommands() {
+		return commands;
+	}
+	
+	public static String getOutput() {
+		return output.toString();
+	}
+	
+	public static String getErrors() {
+		return errors.toString();
+	}
+	
+	// PACKAGE ------------------------------------------------------ //
+	
+	static int executeCommand(String cmd) {
+		commands.add(cmd);
+		
+		Matcher m;
+		if ((m = EXTENDED_MACRO.matcher(cmd)).matches()) {
+			StoredMatrix matrix = matrices.get(m.group("matrix"));
+			if (matrix == null)
+				return 111;
+			String[] values;
+			switch (m.group("fn")) {
+			case "coleq":
+				values = matrix.colEqs;
+				break;
+			case "colnames":
+				values = matrix.colNames;
+				break;
+			default:
+				values = matrix.rowNames;
+			}
+			locals.put(m.group("local"), String.join(" ", values));
+			return 0;
+		} else if ((m = ESTIMATES_RESTORE.matcher(cmd)).matches()) {
+			Estimates est = estimates.get(m.group("name"));
+			if (est == null)
+				return 111;
+			est.restore();
+			return 0;
+		} else {
+			// anything else is recorded, but has no effect on the stand-in
+			return 0;
+		}
+	}
+	
+	static int varIndex(String name) {
+		return varIndexes.getOrDefault(name, variables.size() + 1);
+	}
+	
+	static StoredVariable variable(int index) {
+		return index >= 1 && index <= variables.size() ? variables.get(index - 1) : null;
+	}
+	
+	// INNER CLASSES ------------------------------------------------ //
+	
+	static class StoredMatrix {
+		
+		final String[] rowNames, colNames, colEqs;
+		
+		final double[][] values;
+		
+		StoredMatrix(String[] rowNames, String[] colNames, String[] colEqs, double[][] values) {
+			this.rowNames = rowNames;
+			this.colNames = colNames;
+			this.colEqs = colEqs != null ? colEqs : filled(colNames.length, "_");
+			this.values = values;
+		}
+		
+		private static String[] filled(int n, String s) {
+			String[] a = new String[n];
+			java.util.Arrays.fill(a, s);
+			return a;
+		}
+		
+	}
+	
+	static class StoredVariable {
+		
+		final String name, label, format, valueLabel;
+		
+		StoredVariable(String name, String label, String format, String valueLabel) {
+			this.name = name;
+			this.label = label != null ? label : "";
+			this.format = format != null ? format : "%9.0g";
+			this.valueLabel = valueLabel != null ? valueLabel : "";
+		}
+		
+	}
+	
+	static class Estimates {
+		
+		final Map<String, String> macros = new HashMap<>();
+		
+		final Map<String, Double> scalars = new HashMap<>();
+		
+		final Map<String, StoredMatrix> matrices = new HashMap<>();
+		
+		Estimates() {
+			StandIn.macros.forEach((k, v) -> {
+				if (isResult(k))
+					macros.put(k, v);
+			});
+			StandIn.scalars.forEach((k, v) -> {
+				if (isResult(k))
+					scalars.put(k, v);
+			});
+			StandIn.matrices.forEach((k, v) -> {
+				if (isResult(k))
+					matrices.put(k, v);
+			});
+		}
+		
+		void restore() {
+			StandIn.macros.keySet().removeIf(Estimates::isResult);
+			StandIn.scalars.keySet().removeIf(Estimates::isResult);
+			StandIn.matrices.keySet().removeIf(Estimates::isResult);
+			StandIn.macros.putAll(macros);
+			StandIn.scalars.putAll(scalars);
+			StandIn.matrices.putAll(matrices);
+		}
+		
+		static boolean isResult(String key) {
+			return key.startsWith("e(") || key.startsWith("r(");
+		}
+		
+	}
+	
+}
@@ -0,0 +1,24 @@
+package com.stata.sfi;
+
+import java.util.Map;
+
+import com.stata.sfi.StandIn.StoredVariable;
+
+/**
+ * Stand-in for the SFI {@code ValueLabel} class, backed by {@link StandIn}.
+ */
+public class ValueLabel {
+	
+	// PUBLIC ------------------------------------------------------- //
+	
+	public static String getVarValueLabel(int index) {
+		StoredVariable v = StandIn.variable(index);
+		return v == null ? null : v.valueLabel;
+	}
+	
+	public static String getLabel(String name, int value) {
+		Map<Integer, String> labels = StandIn.valueLabels.get(name);
+		return labels == null ? null : labels.get(value);
+	}
+	
+}
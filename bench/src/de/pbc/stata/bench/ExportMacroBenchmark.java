@@ -0,0 +1,213 @@
+package de.pbc.stata.bench;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.IntSupplier;
+
+import com.stata.sfi.StandIn;
+
+import de.pbc.stata.DescOut;
+import de.pbc.stata.MarginsOut;
+import de.pbc.stata.RegOut2;
+
+/**
+ * <p>
+ * End-to-end export benchmark. Generates a workbook of configurable size,
+ * installs a synthetic result in the SFI stand-in and runs a complete export
+ * into (a copy of) the workbook, reporting wall time, peak heap, allocation
+ * rate and output file size per run.
+ * </p>
+ * <p>
+ * Takes {@code key=value} arguments:
+ * <ul>
+ * <li>{@code exporter=}: {@code regout2} (default), {@code descout} or
+ * {@code marginsout}</li>
+ * <li>{@code models=}: models (regout2), margins tables (marginsout) or rows
+ * (descout) already in the workbook (300 default)</li>
+ * <li>{@code sheets=}: sheets to spread the models across (40 default)</li>
+ * <li>{@code terms=}: terms per model, or margins per table (50 default)</li>
+ * <li>{@code equations=}: equations of the exported model (1 default)</li>
+ * <li>{@code runs=}: measured runs (5 default); one unmeasured warm-up run
+ * precedes them</li>
+ * <li>{@code dir=}: scratch directory (a new temporary directory by
+ * default)</li>
+ * </ul>
+ * </p>
+ * <p>
+ * Runs headless. {@code MarginsOut} always writes {@code marginsOut.xlsx} to
+ * the JVM's working directory, so start the JVM in the scratch directory for
+ * {@code exporter=marginsout}.
+ * </p>
+ */
+public class ExportMacroBenchmark {
+	
+	// VARIABLES ---------------------------------------------------- //
+	
+	private String exporter;
+	
+	private int models, sheets, terms, equations, runs;
+	
+	private Path dir, template, target;
+	
+	// ENTRY POINT -------------------------------------------------- //
+	
+	public static void main(String[] args) throws Exception {
+		System.setProperty("java.awt.headless", "true");
+		new ExportMacroBenchmark(args).run();
+	}
+	
+	// CONSTRUCTOR -------------------------------------------------- //
+	
+	public ExportMacroBenchmark(String[] args) throws IOException {
+		Map<String, String> opts = new HashMap<>();
+		for (String arg : args) {
+			int eq = arg.indexOf('=');
+			if (eq < 0)
+				throw new IllegalArgumentException("expected key=value: " + arg);
+			opts.put(arg.substring(0, eq).toLowerCase(), arg.substring(eq + 1));
+		}
+		
+		exporter = opts.getOrDefault("exporter", "regout2").toLowerCase();
+		models = Integer.parseInt(opts.getOrDefault("models", "300"));
+		sheets = Integer.parseInt(opts.getOrDefault("sheets", "40"));
+		terms = Integer.parseInt(opts.getOrDefault("terms", "50"));
+		equations = Integer.parseInt(opts.getOrDefault("equations", "1"));
+		runs = Integer.parseInt(opts.getOrDefault("runs", "5"));
+		dir = opts.containsKey("dir") ? Files.createDirectories(Paths.get(opts.get("dir")))
+				: Files.createTempDirectory("exportbench");
+	}
+	
+	// PUBLIC ------------------------------------------------------- //
+	
+	public void run() throws Exception {
+		IntSupplier export = prepare();
+		
+		System.out.printf(Locale.ROOT, "%s: %d models on %d sheets, %d terms, %d equation(s); template %,d bytes%n",
+				exporter, models, sheets, terms, equations, Files.size(template));
+		System.out.printf(Locale.ROOT, "%-6s %12s %14s %16s %14s%n", "run", "wall (ms)", "peak heap (MB)",
+				"alloc (MB/s)", "file (bytes)");
+		
+		List<Measurement> measurements = new ArrayList<>();
+		for (int run = 0; run <= runs; run++) {
+			Files.copy(template, target, StandardCopyOption.REPLACE_EXISTING);
+			Measurement m = measure(export);
+			
+			if (run == 0) {
+				print("warmup", m);
+			} else {
+				print(String.valueOf(run), m);
+				measurements.add(m);
+			}
+		}
+		
+		measurements.sort(Comparator.comparingLong(m -> m.wallNanos));
+		print("median", measurements.get(measurements.size() / 2));
+		
+		Files.deleteIfExists(target);
+		Files.deleteIfExists(template);
+	}
+	
+	// PRIVATE ------------------------------------------------------ //
+	
+	private IntSupplier prepare() throws IOException {
+		template = dir.resolve("template.xlsx");
+		
+		switch (exporter) {
+		case "regout2":
+			target = dir.resolve("regout.xlsx");
+			SyntheticWorkbook.regressions(template, sheets, models, terms);
+			Fixtures.regression(terms, equations, models).install();
+			StandIn.setWorkingDir(dir.toString());
+			return () -> new RegOut2().execute(new String[] { "path=regout.xlsx", "merge" });
+		case "descout":
+			target = dir.resolve("descout.xlsx");
+			SyntheticWorkbook.descriptives(template, models);
+			Fixtures.regression(terms, 1).install();
+			StandIn.setScalar("rs_mean", 1.5);
+			StandIn.setScalar("rs_sd", .5);
+			StandIn.setScalar("rs_min", 0);
+			StandIn.setScalar("rs_max", 3);
+			return () -> {
+				try {
+					return new DescOut().execute(new String[] { "var=x1", "excel", "merge", "quietly",
+							"path=" + target.toAbsolutePath() });
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			};
+		case "marginsout":
+			target = Paths.get("marginsOut.xlsx").toAbsolutePath();
+			if (!target.getParent().equals(dir.toAbsolutePath()) && Files.exists(target))
+				throw new IllegalStateException(target + " exists; start the JVM in a scratch directory");
+			SyntheticWorkbook.margins(template, sheets, terms);
+			Fixtures.margins(terms).install();
+			return () -> new MarginsOut().execute(new String[0]);
+		default:
+			throw new IllegalArgumentException("unknown exporter: " + exporter);
+		}
+	}
+	
+	private Measurement measure(IntSupplier export) throws IOException {
+		List<MemoryPoolMXBean> heap = new ArrayList<>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				heap.add(pool);
+		}
+		
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		long tid = Thread.currentThread().getId();
+		
+		System.gc();
+		heap.forEach(MemoryPoolMXBean::resetPeakUsage);
+		
+		long allocated = threads.getThreadAllocatedBytes(tid);
+		long start = System.nanoTime();
+		
+		int rc = export.getAsInt();
+		
+		long wall = System.nanoTime() - start;
+		allocated = threads.getThreadAllocatedBytes(tid) - allocated;
+		
+		if (rc != 0)
+			throw new IllegalStateException(exporter + " failed (" + rc + "): " + StandIn.getErrors());
+		
+		// sum of the per-pool peaks; an upper bound of the actual peak
+		long peak = heap.stream().mapToLong(p -> p.getPeakUsage().getUsed()).sum();
+		
+		return new Measurement(wall, peak, allocated, Files.size(target));
+	}
+	
+	private static void print(String run, Measurement m) {
+		System.out.printf(Locale.ROOT, "%-6s %,12.1f %,14.1f %,16.1f %,14d%n", run, m.wallNanos / 1e6,
+				m.peakHeap / 1048576d, m.allocated / 1048576d / (m.wallNanos / 1e9), m.fileSize);
+	}
+	
+	// INNER CLASSES ------------------------------------------------ //
+	
+	private static class Measurement {
+		
+		final long wallNanos, peakHeap, allocated, fileSize;
+		
+		Measurement(long wallNanos, long peakHeap, long allocated, long fileSize) {
+			this.wallNanos = wallNanos;
+			this.peakHeap = peakHeap;
+			this.allocated = allocated;
+			this.fileSize = fileSize;
+		}
+		
+	}
+	
+}
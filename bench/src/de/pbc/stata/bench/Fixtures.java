@@ -0,0 +1,233 @@
+package de.pbc.stata.bench;
+
+import java.util.Random;
+
+import com.stata.sfi.Data;
+
+/**
+ * Synthetic recordings of configurable size, shaped like real estimation
+ * results: continuous regressors, factor variables with value labels,
+ * interactions, base levels, omitted terms and a constant.
+ */
+public class Fixtures {
+	
+	// CONSTANTS ---------------------------------------------------- //
+	
+	public static final String[] TABLE_ROWS = { "b", "se", "t", "pvalue", "ll", "ul", "df", "crit", "eform" };
+	
+	private static final int FIRMS = 1000;
+	
+	// PUBLIC ------------------------------------------------------- //
+	
+	/**
+	 * A {@code regress} result with {@code terms} coefficients (including the
+	 * constant), or an {@code sqreg} result with {@code terms} coefficients in
+	 * each of {@code equations} equations.
+	 */
+	public static Recording regression(int terms, int equations) {
+		return regression(terms, equations, 42);
+	}
+	
+	public static Recording regression(int terms, int equations, long seed) {
+		return regression(terms, equations, seed, false);
+	}
+	
+	/**
+	 * @param vce
+	 *            whether to add {@code e(V)}, with the squared standard errors
+	 *            on the diagonal and a correlation of .1 between the
+	 *            coefficients of an equation
+	 */
+	public static Recording regression(int terms, int equations, long seed, boolean vce) {
+		Random rnd = new Random(seed);
+		Recording rec = new Recording();
+		
+		variables(rec, terms);
+		
+		String[] names = termNames(terms);
+		int cols = names.length * equations;
+		String[] colNames = new String[cols];
+		String[] colEqs = new String[cols];
+		double[][] table = new double[TABLE_ROWS.length][cols];
+		for (int eq = 0; eq < equations; eq++) {
+			for (int i = 0; i < names.length; i++) {
+				int col = eq * names.length + i;
+				colNames[col] = names[i];
+				colEqs[col] = equations == 1 ? "_" : "q" + (eq + 1) * 100 / (equations + 1);
+				fillColumn(table, col, names[i], rnd);
+			}
+		}
+		
+		double[][] b = new double[1][cols];
+		System.arraycopy(table[0], 0, b[0], 0, cols);
+		
+		rec.macro("e(cmd)", equations == 1 ? "regress" : "sqreg");
+		rec.macro("e(depvar)", "y");
+		rec.scalar("e(N)", 10_000 + terms);
+		rec.scalar("e(df_m)", terms - 1);
+		rec.scalar("e(df_r)", 10_000);
+		rec.scalar("e(F)", 12.5 + rnd.nextDouble());
+		rec.scalar("e(r2)", rnd.nextDouble());
+		rec.scalar("e(r2_a)", rnd.nextDouble());
+		for (int eq = 1; eq <= equations; eq++) {
+			double sumrdv = 1_000 + rnd.nextDouble() * 100;
+			rec.scalar("e(sumrdv" + eq + ")", sumrdv);
+			rec.scalar("e(sumadv" + eq + ")", sumrdv * rnd.nextDouble());
+		}
+		rec.matrix("e(b)", new String[] { "y1" }, colNames, colEqs, b);
+		rec.matrix("r(table)", TABLE_ROWS, colNames, colEqs, table);
+		
+		if (vce) {
+			double[][] v = new double[cols][cols];
+			for (int i = 0; i < cols; i++) {
+				double se = Data.isValueMissing(table[1][i]) ? 0 : table[1][i];
+				for (int j = 0; j < cols; j++) {
+					double sej = Data.isValueMissing(table[1][j]) ? 0 : table[1][j];
+					if (i == j)
+						v[i][j] = se * se;
+					else if (i / names.length == j / names.length)
+						v[i][j] = .1 * se * sej;
+				}
+			}
+			rec.matrix("e(V)", colNames, colNames, colEqs, v);
+		}
+		
+		return rec;
+	}
+	
+	/**
+	 * A {@code margins} result over {@code margins} combinations of two
+	 * varying covariates, with three further covariates held at their means.
+	 */
+	public static Recording margins(int margins) {
+		Random rnd = new Random(42);
+		Recording rec = new Recording();
+		
+		String[] atNames = { "x1", "x2", "x3", "x4", "x5" };
+		for (String name : atNames)
+			rec.variable(name, "Covariate " + name, "%9.0g", null);
+		
+		String[] colNames = new String[margins];
+		double[][] table = new double[TABLE_ROWS.length][margins];
+		double[][] at = new double[margins][atNames.length];
+		for (int i = 0; i < margins; i++) {
+			colNames[i] = (i + 1) + "._at";
+			fillColumn(table, i, colNames[i], rnd);
+			at[i][0] = i % 10;
+			at[i][1] = i / 10;
+			at[i][2] = .5;
+			at[i][3] = 1.25;
+			at[i][4] = 3;
+		}
+		
+		rec.local("r_cmdline", "margins, at(x1=(0(1)9) x2=(0(1)" + (margins / 10) + "))");
+		rec.matrix("r(table)", TABLE_ROWS, colNames, null, table);
+		rec.matrix("r(at)", colNames, atNames, null, at);
+		
+		return rec;
+	}
+	
+	/**
+	 * An {@code ivreghdfe} result with {@code terms} coefficients, with
+	 * {@code x1} instrumented. Its first stage is stored as
+	 * {@code _ivreg2_x1}, with statistics that differ from the second
+	 * stage's (N 111 vs 999), and is restored by reading the model.
+	 */
+	public static Recording ivreghdfe(int terms, long seed) {
+		Random rnd = new Random(seed);
+		Recording rec = new Recording();
+		
+		variables(rec, terms);
+		
+		String[] names = termNames(terms);
+		ivStage(rec, names, "x1", 111, rnd);
+		rec.estimates("_ivreg2_x1");
+		
+		ivStage(rec, names, "y", 999, rnd);
+		rec.macro("e(cmd)", "ivreghdfe");
+		rec.macro("e(instd)", "x1");
+		rec.matrix("e(first)", new String[] { "F", "pvalue", "pr2" }, new String[] { "x1" }, null,
+				new double[][] { { 25 + rnd.nextDouble() }, { .001 }, { rnd.nextDouble() } });
+		rec.matrix("e(dof_table)", new String[] { "1.firm" }, new String[] { "Categories", "Redundant" }, null,
+				new double[][] { { FIRMS, 0 } });
+		
+		return rec;
+	}
+	
+	// PRIVATE ------------------------------------------------------ //
+	
+	/**
+	 * One stage of an IV estimation: e(b) and a diagonal e(V) over
+	 * {@code names}, and the scalars regout2 reads.
+	 */
+	private static void ivStage(Recording rec, String[] names, String depvar, int n, Random rnd) {
+		double[][] table = new double[TABLE_ROWS.length][names.length];
+		double[][] v = new double[names.length][names.length];
+		for (int i = 0; i < names.length; i++) {
+			fillColumn(table, i, names[i], rnd);
+			v[i][i] = Data.isValueMissing(table[1][i]) ? 0 : table[1][i] * table[1][i];
+		}
+		
+		rec.macro("e(depvar)", depvar);
+		rec.scalar("e(N)", n);
+		rec.scalar("e(df_r)", n - names.length);
+		rec.scalar("e(F)", 1 + rnd.nextDouble() * 50);
+		rec.scalar("e(Fp)", rnd.nextDouble() / 10);
+		rec.scalar("e(r2)", rnd.nextDouble());
+		rec.scalar("e(r2_a)", rnd.nextDouble());
+		rec.matrix("e(b)", new String[] { depvar }, names, null, new double[][] { table[0] });
+		rec.matrix("e(V)", names, names, null, v);
+	}
+	
+	private static void variables(Recording rec, int terms) {
+		rec.variable("y", "Outcome", "%9.0g", null);
+		rec.variable("firm", "Firm", "%9.0g", "firm");
+		rec.variable("year", "Year", "%ty", null);
+		rec.variable("treated", "Treated", "%8.0g", "yesno");
+		rec.valueLabel("yesno", 0, "No");
+		rec.valueLabel("yesno", 1, "Yes");
+		for (int i = 0; i < FIRMS; i++)
+			rec.valueLabel("firm", i, "Firm " + i);
+		for (int i = 1; i <= terms; i++)
+			rec.variable("x" + i, "Regressor " + i, "%9.0g", null);
+	}
+	
+	/**
+	 * Mostly continuous regressors; every tenth term is a firm dummy (every
+	 * hundredth a base level), every tenth an interaction, every fiftieth
+	 * omitted. The last term is the constant.
+	 */
+	private static String[] termNames(int terms) {
+		String[] names = new String[terms];
+		for (int i = 0; i < terms - 1; i++) {
+			switch (i % 10) {
+			case 3:
+				names[i] = (i / 10 % FIRMS) + (i % 100 == 3 ? "b" : "") + ".firm#" + (i / 10 / FIRMS + 1) + ".year";
+				break;
+			case 7:
+				names[i] = "1.treated#c.x" + (i + 1);
+				break;
+			default:
+				names[i] = (i % 50 == 9 ? "o." : "") + "x" + (i + 1);
+			}
+		}
+		names[terms - 1] = "_cons";
+		return names;
+	}
+	
+	private static void fillColumn(double[][] table, int col, String name, Random rnd) {
+		boolean zero = name.startsWith("o.") || name.matches("^\\d+b\\..*");
+		double b = zero ? 0 : rnd.nextGaussian();
+		double se = zero ? 0 : .05 + rnd.nextDouble();
+		table[0][col] = b;
+		table[1][col] = zero ? Data.getMissingValue() : se;
+		table[2][col] = zero ? Data.getMissingValue() : b / se;
+		table[3][col] = zero ? Data.getMissingValue() : rnd.nextDouble() * rnd.nextDouble();
+		table[4][col] = b - 1.96 * se;
+		table[5][col] = b + 1.96 * se;
+		table[6][col] = 10_000;
+		table[7][col] = 1.96;
+		table[8][col] = 0;
+	}
+	
+}
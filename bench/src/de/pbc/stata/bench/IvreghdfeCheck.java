@@ -0,0 +1,61 @@
+package de.pbc.stata.bench;
+
+import java.util.List;
+import java.util.Objects;
+
+import com.stata.sfi.Scalar;
+
+import de.pbc.stata.ModelResult;
+import de.pbc.stata.ModelSnapshot;
+import de.pbc.stata.ModelStat;
+import de.pbc.stata.Models;
+
+/**
+ * <p>
+ * Checks against the SFI stand-in that the second-stage statistics of an
+ * {@code ivreghdfe} model are those of the active estimation, although
+ * reading the model restores its first stages ({@link Fixtures#ivreghdfe(int,
+ * long)}). Exits with 1 and the differences otherwise.
+ * </p>
+ * <p>
+ * Runs headless: {@code java -cp <bench and exporter classpath>
+ * de.pbc.stata.bench.IvreghdfeCheck}
+ * </p>
+ */
+public class IvreghdfeCheck {
+	
+	// PUBLIC ------------------------------------------------------- //
+	
+	public static void main(String[] args) {
+		Fixtures.ivreghdfe(20, 42).install();
+		double n = Scalar.getValue("N", Scalar.TYPE_ERETURN), f = Scalar.getValue("F", Scalar.TYPE_ERETURN),
+				r2 = Scalar.getValue("r2", Scalar.TYPE_ERETURN);
+		
+		ModelResult model = ModelSnapshot.of(Models.byCmd("ivreghdfe"));
+		List<ModelStat> eqStats = model.getEquationStats("y");
+		
+		StringBuilder errors = new StringBuilder();
+		check(errors, "N", n, stat(model.getModelStats(), "N"));
+		check(errors, "F", f, stat(eqStats, "F"));
+		check(errors, "r2", r2, stat(eqStats, "r2"));
+		
+		if (errors.length() > 0) {
+			System.err.print(errors);
+			System.exit(1);
+		}
+		System.out.println("ivreghdfe: second-stage statistics match the active estimation");
+	}
+	
+	// PRIVATE ------------------------------------------------------ //
+	
+	private static Double stat(List<ModelStat> stats, String name) {
+		return stats.stream().filter((s) -> s.getName().equals(name)).findFirst().map(ModelStat::getValue)
+				.orElse(null);
+	}
+	
+	private static void check(StringBuilder errors, String name, double expected, Double actual) {
+		if (!Objects.equals(expected, actual))
+			errors.append(String.format("%s: %s instead of %s%n", name, actual, expected));
+	}
+	
+}
@@ -0,0 +1,74 @@
+package de.pbc.stata.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.stata.sfi.StandIn;
+
+import de.pbc.stata.MarginsOut;
+
+/**
+ * A complete {@code MarginsOut} call. MarginsOut always writes
+ * {@code marginsOut.xlsx} in the JVM's working directory, so the benchmark
+ * refuses to run if such a file exists already.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class MarginsOutBenchmark {
+	
+	// CONSTANTS ---------------------------------------------------- //
+	
+	private static final Path FILE = Paths.get("marginsOut.xlsx");
+	
+	// VARIABLES ---------------------------------------------------- //
+	
+	@Param({ "10", "1000", "50000" })
+	public int margins;
+	
+	// SETUP -------------------------------------------------------- //
+	
+	@Setup(Level.Trial)
+	public void setup() {
+		if (Files.exists(FILE))
+			throw new IllegalStateException(FILE.toAbsolutePath() + " exists; run the benchmark elsewhere");
+		
+		Fixtures.margins(margins).install();
+	}
+	
+	@TearDown(Level.Invocation)
+	public void deleteWorkbook() throws IOException {
+		Files.deleteIfExists(FILE);
+	}
+	
+	// BENCHMARKS --------------------------------------------------- //
+	
+	@Benchmark
+	public int execute() {
+		int rc = new MarginsOut().execute(new String[0]);
+		if (rc != 0)
+			throw new IllegalStateException("margins export failed (" + rc + "): " + StandIn.getErrors());
+		return rc;
+	}
+	
+}
@@ -0,0 +1,177 @@
+package de.pbc.stata.bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+import com.stata.sfi.Data;
+import com.stata.sfi.StandIn;
+
+/**
+ * <p>
+ * Estimation results (macros, scalars, matrices and the variable metadata the
+ * labels are built from) that can be installed into the SFI stand-in.
+ * </p>
+ * <p>
+ * Recordings are plain text, one tab-separated entry per line:
+ * <ul>
+ * <li>{@code macro	e(depvar)	price}</li>
+ * <li>{@code local	r_cmdline	margins foreign}</li>
+ * <li>{@code scalar	e(N)	74}</li>
+ * <li>{@code variable	name	label	format	value label}</li>
+ * <li>{@code valuelabel	origin	0	Domestic}</li>
+ * <li>{@code matrix	r(table)	row names	column names	column equations},
+ * followed by one {@code row	v1 v2 ...} line per matrix row ({@code .} is
+ * missing)</li>
+ * <li>{@code estimates	name}: store everything above under {@code name}
+ * (for {@code estimates restore})</li>
+ * </ul>
+ * Lines starting with {@code #} are comments.
+ * </p>
+ */
+public class Recording {
+	
+	// VARIABLES ---------------------------------------------------- //
+	
+	private final List<String[]> entries = new ArrayList<>();
+	
+	// CONSTRUCTOR -------------------------------------------------- //
+	
+	public Recording() {}
+	
+	// PUBLIC ------------------------------------------------------- //
+	
+	public static Recording load(Path path) throws IOException {
+		Recording rec = new Recording();
+		for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+			if (!line.isBlank() && !line.startsWith("#"))
+				rec.entries.add(line.split("\t", -1));
+		}
+		return rec;
+	}
+	
+	public void write(Path path) throws IOException {
+		try (BufferedWriter out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+			for (String[] entry : entries) {
+				out.write(String.join("\t", entry));
+				out.newLine();
+			}
+		}
+	}
+	
+	public Recording macro(String name, String value) {
+		entries.add(new String[] { "macro", name, value });
+		return this;
+	}
+	
+	public Recording local(String name, String value) {
+		entries.add(new String[] { "local", name, value });
+		return this;
+	}
+	
+	public Recording scalar(String name, double value) {
+		entries.add(new String[] { "scalar", name, format(value) });
+		return this;
+	}
+	
+	public Recording variable(String name, String label, String format, String valueLabel) {
+		entries.add(new String[] { "variable", name, nonNull(label), nonNull(format), nonNull(valueLabel) });
+		return this;
+	}
+	
+	public Recording valueLabel(String name, int value, String label) {
+		entries.add(new String[] { "valuelabel", name, String.valueOf(value), label });
+		return this;
+	}
+	
+	public Recording matrix(String name, String[] rowNames, String[] colNames, String[] colEqs, double[][] values) {
+		entries.add(new String[] { "matrix", name, String.join(" ", rowNames), String.join(" ", colNames),
+				colEqs == null ? "" : String.join(" ", colEqs) });
+		for (double[] row : values)
+			entries.add(new String[] { "row",
+					Arrays.stream(row).mapToObj(Recording::format).collect(Collectors.joining(" ")) });
+		return this;
+	}
+	
+	public Recording estimates(String name) {
+		entries.add(new String[] { "estimates", name });
+		return this;
+	}
+	
+	/**
+	 * Resets the stand-in and replays all entries into it.
+	 */
+	public void install() {
+		StandIn.reset();
+		
+		String[] matrix = null;
+		List<double[]> rows = new ArrayList<>();
+		
+		for (String[] e : entries) {
+			if (matrix != null && !e[0].equals("row")) {
+				storeMatrix(matrix, rows);
+				matrix = null;
+			}
+			
+			switch (e[0]) {
+			case "macro":
+				StandIn.setMacro(e[1], e[2]);
+				break;
+			case "local":
+				StandIn.setLocal(e[1], e[2]);
+				break;
+			case "scalar":
+				StandIn.setScalar(e[1], parse(e[2]));
+				break;
+			case "variable":
+				StandIn.addVariable(e[1], e[2], e[3].isEmpty() ? null : e[3], e[4]);
+				break;
+			case "valuelabel":
+				StandIn.addValueLabel(e[1], Integer.parseInt(e[2]), e[3]);
+				break;
+			case "matrix":
+				matrix = e;
+				rows = new ArrayList<>();
+				break;
+			case "row":
+				rows.add(Arrays.stream(e[1].trim().split(" +")).mapToDouble(Recording::parse).toArray());
+				break;
+			case "estimates":
+				StandIn.storeEstimates(e[1]);
+				break;
+			default:
+				throw new IllegalArgumentException("unknown recording entry: " + e[0]);
+			}
+		}
+		
+		if (matrix != null)
+			storeMatrix(matrix, rows);
+	}
+	
+	// PRIVATE ------------------------------------------------------ //
+	
+	private static void storeMatrix(String[] e, List<double[]> rows) {
+		StandIn.setMatrix(e[1], e[2].split(" "), e[3].split(" "), e[4].isEmpty() ? null : e[4].split(" "),
+				rows.toArray(new double[0][]));
+	}
+	
+	private static String format(double value) {
+		return Data.isValueMissing(value) ? "." : String.format(Locale.ROOT, "%.17g", value);
+	}
+	
+	private static double parse(String s) {
+		return s.equals(".") ? Data.getMissingValue() : Double.parseDouble(s);
+	}
+	
+	private static String nonNull(String s) {
+		return s == null ? "" : s;
+	}
+	
+}
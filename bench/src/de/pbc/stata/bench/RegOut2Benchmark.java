@@ -0,0 +1,113 @@
+package de.pbc.stata.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.stata.sfi.StandIn;
+
+import de.pbc.stata.RegOut2;
+
+/**
+ * A complete {@code regout2} call ({@code Models.byCmd}, {@code fillModel},
+ * {@code wb.write}), either into a fresh workbook or merged into a workbook
+ * that already holds {@value #EXISTING_MODELS} models.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RegOut2Benchmark {
+	
+	// CONSTANTS ---------------------------------------------------- //
+	
+	public static final int EXISTING_MODELS = 5;
+	
+	private static final String FILE = "bench.xlsx";
+	
+	// VARIABLES ---------------------------------------------------- //
+	
+	@Param({ "10", "1000", "50000" })
+	public int terms;
+	
+	@Param({ "1", "5" })
+	public int equations;
+	
+	@Param({ "fresh", "merge" })
+	public String workbook;
+	
+	private Path dir, template;
+	
+	private String[] args;
+	
+	// SETUP -------------------------------------------------------- //
+	
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("regout2-bench");
+		template = dir.resolve("template.xlsx");
+		
+		if (workbook.equals("merge")) {
+			for (int i = 0; i < EXISTING_MODELS; i++) {
+				Fixtures.regression(terms, equations, i).install();
+				StandIn.setWorkingDir(dir.toString());
+				run(new String[] { "path=" + FILE, "merge" });
+			}
+			Files.move(dir.resolve(FILE), template);
+			args = new String[] { "path=" + FILE, "merge" };
+		} else {
+			args = new String[] { "path=" + FILE };
+		}
+		
+		Fixtures.regression(terms, equations, EXISTING_MODELS).install();
+		StandIn.setWorkingDir(dir.toString());
+	}
+	
+	@Setup(Level.Invocation)
+	public void restoreWorkbook() throws IOException {
+		if (workbook.equals("merge"))
+			Files.copy(template, dir.resolve(FILE), StandardCopyOption.REPLACE_EXISTING);
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(dir.resolve(FILE));
+		Files.deleteIfExists(template);
+		Files.deleteIfExists(dir);
+	}
+	
+	// BENCHMARKS --------------------------------------------------- //
+	
+	@Benchmark
+	public int execute() {
+		return run(args);
+	}
+	
+	// PACKAGE ------------------------------------------------------ //
+	
+	static int run(String[] args) {
+		int rc = new RegOut2().execute(args);
+		if (rc != 0)
+			throw new IllegalStateException("regout2 failed (" + rc + "): " + StandIn.getErrors());
+		return rc;
+	}
+	
+}
@@ -0,0 +1,68 @@
+package de.pbc.stata.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.stata.sfi.StandIn;
+
+/**
+ * Replays a recording from {@code bench/recordings} (or the directory given by
+ * {@code -Dbench.recordings=}) through a fresh {@code regout2} call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ReplayBenchmark {
+	
+	// VARIABLES ---------------------------------------------------- //
+	
+	@Param({ "auto-regress.rec" })
+	public String recording;
+	
+	private Path dir;
+	
+	// SETUP -------------------------------------------------------- //
+	
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		Path recordings = Paths.get(System.getProperty("bench.recordings", "recordings"));
+		Recording.load(recordings.resolve(recording)).install();
+		
+		dir = Files.createTempDirectory("regout2-replay");
+		StandIn.setWorkingDir(dir.toString());
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(dir.resolve("replay.xlsx"));
+		Files.deleteIfExists(dir);
+	}
+	
+	// BENCHMARKS --------------------------------------------------- //
+	
+	@Benchmark
+	public int execute() {
+		return RegOut2Benchmark.run(new String[] { "path=replay.xlsx" });
+	}
+	
+}
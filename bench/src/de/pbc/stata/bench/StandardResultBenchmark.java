@@ -0,0 +1,65 @@
+package de.pbc.stata.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.stata.sfi.Macro;
+
+import de.pbc.stata.ModelResult;
+import de.pbc.stata.ModelSnapshot;
+import de.pbc.stata.Models;
+
+/**
+ * Reading a result through {@code Models.byCmd} ({@code StandardResult.init})
+ * and taking a snapshot of it, incl. labels and statistics.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class StandardResultBenchmark {
+	
+	// VARIABLES ---------------------------------------------------- //
+	
+	@Param({ "10", "1000", "50000" })
+	public int terms;
+	
+	@Param({ "1", "5" })
+	public int equations;
+	
+	private String cmd;
+	
+	// SETUP -------------------------------------------------------- //
+	
+	@Setup
+	public void setup() {
+		Fixtures.regression(terms, equations).install();
+		cmd = Macro.getGlobal("cmd", Macro.TYPE_ERETURN);
+	}
+	
+	// BENCHMARKS --------------------------------------------------- //
+	
+	@Benchmark
+	public ModelResult init() {
+		return Models.byCmd(cmd);
+	}
+	
+	@Benchmark
+	public ModelSnapshot snapshot() {
+		return ModelSnapshot.of(Models.byCmd(cmd));
+	}
+	
+}
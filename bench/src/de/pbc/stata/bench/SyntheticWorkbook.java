@@ -0,0 +1,185 @@
+package de.pbc.stata.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.poi.ss.usermodel.HorizontalAlignment;
+import org.apache.poi.ss.usermodel.Name;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.apache.poi.xssf.usermodel.XSSFRow;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import com.stata.sfi.Macro;
+
+import de.pbc.stata.ModelResult;
+import de.pbc.stata.ModelStat;
+import de.pbc.stata.Models;
+import de.pbc.stata.Term;
+
+/**
+ * <p>
+ * Writes workbooks that look like the output of many {@code regout2, merge}
+ * calls, without going through {@code RegOut2} (which would take quadratic
+ * time to build them).
+ * </p>
+ * <p>
+ * Row labels are taken from the same synthetic results that the benchmarks
+ * export, so a merge into a generated workbook matches and inserts rows just
+ * like a merge into a real one.
+ * </p>
+ */
+public class SyntheticWorkbook {
+	
+	// PUBLIC ------------------------------------------------------- //
+	
+	/**
+	 * Writes {@code sheets} sheets with {@code models} models in total to
+	 * {@code path}. Every model has {@code terms} coefficients; models vary in
+	 * which terms they contain, so rows don't line up trivially.
+	 */
+	public static void regressions(Path path, int sheets, int models, int terms) throws IOException {
+		List<String> labels = new ArrayList<>();
+		List<String> statLabels = new ArrayList<>();
+		
+		// twice as many terms as a single model, so models only partly overlap
+		Fixtures.regression(terms * 2, 1).install();
+		ModelResult res = Models.byCmd(Macro.getGlobal("cmd", Macro.TYPE_ERETURN));
+		for (Term term : res.getTerms())
+			labels.add(term.getLabel());
+		for (ModelStat stat : res.getModelStats())
+			statLabels.add(stat.getLabel());
+		
+		String created = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+		
+		try (XSSFWorkbook wb = new XSSFWorkbook()) {
+			XSSFCellStyle csText = wb.createCellStyle();
+			csText.setAlignment(HorizontalAlignment.RIGHT);
+			
+			for (int s = 0; s < sheets; s++) {
+				XSSFSheet sh = wb.createSheet(s == 0 ? "Sheet0" : "Sheet" + s);
+				int sheetModels = models / sheets + (s < models % sheets ? 1 : 0);
+				
+				XSSFRow r = sh.createRow(0);
+				r.createCell(0).setCellValue("Variables");
+				
+				// terms (without the constant, which is the last label)
+				int termRows = labels.size() - 1;
+				for (int i = 0; i < termRows; i++) {
+					r = sh.createRow(i + 1);
+					r.createCell(0).setCellValue(labels.get(i));
+				}
+				
+				Name lastVar = wb.createName();
+				lastVar.setNameName(String.format("%s_lastvar", sh.getSheetName().replace('-', '_')));
+				lastVar.setRefersToFormula(new CellReference(sh.getSheetName(), termRows, 0, true, true)
+						.formatAsString());
+				
+				List<String> tail = new ArrayList<>();
+				tail.add(labels.get(labels.size() - 1));
+				tail.addAll(statLabels);
+				tail.add("created");
+				for (int i = 0; i < tail.size(); i++) {
+					r = sh.createRow(termRows + 1 + i);
+					r.createCell(0).setCellValue(tail.get(i));
+				}
+				
+				for (int m = 0; m < sheetModels; m++) {
+					int col = m + 1;
+					sh.getRow(0).createCell(col).setCellValue("Outcome");
+					
+					// each model holds a window of half of the terms
+					int offset = (m * 7) % (termRows - terms + 2);
+					for (int i = offset; i < offset + terms - 1; i++) {
+						XSSFRow tr = sh.getRow(i + 1);
+						tr.createCell(col).setCellValue(String.format("%.2f*** (%.2f)", (i % 17) / 10.0, .01 * (1 + i % 5)));
+						tr.getCell(col).setCellStyle(csText);
+					}
+					for (int i = 0; i < tail.size(); i++) {
+						XSSFRow tr = sh.getRow(termRows + 1 + i);
+						tr.createCell(col).setCellValue(i == tail.size() - 1 ? created : String.format("%.2f", i + .5));
+						tr.getCell(col).setCellStyle(csText);
+					}
+				}
+			}
+			
+			try (OutputStream out = Files.newOutputStream(path)) {
+				wb.write(out);
+			}
+		}
+	}
+	
+	/**
+	 * Writes {@code sheets} margins tables with {@code margins} rows each, as
+	 * {@code MarginsOut} appends them.
+	 */
+	public static void margins(Path path, int sheets, int margins) throws IOException {
+		try (XSSFWorkbook wb = new XSSFWorkbook()) {
+			for (int s = 0; s < sheets; s++) {
+				XSSFSheet sh = wb.createSheet();
+				sh.createRow(0).createCell(0).setCellValue("margins, at(x1=(0(1)9))");
+				
+				XSSFRow r = sh.createRow(1);
+				String[] header = { "x1", "x2", "Margin", "Std. Err.", "z", "P>|z|" };
+				for (int i = 0; i < header.length; i++)
+					r.createCell(i).setCellValue(header[i]);
+				
+				for (int i = 0; i < margins; i++) {
+					r = sh.createRow(i + 2);
+					r.createCell(0).setCellValue(i % 10);
+					r.createCell(1).setCellValue(i / 10);
+					for (int j = 2; j < header.length; j++)
+						r.createCell(j).setCellValue((i + 1) * (j + .123));
+				}
+				
+				sh = wb.createSheet();
+				for (int i = 0; i <= margins; i++) {
+					r = sh.createRow(i);
+					for (int j = 0; j < 5; j++) {
+						if (i == 0)
+							r.createCell(j).setCellValue("x" + (j + 1));
+						else
+							r.createCell(j).setCellValue(j < 2 ? (j == 0 ? i % 10 : i / 10) : j * .25);
+					}
+				}
+			}
+			
+			try (OutputStream out = Files.newOutputStream(path)) {
+				wb.write(out);
+			}
+		}
+	}
+	
+	/**
+	 * Writes {@code rows} rows of descriptive statistics, as {@code DescOut}
+	 * appends them.
+	 */
+	public static void descriptives(Path path, int rows) throws IOException {
+		try (XSSFWorkbook wb = new XSSFWorkbook()) {
+			XSSFSheet sh = wb.createSheet();
+			XSSFRow r = sh.createRow(0);
+			String[] header = { "Variables", "Mean", "Std. Dev.", "Min", "Max" };
+			for (int i = 0; i < header.length; i++)
+				r.createCell(i).setCellValue(header[i]);
+			
+			for (int i = 1; i <= rows; i++) {
+				r = sh.createRow(i);
+				r.createCell(0).setCellValue("Regressor " + i);
+				for (int j = 1; j < header.length; j++)
+					r.createCell(j).setCellValue(i * j * .37);
+			}
+			
+			try (OutputStream out = Files.newOutputStream(path)) {
+				wb.write(out);
+			}
+		}
+	}
+	
+}
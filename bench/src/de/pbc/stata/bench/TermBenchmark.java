@@ -0,0 +1,80 @@
+package de.pbc.stata.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.stata.sfi.Matrix;
+
+import de.pbc.stata.StataUtils;
+import de.pbc.stata.Term;
+
+/**
+ * Construction (incl. {@code Variable} parsing), labelling and formatting of
+ * all terms of a model.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class TermBenchmark {
+	
+	// VARIABLES ---------------------------------------------------- //
+	
+	@Param({ "10", "1000", "50000" })
+	public int terms;
+	
+	private String[] names;
+	
+	private double[][] table;
+	
+	private List<Term> built;
+	
+	// SETUP -------------------------------------------------------- //
+	
+	@Setup
+	public void setup() {
+		Fixtures.regression(terms, 1).install();
+		names = Matrix.getMatrixColNames("r(table)");
+		table = StataUtils.getMatrix("r(table)");
+		built = construct();
+	}
+	
+	// BENCHMARKS --------------------------------------------------- //
+	
+	@Benchmark
+	public List<Term> construct() {
+		List<Term> list = new ArrayList<>(names.length);
+		for (int i = 0; i < names.length; i++)
+			list.add(new Term(i, names[i], table[0][i], table[1][i], table[3][i]));
+		return list;
+	}
+	
+	@Benchmark
+	public void label(Blackhole bh) {
+		for (Term term : built)
+			bh.consume(term.getLabel());
+	}
+	
+	@Benchmark
+	public void format(Blackhole bh) {
+		for (Term term : built)
+			bh.consume(term.getCoefficient(2) + term.getSigStars() + " (" + term.getStandardError(2) + ")");
+	}
+	
+}
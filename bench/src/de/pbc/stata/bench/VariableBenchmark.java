@@ -0,0 +1,57 @@
+package de.pbc.stata.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.pbc.stata.Variable;
+
+/**
+ * Parsing and labelling of single factor-variable names.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class VariableBenchmark {
+	
+	// VARIABLES ---------------------------------------------------- //
+	
+	@Param({ "x12", "o.x12", "1.treated", "0b.firm", "L2D.x12", "_cons" })
+	public String name;
+	
+	private Variable var;
+	
+	// SETUP -------------------------------------------------------- //
+	
+	@Setup
+	public void setup() {
+		Fixtures.regression(50, 1).install();
+		var = new Variable(name);
+	}
+	
+	// BENCHMARKS --------------------------------------------------- //
+	
+	@Benchmark
+	public Variable parse() {
+		return new Variable(name);
+	}
+	
+	@Benchmark
+	public String label() {
+		return var.getLabel();
+	}
+	
+}
@@ -0,0 +1,34 @@
+@echo off
+rem Builds a class-data-sharing archive (AppCDS) of the exporters and their
+rem libraries, from a training run of de.pbc.stata.Warmup.
+rem
+rem usage: build-cds <java home> <class path> [archive]
+rem
+rem   java home   the Java that Stata runs (see "query java" in Stata); the
+rem               archive only works with the JVM that built it
+rem   class path  the exporter jar and the jars of regout2.ado, separated by ;
+rem   archive     the archive to write (stata-out.jsa next to this script
+rem               default)
+rem
+rem Stata's JVM then has to be started with -XX:SharedArchiveFile=<archive>,
+rem e.g. through the JAVA_TOOL_OPTIONS environment variable.
+rem
+rem The archive only serves classes that the JVM's own loaders take from the
+rem class path it was built with. javacall loads the jars through Stata's
+rem class loader, so the archive may not be used at all (see README). Check
+rem with -Xlog:class+load: classes taken from the archive are logged with
+rem "source: shared objects file".
+
+setlocal
+if "%~2"=="" (
+	echo usage: build-cds ^<java home^> ^<class path^> [archive]
+	exit /b 198
+)
+
+set ARCHIVE=%~3
+if "%ARCHIVE%"=="" set ARCHIVE=%~dp0stata-out.jsa
+
+"%~1\bin\java.exe" -XX:ArchiveClassesAtExit="%ARCHIVE%" -cp "%~2" de.pbc.stata.Warmup
+if errorlevel 1 exit /b %errorlevel%
+
+echo %ARCHIVE% written; start Stata with JAVA_TOOL_OPTIONS=-XX:SharedArchiveFile=%ARCHIVE%
@@ -0,0 +1,154 @@
+package de.pbc.stata;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * <p>
+ * Writes workbooks on a background thread, so that Stata can go on while a
+ * workbook is compressed and written. Writes run one at a time, in the order
+ * they were submitted, so writes to the same workbook never overlap. Writes on
+ * Stata's thread wait for the pending ones to the same workbook first (see
+ * {@link #awaitPending(Path)}).
+ * </p>
+ * <p>
+ * Columns submitted for a workbook whose write hasn't started yet are added to
+ * that write, so back-to-back exports to the same file write it once. The
+ * columns keep the number of their export (see {@link Journal.Entry#getCall()}),
+ * so exports that each ask for a new sheet still get one each.
+ * </p>
+ */
+final class AsyncWriter {
+
+	// VARIABLES ---------------------------------------------------- //
+
+	private static AsyncWriter instance;
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor((r) -> {
+		Thread t = new Thread(r, "regout2-writer");
+		t.setDaemon(true);
+		return t;
+	});
+
+	/** Columns of the writes that haven't started, by workbook. */
+	private final Map<Path, List<Journal.Entry>> pending = new HashMap<>();
+
+	/** The last write submitted, by workbook. */
+	private final Map<Path, Future<?>> last = new HashMap<>();
+
+	private final List<String> errors = new ArrayList<>();
+
+	// CONSTRUCTOR -------------------------------------------------- //
+
+	private AsyncWriter() {
+		// pending writes are finished before Stata exits
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {
+				await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}, "regout2-writer-exit"));
+	}
+
+	// PUBLIC ------------------------------------------------------- //
+
+	static synchronized AsyncWriter get() {
+		if (instance == null)
+			instance = new AsyncWriter();
+		return instance;
+	}
+
+	/**
+	 * Queues the columns {@code entries} to be written to {@code path} by
+	 * {@code writer}, or adds them to the queued write to {@code path}.
+	 */
+	public void submit(Path path, List<Journal.Entry> entries, Writer writer) {
+		synchronized (pending) {
+			List<Journal.Entry> queued = pending.get(path);
+			if (queued != null) {
+				queued.addAll(entries);
+				return;
+			}
+			pending.put(path, new ArrayList<>(entries));
+
+			last.put(path, executor.submit(() -> {
+				List<Journal.Entry> batch;
+				synchronized (pending) {
+					batch = pending.remove(path);
+				}
+				try {
+					writer.write(path, batch);
+				} catch (Exception | OutOfMemoryError e) {
+					synchronized (errors) {
+						errors.add(String.format("writing %s failed: %s", path, e));
+					}
+				}
+			}));
+		}
+	}
+
+	/**
+	 * Blocks until the writes to {@code path} submitted so far are finished.
+	 * Their errors are reported by {@link #await()}. Must not be called by a
+	 * write.
+	 */
+	static void awaitPending(Path path) throws InterruptedException {
+		AsyncWriter writer;
+		synchronized (AsyncWriter.class) {
+			writer = instance;
+		}
+		if (writer == null)
+			return;
+
+		Future<?> future;
+		synchronized (writer.pending) {
+			future = writer.last.get(path);
+		}
+		if (future == null)
+			return;
+		try {
+			future.get();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Blocks until all writes submitted so far are finished.
+	 *
+	 * @return the errors of the writes since the last call
+	 */
+	public List<String> await() throws InterruptedException {
+		try {
+			executor.submit(() -> {
+			}).get();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e);
+		}
+
+		synchronized (errors) {
+			List<String> res = new ArrayList<>(errors);
+			errors.clear();
+			return res;
+		}
+	}
+
+	// INNER CLASSES ------------------------------------------------ //
+
+	@FunctionalInterface
+	interface Writer {
+
+		void write(Path path, List<Journal.Entry> entries) throws IOException;
+
+	}
+
+}
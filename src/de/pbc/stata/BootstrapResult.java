@@ -0,0 +1,431 @@
+package de.pbc.stata;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.commons.math3.distribution.NormalDistribution;
+
+import com.stata.sfi.Data;
+import com.stata.sfi.Matrix;
+import com.stata.sfi.SFIToolkit;
+
+/**
+ * <p>
+ * A model with confidence intervals and p-values computed from its bootstrap
+ * replications, e.g. those saved by {@code bootstrap _b, saving(bs)}:
+ * </p>
+ * <ul>
+ * <li>{@link Method#PERCENTILE}: the α/2 and 1 - α/2 percentiles of the
+ * replications</li>
+ * <li>{@link Method#BC}: percentiles adjusted for the bias z0 = Φ⁻¹(share of
+ * replications ≤ b)</li>
+ * <li>{@link Method#BCA}: percentiles adjusted for bias and acceleration,
+ * which is taken from {@code e(accel)} (see {@code bootstrap, bca})</li>
+ * </ul>
+ * <p>
+ * The p-value of a term is twice the smaller share of replications on either
+ * side of 0. Standard errors are left as they are. The intervals are written
+ * as rows below their terms (see {@link Term#getInterval()}).
+ * </p>
+ * <p>
+ * The replications are read once ({@link Replications#read(String)}), one row
+ * per replication and one column per coefficient of {@code e(b)}, in the same
+ * order. Percentiles are found by selection instead of sorting, one column
+ * per task, on the common fork-join pool.
+ * </p>
+ */
+public class BootstrapResult implements ModelResult {
+
+	// CONSTANTS ---------------------------------------------------- //
+
+	/** Below this many values in total, the columns are computed inline. */
+	private static final long PARALLEL_THRESHOLD = 1 << 16;
+
+	// VARIABLES ---------------------------------------------------- //
+
+	private final ModelResult model;
+
+	private final List<Term> terms;
+
+	private final Map<String, List<Term>> equationTerms = new HashMap<>();
+
+	private final List<ModelStat> modelStats;
+
+	// CONSTRUCTOR -------------------------------------------------- //
+
+	/**
+	 * Computes the intervals of {@code model}, the active estimation. Has to
+	 * be called on Stata's thread.
+	 *
+	 * @param level
+	 *            the confidence level in percent, e.g. 95
+	 */
+	public BootstrapResult(ModelResult model, Replications reps, Method method, double level) {
+		StataResults results = StataResults
+				.fetch(new StataResults.Request().matrixWithEquations("e(b)").matrices("e(accel)"));
+		StataResults.ResultMatrix eb = results.getMatrix("e(b)");
+		if (Objects.isNull(eb))
+			throw new IllegalStateException("e(b) not found");
+		String[] names = eb.getColNames(), eqs = eb.getColEqs();
+		if (reps.cols != names.length)
+			throw new IllegalArgumentException(String.format("the replications have %d columns, e(b) has %d",
+					reps.cols, names.length));
+
+		double[] accel = null;
+		if (method == Method.BCA) {
+			StataResults.ResultMatrix a = results.getMatrix("e(accel)");
+			if (Objects.isNull(a))
+				throw new IllegalArgumentException("bca requires e(accel), see bootstrap, bca");
+			accel = a.getValues()[0];
+		}
+
+		Interval[] intervals = new Interval[names.length];
+		Columns task = new Columns(reps, eb.getValues()[0], accel, method, level, Data.getMissingValue(),
+				intervals, 0, names.length);
+		if ((long) reps.rows * reps.cols < PARALLEL_THRESHOLD)
+			task.compute();
+		else
+			ForkJoinPool.commonPool().invoke(task);
+
+		// terms are matched to the columns of e(b) by equation and name
+		Map<String, Integer> cols = new HashMap<>();
+		for (int j = 0; j < names.length; j++)
+			cols.put(key(Objects.isNull(eqs) ? null : eqs[j], names[j]), j);
+
+		String name = String.format("%s%% CI, %s", DecimalFormatter.format(level, level == Math.rint(level) ? 0 : 1),
+				method.label);
+		this.model = model;
+		if (model.hasMultipleEquations()) {
+			for (String eq : model.getEquations())
+				equationTerms.put(eq, withIntervals(model.getTerms(eq), eq, cols, intervals, name));
+			this.terms = equationTerms.get(model.getEquations().get(0));
+		} else {
+			String eq = Objects.isNull(eqs) ? null : eqs[0];
+			this.terms = withIntervals(model.getTerms(), eq, cols, intervals, name);
+		}
+
+		List<ModelStat> stats = new ArrayList<>();
+		if (Objects.nonNull(model.getModelStats()))
+			stats.addAll(model.getModelStats());
+		stats.add(new ModelStat("reps_bs", "Replications", (double) reps.rows, null, 0));
+		this.modelStats = List.copyOf(stats);
+	}
+
+	// PUBLIC ------------------------------------------------------- //
+
+	@Override
+	public Variable getDv() {
+		return model.getDv();
+	}
+
+	@Override
+	public boolean hasMultipleEquations() {
+		return model.hasMultipleEquations();
+	}
+
+	@Override
+	public List<String> getEquations() {
+		return model.getEquations();
+	}
+
+	@Override
+	public List<Term> getTerms() {
+		return terms;
+	}
+
+	@Override
+	public List<Term> getTerms(String eq) {
+		return equationTerms.getOrDefault(eq, terms);
+	}
+
+	@Override
+	public List<ModelStat> getModelStats() {
+		return modelStats;
+	}
+
+	@Override
+	public List<ModelStat> getEquationStats(String eq) {
+		return model.getEquationStats(eq);
+	}
+
+	// PRIVATE ------------------------------------------------------ //
+
+	private static List<Term> withIntervals(List<Term> terms, String eq, Map<String, Integer> cols,
+			Interval[] intervals, String name) {
+		List<Term> copy = new ArrayList<>(terms.size());
+		for (Term term : terms) {
+			Integer col = cols.get(key(eq, term.getName()));
+			if (Objects.isNull(col)) {
+				copy.add(term);
+			} else {
+				Interval i = intervals[col];
+				copy.add(term.withInterval(new Term.Interval(name, toDouble(i.lower), toDouble(i.upper)),
+						toDouble(i.p)));
+			}
+		}
+		return copy;
+	}
+
+	private static Double toDouble(double val) {
+		return Double.isNaN(val) ? null : val;
+	}
+
+	private static String key(String eq, String name) {
+		return Objects.isNull(eq) || eq.equals("_") ? name : eq + ":" + name;
+	}
+
+	/**
+	 * The {@code k}-th smallest value of {@code a[from, to)}, which is
+	 * partitioned around it: smaller values end up before {@code k}, larger
+	 * ones after.
+	 */
+	static double select(double[] a, int from, int to, int k) {
+		int lo = from, hi = to - 1;
+		while (lo < hi) {
+			// median of three as pivot
+			int mid = (lo + hi) >>> 1;
+			if (a[mid] < a[lo])
+				swap(a, lo, mid);
+			if (a[hi] < a[lo])
+				swap(a, lo, hi);
+			if (a[hi] < a[mid])
+				swap(a, mid, hi);
+			double pivot = a[mid];
+
+			int i = lo, j = hi;
+			while (i <= j) {
+				while (a[i] < pivot)
+					i++;
+				while (a[j] > pivot)
+					j--;
+				if (i <= j)
+					swap(a, i++, j--);
+			}
+			if (k <= j)
+				hi = j;
+			else if (k >= i)
+				lo = i;
+			else
+				break;
+		}
+		return a[k];
+	}
+
+	private static void swap(double[] a, int i, int j) {
+		double t = a[i];
+		a[i] = a[j];
+		a[j] = t;
+	}
+
+	// INNER CLASSES ------------------------------------------------ //
+
+	public enum Method {
+
+		PERCENTILE("percentile"), BC("BC"), BCA("BCa");
+
+		private final String label;
+
+		private Method(String label) {
+			this.label = label;
+		}
+
+	}
+
+	/**
+	 * Bootstrap replications, row-major: one row per replication.
+	 */
+	public static final class Replications {
+
+		// CONSTANTS ------------------------------------------------ //
+
+		private static final String MATRIX = "_regout2_bs";
+
+		// VARIABLES ------------------------------------------------ //
+
+		private final int rows, cols;
+
+		private final double[] values;
+
+		// CONSTRUCTOR ---------------------------------------------- //
+
+		Replications(int rows, int cols, double[] values) {
+			this.rows = rows;
+			this.cols = cols;
+			this.values = values;
+		}
+
+		// PUBLIC --------------------------------------------------- //
+
+		/**
+		 * Reads the replications from the Stata matrix {@code source}, or from
+		 * the dataset {@code source} if it ends with {@code .dta}, which is
+		 * loaded into a matrix meanwhile (the data in memory is preserved).
+		 */
+		public static Replications read(String source) {
+			if (!source.toLowerCase().endsWith(".dta"))
+				return fromMatrix(source);
+
+			if (SFIToolkit.executeCommand("preserve", false) != 0)
+				throw new IllegalStateException("the data could not be preserved");
+			try {
+				if (SFIToolkit.executeCommand(String.format("quietly: use \"%s\", clear", source), false) != 0)
+					throw new IllegalArgumentException(String.format("%s could not be loaded", source));
+				if (SFIToolkit.executeCommand(String.format("mata: st_matrix(\"%s\", st_data(., .))", MATRIX),
+						false) != 0)
+					throw new IllegalArgumentException(String.format("%s could not be read into a matrix", source));
+			} finally {
+				SFIToolkit.executeCommand("restore", false);
+			}
+			try {
+				return fromMatrix(MATRIX);
+			} finally {
+				SFIToolkit.executeCommand("capture matrix drop " + MATRIX, false);
+			}
+		}
+
+		// PRIVATE -------------------------------------------------- //
+
+		private static Replications fromMatrix(String name) {
+			int cols = Matrix.getMatrixColDim(name);
+			if (cols < 0)
+				throw new IllegalArgumentException(String.format("matrix %s not found", name));
+			return new Replications(Matrix.getMatrixRowDim(name), cols, Matrix.getMatrix(name));
+		}
+
+	}
+
+	private static final class Interval {
+
+		private double lower = Double.NaN, upper = Double.NaN, p = Double.NaN;
+
+	}
+
+	/**
+	 * Computes the intervals of the columns {@code [from, to)}, splitting the
+	 * range until there is one column per task.
+	 */
+	private static final class Columns extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private static final NormalDistribution NORMAL = new NormalDistribution();
+
+		/** How far np may be off a whole number and still count as one. */
+		private static final double WHOLE = 1e-9;
+
+		private final Replications reps;
+
+		private final double[] b, accel;
+
+		private final Method method;
+
+		/** In percent. */
+		private final double level;
+
+		private final double missing;
+
+		private final Interval[] intervals;
+
+		private final int from, to;
+
+		Columns(Replications reps, double[] b, double[] accel, Method method, double level, double missing,
+				Interval[] intervals, int from, int to) {
+			this.reps = reps;
+			this.b = b;
+			this.accel = accel;
+			this.method = method;
+			this.level = level;
+			this.missing = missing;
+			this.intervals = intervals;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1 && inForkJoinPool()) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new Columns(reps, b, accel, method, level, missing, intervals, from, mid),
+						new Columns(reps, b, accel, method, level, missing, intervals, mid, to));
+			} else {
+				double[] x = new double[reps.rows];
+				for (int col = from; col < to; col++)
+					intervals[col] = interval(col, x);
+			}
+		}
+
+		private Interval interval(int col, double[] x) {
+			Interval interval = new Interval();
+
+			// the column's non-missing replications
+			int n = 0, below = 0, above = 0, atMost = 0;
+			double theta = b[col];
+			for (int row = 0; row < reps.rows; row++) {
+				double v = reps.values[row * reps.cols + col];
+				if (Double.isNaN(v) || v >= missing)
+					continue;
+				x[n++] = v;
+				if (v <= 0)
+					below++;
+				if (v >= 0)
+					above++;
+				if (v <= theta)
+					atMost++;
+			}
+			if (n == 0)
+				return interval;
+			interval.p = Math.min(1, 2d * Math.min(below, above) / n);
+
+			// from the percentages, so that e.g. 95 gives exactly .025 and .975
+			double pLower = (100 - level) / 200, pUpper = (100 + level) / 200;
+			if (method != Method.PERCENTILE) {
+				if (atMost == 0 || atMost == n)
+					return interval;
+				double z0 = NORMAL.inverseCumulativeProbability((double) atMost / n);
+				double a = method == Method.BCA ? accel[col] : 0;
+				pLower = adjust(z0, a, NORMAL.inverseCumulativeProbability(pLower));
+				pUpper = adjust(z0, a, NORMAL.inverseCumulativeProbability(pUpper));
+			}
+
+			interval.lower = percentile(x, 0, n, pLower);
+			interval.upper = percentile(x, 0, n, pUpper);
+			return interval;
+		}
+
+		private static double adjust(double z0, double a, double z) {
+			return NORMAL.cumulativeProbability(z0 + (z0 + z) / (1 - a * (z0 + z)));
+		}
+
+		/**
+		 * The {@code p}-th percentile of {@code x[from, to)}, as
+		 * {@code _pctile} computes it: the ⌈np⌉-th smallest value, or the
+		 * mean of the np-th and the next if np is whole. np is taken as whole
+		 * if it is within rounding of it, as p is a decimal fraction that
+		 * doubles don't represent exactly.
+		 */
+		private static double percentile(double[] x, int from, int to, double p) {
+			int n = to - from;
+			double np = n * p;
+			if (Math.abs(np - Math.rint(np)) < WHOLE * Math.max(1, np))
+				np = Math.rint(np);
+			int k = (int) Math.ceil(np);
+			k = Math.max(1, Math.min(n, k));
+			double v = select(x, from, to, from + k - 1);
+			if (np == k && k < n) {
+				// the next one is the smallest of those after it
+				double next = x[from + k];
+				for (int i = from + k + 1; i < to; i++)
+					next = Math.min(next, x[i]);
+				v = (v + next) / 2;
+			}
+			return v;
+		}
+
+	}
+
+}
@@ -0,0 +1,250 @@
+package de.pbc.stata;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * <p>
+ * First stage of writing a regression table: formats models into
+ * {@link ModelColumn}s (labels, rounding, significance stars). This is pure
+ * string work, so it runs in parallel on a fork-join pool, one task per column
+ * and, for very long columns, per chunk of terms. The second stage, writing the
+ * cells, stays on the calling thread.
+ * </p>
+ * <p>
+ * Models must not call into Stata while they are rendered, i.e. they have to
+ * be {@link ModelSnapshot}s or stored models.
+ * </p>
+ */
+public class ColumnRenderer {
+	
+	// CONSTANTS ---------------------------------------------------- //
+	
+	/** Below this many terms in total, everything is rendered inline. */
+	private static final int PARALLEL_THRESHOLD = 2_000;
+	
+	/** Terms per task when a single column is split up. */
+	private static final int CHUNK = 2_000;
+	
+	// VARIABLES ---------------------------------------------------- //
+	
+	private final boolean hideOmitted, hideBase, numeric;
+	
+	// CONSTRUCTOR -------------------------------------------------- //
+	
+	public ColumnRenderer(boolean hideOmitted, boolean hideBase) {
+		this(hideOmitted, hideBase, false);
+	}
+	
+	/**
+	 * @param numeric
+	 *            only keep coefficients and standard errors as numbers; text is
+	 *            rendered for omitted terms only
+	 */
+	public ColumnRenderer(boolean hideOmitted, boolean hideBase, boolean numeric) {
+		this.hideOmitted = hideOmitted;
+		this.hideBase = hideBase;
+		this.numeric = numeric;
+	}
+	
+	// PUBLIC ------------------------------------------------------- //
+	
+	/**
+	 * Renders the columns of all {@code models} (one per equation), in order.
+	 */
+	public List<ModelColumn> render(List<? extends ModelResult> models) {
+		List<ColumnTask> tasks = new ArrayList<>();
+		int terms = 0;
+		for (ModelResult model : models) {
+			if (model.hasMultipleEquations()) {
+				for (String eq : model.getEquations())
+					tasks.add(new ColumnTask(model, eq, String.format("%s (%s)", model.getDv(), eq)));
+			} else {
+				tasks.add(new ColumnTask(model, null, model.getDv().getLabel()));
+			}
+		}
+		for (ColumnTask task : tasks)
+			terms += task.terms.size();
+		
+		List<ModelColumn> columns = new ArrayList<>(tasks.size());
+		if (terms < PARALLEL_THRESHOLD) {
+			for (ColumnTask task : tasks)
+				columns.add(task.compute());
+		} else {
+			Pool.INSTANCE.invoke(new RecursiveTask<Void>() {
+				
+				private static final long serialVersionUID = 1L;
+				
+				@Override
+				protected Void compute() {
+					invokeAll(tasks);
+					return null;
+				}
+				
+			});
+			for (ColumnTask task : tasks)
+				columns.add(task.join());
+		}
+		return columns;
+	}
+	
+	// PRIVATE ------------------------------------------------------ //
+	
+	private ModelColumn.Cell render(Term term) {
+		if (!term.isConstant()) {
+			if (term.isOmitted())
+				return new ModelColumn.Cell(term.getLabel(), "0 (omitted)");
+			else if (term.isBase())
+				return new ModelColumn.Cell(term.getLabel(), null);
+		}
+		
+		return new ModelColumn.Cell(term.getLabel(), numeric ? null : coefficient(term), term.getCoef(), term.getSe(),
+				term.getSigStars());
+	}
+	
+	/**
+	 * Adds the term's confidence interval, if any, as a row of its own below
+	 * the term, e.g. {@code [0.05, 0.19]}.
+	 */
+	private void addInterval(List<ModelColumn.Cell> cells, Term term) {
+		Term.Interval interval = term.getInterval();
+		if (Objects.isNull(interval) || term.isOmitted() || term.isBase())
+			return;
+		
+		StringBuilder sb = new StringBuilder(24).append('[');
+		if (Objects.nonNull(interval.getLower()))
+			DecimalFormatter.append(sb, interval.getLower(), 2, false);
+		sb.append(", ");
+		if (Objects.nonNull(interval.getUpper()))
+			DecimalFormatter.append(sb, interval.getUpper(), 2, false);
+		cells.add(new ModelColumn.Cell(String.format("%s [%s]", term.getLabel(), interval.getName()),
+				sb.append(']').toString()));
+	}
+	
+	private String coefficient(Term term) {
+		StringBuilder sb = new StringBuilder(24);
+		if (Objects.nonNull(term.getCoef()))
+			DecimalFormatter.append(sb, term.getCoef(), 2, false);
+		sb.append(term.getSigStars()).append(" (");
+		if (Objects.nonNull(term.getSe()))
+			DecimalFormatter.append(sb, term.getSe(), 2, false);
+		return sb.append(')').toString();
+	}
+	
+	private boolean isHidden(Term term) {
+		return (hideOmitted && term.isOmitted()) || (hideBase && term.isBase());
+	}
+	
+	// INNER CLASSES ------------------------------------------------ //
+	
+	/**
+	 * Created on first use, so that exports that never go parallel don't start
+	 * any threads.
+	 */
+	private static class Pool {
+		
+		static final ForkJoinPool INSTANCE = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		
+	}
+	
+	private class ColumnTask extends RecursiveTask<ModelColumn> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final ModelResult model;
+		
+		private final String eq, title;
+		
+		private final List<Term> terms;
+		
+		ColumnTask(ModelResult model, String eq, String title) {
+			this.model = model;
+			this.eq = eq;
+			this.title = title;
+			this.terms = Objects.isNull(eq) ? model.getTerms() : model.getTerms(eq);
+		}
+		
+		@Override
+		protected ModelColumn compute() {
+			List<ModelColumn.Cell> termCells;
+			if (terms.size() > CHUNK && inForkJoinPool()) {
+				termCells = new TermsTask(terms, 0, terms.size()).compute();
+			} else {
+				termCells = renderTerms(terms, 0, terms.size());
+			}
+			
+			List<ModelColumn.Cell> constants = new ArrayList<>(1);
+			for (Term term : terms) {
+				if (term.isConstant()) {
+					constants.add(render(term));
+					addInterval(constants, term);
+				}
+			}
+			
+			// indicator rows of collapsed factor variables go first
+			List<ModelColumn.Cell> stats = new ArrayList<>();
+			List<TermBlock> blocks = Objects.isNull(eq) ? model.getTermBlocks() : model.getTermBlocks(eq);
+			if (Objects.nonNull(blocks)) {
+				for (TermBlock block : blocks)
+					stats.add(new ModelColumn.Cell(block.getLabel(), "Yes"));
+			}
+			if (Objects.nonNull(eq) && Objects.nonNull(model.getEquationStats(eq))) {
+				for (ModelStat stat : model.getEquationStats(eq))
+					stats.add(new ModelColumn.Cell(stat.getLabel(), stat.toString()));
+			}
+			for (ModelStat stat : model.getModelStats())
+				stats.add(new ModelColumn.Cell(stat.getLabel(), stat.toString()));
+			
+			return new ModelColumn(title, eq, termCells, constants, stats);
+		}
+		
+	}
+	
+	private class TermsTask extends RecursiveTask<List<ModelColumn.Cell>> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final List<Term> terms;
+		
+		private final int from, to;
+		
+		TermsTask(List<Term> terms, int from, int to) {
+			this.terms = terms;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected List<ModelColumn.Cell> compute() {
+			if (to - from <= CHUNK)
+				return renderTerms(terms, from, to);
+			
+			int mid = (from + to) >>> 1;
+			TermsTask right = new TermsTask(terms, mid, to);
+			right.fork();
+			List<ModelColumn.Cell> cells = new TermsTask(terms, from, mid).compute();
+			cells.addAll(right.join());
+			return cells;
+		}
+		
+	}
+	
+	/**
+	 * Non-constant, visible terms of {@code terms[from, to)}.
+	 */
+	private List<ModelColumn.Cell> renderTerms(List<Term> terms, int from, int to) {
+		List<ModelColumn.Cell> cells = new ArrayList<>(to - from);
+		for (int i = from; i < to; i++) {
+			Term term = terms.get(i);
+			if (!term.isConstant() && !isHidden(term)) {
+				cells.add(render(term));
+				addInterval(cells, term);
+			}
+		}
+		return cells;
+	}
+	
+}
@@ -0,0 +1,160 @@
+package de.pbc.stata;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * <p>
+ * Formats doubles with a fixed number of decimals, e.g. coefficients and
+ * statistics. Rounds half up on the shortest decimal representation of the
+ * value (like {@code StataUtils.correctRounding}), so {@code 1.005} becomes
+ * {@code 1.01}, and never writes a negative zero.
+ * </p>
+ * <p>
+ * Digits are written into a per-thread char buffer. Values are converted with
+ * long arithmetic; only values close to a rounding tie or too large for a long
+ * go through {@link BigDecimal}.
+ * </p>
+ */
+public final class DecimalFormatter {
+	
+	// CONSTANTS ---------------------------------------------------- //
+	
+	private static final double[] POW10 = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+			1e13, 1e14, 1e15 };
+	
+	/** Scaled values up to here are converted exactly by a long. */
+	private static final double FAST_LIMIT = 1e15;
+	
+	/**
+	 * Relative error of the scaled value, generously bounded; closer to a tie
+	 * than this, the decimal representation decides.
+	 */
+	private static final double TIE_TOLERANCE = 1e-14;
+	
+	private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> new char[64]);
+	
+	// CONSTRUCTOR -------------------------------------------------- //
+	
+	private DecimalFormatter() {}
+	
+	// PUBLIC ------------------------------------------------------- //
+	
+	public static String format(double val, int scale) {
+		return format(val, scale, false);
+	}
+	
+	/**
+	 * @param grouping
+	 *            separate thousands with commas ({@code 12,345.68})
+	 */
+	public static String format(double val, int scale, boolean grouping) {
+		int start = write(val, scale, grouping);
+		char[] buf = BUFFER.get();
+		return new String(buf, start, buf.length - start);
+	}
+	
+	/**
+	 * Like {@link #format(double, int, boolean)}, but appends to {@code sb}
+	 * without creating an intermediate string.
+	 */
+	public static StringBuilder append(StringBuilder sb, double val, int scale, boolean grouping) {
+		int start = write(val, scale, grouping);
+		char[] buf = BUFFER.get();
+		return sb.append(buf, start, buf.length - start);
+	}
+	
+	// PRIVATE ------------------------------------------------------ //
+	
+	/**
+	 * Writes {@code val} right-aligned into the thread's buffer.
+	 * 
+	 * @return the index of the first char
+	 */
+	private static int write(double val, int scale, boolean grouping) {
+		if (scale < 0)
+			throw new IllegalArgumentException("negative scale: " + scale);
+		
+		if (Double.isNaN(val) || Double.isInfinite(val))
+			return writeDigits(".", 0, false, false);
+		
+		double abs = Math.abs(val);
+		if (scale < POW10.length) {
+			double scaled = abs * POW10[scale];
+			if (scaled < FAST_LIMIT) {
+				double floor = Math.floor(scaled);
+				double frac = scaled - floor;
+				if (Math.abs(frac - .5) > Math.max(scaled, 1) * TIE_TOLERANCE) {
+					long unscaled = (long) floor + (frac > .5 ? 1 : 0);
+					return writeLong(unscaled, scale, grouping, val < 0 && unscaled != 0);
+				}
+			}
+		}
+		
+		BigDecimal rounded = new BigDecimal(Double.toString(val)).setScale(scale, RoundingMode.HALF_UP);
+		return writeDigits(rounded.unscaledValue().abs().toString(), scale, grouping, rounded.signum() < 0);
+	}
+	
+	private static int writeLong(long unscaled, int scale, boolean grouping, boolean negative) {
+		char[] buf = BUFFER.get();
+		int pos = buf.length;
+		
+		for (int i = 0; i < scale; i++) {
+			buf[--pos] = (char) ('0' + unscaled % 10);
+			unscaled /= 10;
+		}
+		if (scale > 0)
+			buf[--pos] = '.';
+		
+		int digits = 0;
+		do {
+			if (grouping && digits > 0 && digits % 3 == 0)
+				buf[--pos] = ',';
+			buf[--pos] = (char) ('0' + unscaled % 10);
+			unscaled /= 10;
+			digits++;
+		} while (unscaled > 0);
+		
+		if (negative)
+			buf[--pos] = '-';
+		return pos;
+	}
+	
+	/**
+	 * Same as {@link #writeLong(long, int, boolean, boolean)} for unscaled
+	 * values given as digits (or "." for missing).
+	 */
+	private static int writeDigits(String unscaled, int scale, boolean grouping, boolean negative) {
+		char[] buf = BUFFER.get();
+		int needed = unscaled.length() * 4 / 3 + scale + 4;
+		if (buf.length < needed) {
+			buf = new char[needed];
+			BUFFER.set(buf);
+		}
+		
+		int pos = buf.length;
+		int i = unscaled.length();
+		if (unscaled.equals(".")) {
+			buf[--pos] = '.';
+			return pos;
+		}
+		
+		for (int d = 0; d < scale; d++)
+			buf[--pos] = i > 0 ? unscaled.charAt(--i) : '0';
+		if (scale > 0)
+			buf[--pos] = '.';
+		
+		int digits = 0;
+		do {
+			if (grouping && digits > 0 && digits % 3 == 0)
+				buf[--pos] = ',';
+			buf[--pos] = i > 0 ? unscaled.charAt(--i) : '0';
+			digits++;
+		} while (i > 0);
+		
+		if (negative)
+			buf[--pos] = '-';
+		return pos;
+	}
+	
+}
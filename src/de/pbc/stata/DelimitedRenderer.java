@@ -0,0 +1,119 @@
+package de.pbc.stata;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>
+ * Writes tables as CSV or TSV (UTF-8, CRLF line ends). Fields that contain the
+ * separator, quotes or line breaks are quoted, with quotes doubled.
+ * </p>
+ * <p>
+ * Rows are encoded into one buffer that is written to a {@link FileChannel}
+ * whenever it is full.
+ * </p>
+ */
+public class DelimitedRenderer implements TableRenderer {
+
+	// CONSTANTS ---------------------------------------------------- //
+
+	public static final DelimitedRenderer CSV = new DelimitedRenderer(',');
+
+	public static final DelimitedRenderer TSV = new DelimitedRenderer('\t');
+
+	private static final int BUFFER = 1 << 16;
+
+	// VARIABLES ---------------------------------------------------- //
+
+	private final char separator;
+
+	// CONSTRUCTOR -------------------------------------------------- //
+
+	public DelimitedRenderer(char separator) {
+		this.separator = separator;
+	}
+
+	// PUBLIC ------------------------------------------------------- //
+
+	@Override
+	public void render(Table table, Path path) throws IOException {
+		try (FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buf = ByteBuffer.allocate(BUFFER);
+			CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+			StringBuilder line = new StringBuilder();
+
+			try {
+				table.forEachRow((row) -> {
+					line.setLength(0);
+					for (int i = 0; i < row.length; i++) {
+						if (i > 0)
+							line.append(separator);
+						appendField(line, row[i]);
+					}
+					line.append("\r\n");
+					write(ch, buf, encoder, CharBuffer.wrap(line));
+				});
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+
+			buf.flip();
+			while (buf.hasRemaining())
+				ch.write(buf);
+		}
+	}
+
+	// PRIVATE ------------------------------------------------------ //
+
+	private void appendField(StringBuilder sb, String field) {
+		boolean quote = false;
+		for (int i = 0; i < field.length() && !quote; i++) {
+			char c = field.charAt(i);
+			quote = c == separator || c == '"' || c == '\n' || c == '\r';
+		}
+
+		if (!quote) {
+			sb.append(field);
+		} else {
+			sb.append('"');
+			for (int i = 0; i < field.length(); i++) {
+				char c = field.charAt(i);
+				if (c == '"')
+					sb.append('"');
+				sb.append(c);
+			}
+			sb.append('"');
+		}
+	}
+
+	private static void write(FileChannel ch, ByteBuffer buf, CharsetEncoder encoder, CharBuffer chars) {
+		try {
+			while (true) {
+				CoderResult res = encoder.encode(chars, buf, true);
+				if (res.isUnderflow())
+					break;
+				if (res.isOverflow()) {
+					buf.flip();
+					while (buf.hasRemaining())
+						ch.write(buf);
+					buf.clear();
+				} else {
+					res.throwException();
+				}
+			}
+			encoder.reset();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+}
@@ -1,6 +1,7 @@
 package de.pbc.stata;
 
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -30,6 +31,8 @@ public class DescOut {
 	
 	private XSSFWorkbook wb;
 	
+	private Timing timing;
+	
 	// PUBLIC ------------------------------------------------------- //
 	
 	public int execute(String[] args) throws Exception {
@@ -46,9 +49,11 @@ public class DescOut {
 	
 	// PRIVATE ------------------------------------------------------ //
 	
+	@SuppressWarnings("try") // the timing phases are only closed, not used
 	private int excelOut(List<String> args) {
 		merge = args.contains("m") || args.contains("merge");
 		quietly = args.contains("q") || args.contains("quietly");
+		timing = new Timing("descout", args.contains("timing"));
 		var = args.stream().filter((a) -> a.startsWith("var=")).findFirst().get();
 		
 		Path path = args.stream()
@@ -57,17 +62,18 @@ public class DescOut {
 				.map((a) -> Paths.get(a.substring("path=".length())))
 				.orElse(Paths.get("descOut.xlsx"));
 		
-		try (XSSFWorkbook wb = merge && Files.exists(path)
-				? new XSSFWorkbook(Files.newInputStream(path))
-				: new XSSFWorkbook()) {
+		try (XSSFWorkbook wb = openWorkbook(path)) {
 			this.wb = wb;
 			
 			singlePage();
 			
-			try (FileOutputStream out = new FileOutputStream(path.toFile())) {
+			try (FileOutputStream out = new FileOutputStream(path.toFile());
+					Timing.Phase phase = timing.phase("write")) {
 				wb.write(out);
 			}
 			
+			timing.report();
+			
 			if (!quietly)
 				SFIToolkit.display("{browse \"" + path + "\":Open " + path + "}");
 			
@@ -78,6 +84,15 @@ public class DescOut {
 		}
 	}
 	
+	@SuppressWarnings("try") // the timing phases are only closed, not used
+	private XSSFWorkbook openWorkbook(Path path) throws IOException {
+		try (Timing.Phase phase = timing.phase("open")) {
+			return merge && Files.exists(path)
+					? new XSSFWorkbook(Files.newInputStream(path))
+					: new XSSFWorkbook();
+		}
+	}
+	
 	private void singlePage() {
 		wb.setMissingCellPolicy(Row.MissingCellPolicy.CREATE_NULL_AS_BLANK);
 		XSSFSheet sh = Optional.ofNullable(wb.getSheet("Sheet0")).orElseGet(() -> wb.createSheet());
@@ -107,6 +122,22 @@ public class DescOut {
 	}
 	
 	private void fillSinglePage(XSSFSheet sh, int row) {
+		try (Timing.Phase phase = timing.phase("fill")) {
+			fillRow(sh, row);
+			phase.cells(5);
+		}
+		
+		try (Timing.Phase phase = timing.phase("autosize")) {
+			sh.autoSizeColumn(0);
+			sh.autoSizeColumn(1);
+			sh.autoSizeColumn(2);
+			sh.autoSizeColumn(3);
+			sh.autoSizeColumn(4);
+			phase.cells(sh.getLastRowNum() + 1);
+		}
+	}
+	
+	private void fillRow(XSSFSheet sh, int row) {
 		CellStyle cs2d = wb.createCellStyle();
 		cs2d.setDataFormat(wb.createDataFormat().getFormat("#,##0.00"));
 		
@@ -130,11 +161,5 @@ public class DescOut {
 		c = r.getCell(4);
 		c.setCellValue(Scalar.getValue("rs_max"));
 		c.setCellStyle(cs2d);
-		
-		sh.autoSizeColumn(0);
-		sh.autoSizeColumn(1);
-		sh.autoSizeColumn(2);
-		sh.autoSizeColumn(3);
-		sh.autoSizeColumn(4);
 	}
 }
\ No newline at end of file
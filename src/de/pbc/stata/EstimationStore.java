@@ -0,0 +1,531 @@
+package de.pbc.stata;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * <p>
+ * Append-only binary store of estimation results, so that any subset of many
+ * models can be rendered into tables later without re-running the estimations.
+ * </p>
+ * <p>
+ * A store consists of three files, each starting with a magic number and a
+ * version:
+ * <ul>
+ * <li>{@code <path>}: one record per model ({@code int} length, then
+ * metadata, equations with their terms and statistics, and the model
+ * statistics)</li>
+ * <li>{@code <path>.dict}: the string dictionary ({@code int} length, UTF-8
+ * bytes); records refer to strings by their position</li>
+ * <li>{@code <path>.idx}: the offset index, one {@code long} per model</li>
+ * </ul>
+ * Strings are appended before the model that uses them, the model before its
+ * index entry, so a model exists once its index entry is written. Anything
+ * beyond the last complete entry (from an interrupted append) is cut off when
+ * the store is opened. Opening and appending lock the index file, so that
+ * several Stata processes can share a store: opening doesn't cut off a model
+ * that is being appended, and an append first loads what other processes
+ * appended since. Strings and records are encoded into reusable buffers
+ * and written with one positional write per file and append; records are
+ * read through a mapping of the whole data file, which is renewed as it
+ * grows.
+ * </p>
+ * <p>
+ * Not thread-safe.
+ * </p>
+ */
+public class EstimationStore implements Closeable {
+	
+	// CONSTANTS ---------------------------------------------------- //
+	
+	private static final int MAGIC = 0x534f4553; // "SOES"
+	
+	private static final int VERSION = 1;
+	
+	private static final int HEADER = 8;
+	
+	private static final int NONE = -1;
+	
+	// VARIABLES ---------------------------------------------------- //
+	
+	private final FileChannel data, dict, idx;
+	
+	private final List<String> strings = new ArrayList<>();
+	
+	private final Map<String, Integer> stringIds = new HashMap<>();
+	
+	private long dataEnd, dictEnd;
+	
+	private int size;
+	
+	private MappedByteBuffer dataView, idxView;
+	
+	/** The record being encoded, or read if the data file is too large to map. */
+	private ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+	
+	/** The strings new to the dictionary, written with the record. */
+	private ByteBuffer dictBuf = ByteBuffer.allocate(1 << 12);
+	
+	private final ByteBuffer entry = ByteBuffer.allocate(Long.BYTES);
+	
+	// CONSTRUCTOR -------------------------------------------------- //
+	
+	@SuppressWarnings("try") // the lock is only held, not used
+	private EstimationStore(Path path) throws IOException {
+		Path idxPath = path.resolveSibling(path.getFileName() + ".idx");
+		idx = FileChannel.open(idxPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try (FileLock lock = idx.lock()) {
+			checkHeader(idx, idxPath);
+			data = openFile(path);
+			dict = openFile(path.resolveSibling(path.getFileName() + ".dict"));
+			
+			loadDictionary();
+			loadIndex();
+		}
+	}
+	
+	// PUBLIC ------------------------------------------------------- //
+	
+	/**
+	 * Opens the store at {@code path}, creating it if it doesn't exist.
+	 */
+	public static EstimationStore open(Path path) throws IOException {
+		return new EstimationStore(path);
+	}
+	
+	/**
+	 * Number of models in the store.
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Appends a model. Labels are taken as they are; pass a
+	 * {@link ModelSnapshot} to have them resolved already.
+	 * 
+	 * @return the model's number (0-based)
+	 */
+	@SuppressWarnings("try") // the lock is only held, not used
+	public int append(ModelResult res, String cmd, String cmdline) throws IOException {
+		try (FileLock lock = idx.lock()) {
+			// strings and models other processes appended since opening
+			if (dict.size() != dictEnd || idx.size() != HEADER + (long) size * Long.BYTES) {
+				loadDictionary();
+				loadIndex();
+			}
+			
+			while (true) {
+				try {
+					// the length is filled in once known
+					buf.clear().position(Integer.BYTES);
+					encode(res, cmd, cmdline);
+					break;
+				} catch (BufferOverflowException e) {
+					buf = ByteBuffer.allocate(buf.capacity() * 2);
+				}
+			}
+			buf.putInt(0, buf.position() - Integer.BYTES).flip();
+			
+			dictBuf.flip();
+			int dictLength = dictBuf.remaining();
+			writeFully(dict, dictBuf, dictEnd);
+			dictEnd += dictLength;
+			dictBuf.clear();
+			
+			long offset = dataEnd;
+			dataEnd += buf.remaining();
+			writeFully(data, buf, offset);
+			
+			entry.clear().putLong(offset).flip();
+			writeFully(idx, entry, HEADER + (long) size * Long.BYTES);
+			
+			return size++;
+		}
+	}
+	
+	/**
+	 * Reads model {@code i} (0-based).
+	 */
+	public StoredModel read(int i) throws IOException {
+		if (i < 0 || i >= size)
+			throw new IndexOutOfBoundsException(String.format("model %d of %d", i + 1, size));
+		
+		long offset = index().getLong(HEADER + i * Long.BYTES);
+		ByteBuffer rec;
+		if (dataEnd <= Integer.MAX_VALUE) {
+			rec = view().duplicate();
+			rec.position((int) offset);
+			int length = rec.getInt();
+			rec.limit(rec.position() + length);
+			rec = rec.slice();
+		} else {
+			entry.clear().limit(Integer.BYTES);
+			readFully(data, entry, offset);
+			int length = entry.getInt(0);
+			if (buf.capacity() < length)
+				buf = ByteBuffer.allocate(Math.max(length, buf.capacity() * 2));
+			rec = buf.clear().limit(length);
+			readFully(data, rec, offset + Integer.BYTES);
+			rec.flip();
+		}
+		
+		return decode(i, rec);
+	}
+	
+	@Override
+	public void close() throws IOException {
+		try (data; dict; idx) {
+			data.force(false);
+			dict.force(false);
+			idx.force(false);
+		}
+	}
+	
+	// PRIVATE ------------------------------------------------------ //
+	
+	private static FileChannel openFile(Path path) throws IOException {
+		FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		checkHeader(ch, path);
+		return ch;
+	}
+	
+	/**
+	 * Writes the header to a new file, otherwise checks it.
+	 */
+	private static void checkHeader(FileChannel ch, Path path) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER);
+		if (ch.size() == 0) {
+			header.putInt(MAGIC).putInt(VERSION).flip();
+			ch.write(header, 0);
+		} else {
+			if (ch.size() < HEADER)
+				throw new IOException(path + " is not an estimation store");
+			readFully(ch, header, 0);
+			header.flip();
+			if (header.getInt() != MAGIC)
+				throw new IOException(path + " is not an estimation store");
+			if (header.getInt() != VERSION)
+				throw new IOException(path + " was written by an incompatible version");
+		}
+	}
+	
+	/*
+	 * Loading reads through the channel rather than a mapping, because a file
+	 * can't be truncated while it is mapped on Windows. Both run with the index
+	 * locked.
+	 */
+	
+	/**
+	 * Reads the strings after {@link #dictEnd} ({@link #HEADER} when opening).
+	 */
+	private void loadDictionary() throws IOException {
+		long start = Math.max(dictEnd, HEADER);
+		ByteBuffer in = ByteBuffer.allocate((int) (dict.size() - start));
+		readFully(dict, in, start);
+		in.flip();
+		while (in.remaining() >= Integer.BYTES) {
+			int length = in.getInt();
+			if (length > in.remaining()) {
+				in.position(in.position() - Integer.BYTES);
+				break;
+			}
+			byte[] bytes = new byte[length];
+			in.get(bytes);
+			addString(new String(bytes, StandardCharsets.UTF_8));
+		}
+		dictEnd = start + in.position();
+		dict.truncate(dictEnd);
+	}
+	
+	private void loadIndex() throws IOException {
+		size = (int) ((idx.size() - HEADER) / Long.BYTES);
+		dataEnd = HEADER;
+		
+		// drop index entries whose record is incomplete
+		ByteBuffer entry = ByteBuffer.allocate(Long.BYTES);
+		while (size > 0) {
+			entry.clear();
+			readFully(idx, entry, HEADER + (long) (size - 1) * Long.BYTES);
+			long offset = entry.getLong(0);
+			
+			entry.clear().limit(Integer.BYTES);
+			if (offset + Integer.BYTES <= data.size()) {
+				readFully(data, entry, offset);
+				long end = offset + Integer.BYTES + entry.getInt(0);
+				if (end <= data.size()) {
+					dataEnd = end;
+					break;
+				}
+			}
+			size--;
+		}
+		
+		idx.truncate(HEADER + (long) size * Long.BYTES);
+		data.truncate(dataEnd);
+	}
+	
+	private static void readFully(FileChannel ch, ByteBuffer dst, long pos) throws IOException {
+		while (dst.hasRemaining()) {
+			int n = ch.read(dst, pos);
+			if (n < 0)
+				throw new IOException("unexpected end of file");
+			pos += n;
+		}
+	}
+	
+	private static void writeFully(FileChannel ch, ByteBuffer src, long pos) throws IOException {
+		while (src.hasRemaining())
+			pos += ch.write(src, pos);
+	}
+	
+	private MappedByteBuffer index() throws IOException {
+		if (Objects.isNull(idxView) || idxView.capacity() < HEADER + (long) size * Long.BYTES)
+			idxView = idx.map(FileChannel.MapMode.READ_ONLY, 0, idx.size());
+		return idxView;
+	}
+	
+	private MappedByteBuffer view() throws IOException {
+		if (Objects.isNull(dataView) || dataView.capacity() < dataEnd)
+			dataView = data.map(FileChannel.MapMode.READ_ONLY, 0, dataEnd);
+		return dataView;
+	}
+	
+	private int addString(String s) {
+		strings.add(s);
+		stringIds.put(s, strings.size() - 1);
+		return strings.size() - 1;
+	}
+	
+	private int id(String s) throws IOException {
+		if (Objects.isNull(s))
+			return NONE;
+		
+		Integer id = stringIds.get(s);
+		if (Objects.isNull(id)) {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			if (dictBuf.remaining() < Integer.BYTES + bytes.length) {
+				ByteBuffer grown = ByteBuffer
+						.allocate(Math.max(dictBuf.capacity() * 2, dictBuf.position() + Integer.BYTES + bytes.length));
+				dictBuf = grown.put(dictBuf.flip());
+			}
+			dictBuf.putInt(bytes.length).put(bytes);
+			id = addString(s);
+		}
+		return id;
+	}
+	
+	private String string(int id) {
+		return id == NONE ? null : strings.get(id);
+	}
+	
+	private void encode(ModelResult res, String cmd, String cmdline) throws IOException {
+		buf.putInt(id(cmd));
+		buf.putInt(id(cmdline));
+		buf.putInt(id(res.getDv().getName()));
+		buf.putInt(id(res.getDv().getLabel()));
+		buf.putLong(System.currentTimeMillis());
+		
+		if (res.hasMultipleEquations()) {
+			buf.putInt(res.getEquations().size());
+			for (String eq : res.getEquations()) {
+				buf.putInt(id(eq));
+				encodeTerms(res.getTerms(eq));
+				encodeStats(res.getEquationStats(eq));
+			}
+		} else {
+			buf.putInt(1);
+			buf.putInt(NONE);
+			encodeTerms(res.getTerms());
+			encodeStats(null);
+		}
+		
+		encodeStats(res.getModelStats());
+	}
+	
+	private void encodeTerms(List<Term> terms) throws IOException {
+		buf.putInt(Objects.isNull(terms) ? 0 : terms.size());
+		if (Objects.nonNull(terms)) {
+			for (Term term : terms) {
+				buf.putInt(term.getIndex());
+				buf.putInt(id(term.getName()));
+				buf.putInt(id(term.getLabel()));
+				buf.putDouble(toDouble(term.getCoef()));
+				buf.putDouble(toDouble(term.getSe()));
+				buf.putDouble(toDouble(term.getP()));
+			}
+		}
+	}
+	
+	private void encodeStats(List<ModelStat> stats) throws IOException {
+		buf.putInt(Objects.isNull(stats) ? 0 : stats.size());
+		if (Objects.nonNull(stats)) {
+			for (ModelStat stat : stats) {
+				buf.putInt(id(stat.getName()));
+				buf.putInt(id(stat.getLabel()));
+				buf.putDouble(toDouble(stat.getValue()));
+				buf.putDouble(toDouble(stat.getPValue()));
+				buf.putInt(stat.getScale());
+			}
+		}
+	}
+	
+	private StoredModel decode(int number, ByteBuffer rec) {
+		String cmd = string(rec.getInt());
+		String cmdline = string(rec.getInt());
+		Variable dv = new Variable(string(rec.getInt()), null, string(rec.getInt()));
+		long created = rec.getLong();
+		
+		int eqs = rec.getInt();
+		List<String> equations = new ArrayList<>(eqs);
+		Map<String, List<Term>> terms = new HashMap<>();
+		Map<String, List<ModelStat>> eqStats = new HashMap<>();
+		for (int e = 0; e < eqs; e++) {
+			String eq = string(rec.getInt());
+			equations.add(eq);
+			terms.put(eq, decodeTerms(rec));
+			eqStats.put(eq, decodeStats(rec));
+		}
+		
+		return new StoredModel(number, cmd, cmdline, created, dv, equations, terms, eqStats, decodeStats(rec));
+	}
+	
+	private List<Term> decodeTerms(ByteBuffer rec) {
+		int n = rec.getInt();
+		List<Term> terms = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			terms.add(new Term(rec.getInt(), string(rec.getInt()), string(rec.getInt()), toDouble(rec.getDouble()),
+					toDouble(rec.getDouble()), toDouble(rec.getDouble())));
+		}
+		return terms;
+	}
+	
+	private List<ModelStat> decodeStats(ByteBuffer rec) {
+		int n = rec.getInt();
+		List<ModelStat> stats = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			stats.add(new ModelStat(string(rec.getInt()), string(rec.getInt()), toDouble(rec.getDouble()),
+					toDouble(rec.getDouble()), rec.getInt()));
+		}
+		return stats;
+	}
+	
+	private static double toDouble(Double d) {
+		return Objects.isNull(d) ? Double.NaN : d;
+	}
+	
+	private static Double toDouble(double d) {
+		return Double.isNaN(d) ? null : d;
+	}
+	
+	// INNER CLASSES ------------------------------------------------ //
+	
+	/**
+	 * A model read from a store. Doesn't call into Stata.
+	 */
+	public static class StoredModel implements ModelResult {
+		
+		// VARIABLES ------------------------------------------------ //
+		
+		private final int number;
+		
+		private final String cmd, cmdline;
+		
+		private final long created;
+		
+		private final Variable dv;
+		
+		private final List<String> equations;
+		
+		private final Map<String, List<Term>> terms;
+		
+		private final Map<String, List<ModelStat>> equationStats;
+		
+		private final List<ModelStat> modelStats;
+		
+		// CONSTRUCTOR ---------------------------------------------- //
+		
+		private StoredModel(int number, String cmd, String cmdline, long created, Variable dv,
+				List<String> equations, Map<String, List<Term>> terms, Map<String, List<ModelStat>> equationStats,
+				List<ModelStat> modelStats) {
+			this.number = number;
+			this.cmd = cmd;
+			this.cmdline = cmdline;
+			this.created = created;
+			this.dv = dv;
+			this.equations = equations;
+			this.terms = terms;
+			this.equationStats = equationStats;
+			this.modelStats = modelStats;
+		}
+		
+		// PUBLIC --------------------------------------------------- //
+		
+		public int getNumber() {
+			return number;
+		}
+		
+		public String getCmd() {
+			return cmd;
+		}
+		
+		public String getCmdline() {
+			return cmdline;
+		}
+		
+		public long getCreated() {
+			return created;
+		}
+		
+		@Override
+		public Variable getDv() {
+			return dv;
+		}
+		
+		@Override
+		public boolean hasMultipleEquations() {
+			return equations.get(0) != null;
+		}
+		
+		@Override
+		public List<String> getEquations() {
+			return hasMultipleEquations() ? equations : null;
+		}
+		
+		@Override
+		public List<Term> getTerms() {
+			return terms.get(equations.get(0));
+		}
+		
+		@Override
+		public List<Term> getTerms(String eq) {
+			return terms.get(eq);
+		}
+		
+		@Override
+		public List<ModelStat> getModelStats() {
+			return modelStats;
+		}
+		
+		@Override
+		public List<ModelStat> getEquationStats(String eq) {
+			return hasMultipleEquations() ? equationStats.get(eq) : null;
+		}
+		
+	}
+	
+}
@@ -0,0 +1,154 @@
+package de.pbc.stata;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Splits a batch of models into several output files by a {@link Rule}, e.g.
+ * one workbook per dependent variable, and writes the files in parallel.
+ * </p>
+ * <p>
+ * The models have to be read from Stata (i.e. snapshotted) beforehand, on
+ * Stata's thread; the files are then rendered and written on a pool of at
+ * most {@code threads} threads, so that no more than that many workbooks are
+ * held in memory at once. Each file is written by one thread, so the models of
+ * a file stay in order.
+ * </p>
+ */
+public class FanOut {
+
+	// VARIABLES ---------------------------------------------------- //
+
+	private final Rule rule;
+
+	private final int threads;
+
+	// CONSTRUCTOR -------------------------------------------------- //
+
+	public FanOut(Rule rule, int threads) {
+		this.rule = rule;
+		this.threads = threads;
+	}
+
+	// PUBLIC ------------------------------------------------------- //
+
+	/**
+	 * The default number of threads: one per core, but not more than 4, as
+	 * each thread holds a workbook in memory.
+	 */
+	public static int defaultThreads() {
+		return Math.min(4, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Routes {@code models} to files next to {@code path}, named after
+	 * {@code path} and the models' key, e.g. {@code regOut_wage.xlsx}. Files are
+	 * in the order of their first model.
+	 *
+	 * @param names
+	 *            the models' estimation names, required for
+	 *            {@link Rule#PREFIX}; {@code null} otherwise
+	 */
+	public Map<Path, List<ModelResult>> route(Path path, List<ModelResult> models, List<String> names) {
+		if (rule == Rule.PREFIX && Objects.isNull(names))
+			throw new IllegalArgumentException("routing by prefix requires estimation names");
+
+		String file = path.getFileName().toString();
+		int dot = file.lastIndexOf('.');
+		String stem = dot < 0 ? file : file.substring(0, dot), ext = dot < 0 ? "" : file.substring(dot);
+
+		Map<Path, List<ModelResult>> files = new LinkedHashMap<>();
+		for (int i = 0; i < models.size(); i++) {
+			String key = rule == Rule.DV ? models.get(i).getDv().getName() : prefix(names.get(i));
+			files.computeIfAbsent(path.resolveSibling(stem + "_" + safe(key) + ext), (p) -> new ArrayList<>())
+					.add(models.get(i));
+		}
+		return files;
+	}
+
+	/**
+	 * Writes each of {@code files} with {@code writer}, in parallel. Blocks
+	 * until all files are written.
+	 *
+	 * @return the errors, one per file that failed
+	 */
+	public List<String> write(Map<Path, List<ModelResult>> files, Writer writer) throws InterruptedException {
+		AtomicInteger n = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, files.size())), (r) -> {
+			Thread t = new Thread(r, "regout2-fanout-" + n.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+
+		try {
+			List<Callable<Void>> tasks = new ArrayList<>(files.size());
+			for (Map.Entry<Path, List<ModelResult>> file : files.entrySet()) {
+				tasks.add(() -> {
+					writer.write(file.getKey(), file.getValue());
+					return null;
+				});
+			}
+
+			List<String> errors = new ArrayList<>();
+			List<Path> paths = new ArrayList<>(files.keySet());
+			List<Future<Void>> results = pool.invokeAll(tasks);
+			for (int i = 0; i < results.size(); i++) {
+				try {
+					results.get(i).get();
+				} catch (ExecutionException e) {
+					errors.add(String.format("writing %s failed: %s", paths.get(i), e.getCause()));
+				}
+			}
+			return errors;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	// PRIVATE ------------------------------------------------------ //
+
+	/**
+	 * The part of {@code name} before the first underscore, e.g. {@code wage}
+	 * for {@code wage_ols}.
+	 */
+	private static String prefix(String name) {
+		int i = name.indexOf('_');
+		return i > 0 ? name.substring(0, i) : name;
+	}
+
+	private static String safe(String key) {
+		return key.replaceAll("[^\\w.-]", "_");
+	}
+
+	// INNER CLASSES ------------------------------------------------ //
+
+	/**
+	 * What decides a model's file.
+	 */
+	public enum Rule {
+		/** The dependent variable */
+		DV,
+		/** The estimation name's part before the first underscore */
+		PREFIX
+	}
+
+	@FunctionalInterface
+	public interface Writer {
+
+		void write(Path path, List<ModelResult> models) throws IOException;
+
+	}
+
+}
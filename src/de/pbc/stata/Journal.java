@@ -0,0 +1,299 @@
+package de.pbc.stata;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * <p>
+ * Sidecar file {@code <path>.journal} of rendered columns that are yet to be
+ * written to the workbook {@code <path>}. Appending a column costs O(column),
+ * whatever the size of the workbook; the workbook is then written once for
+ * all columns.
+ * </p>
+ * <p>
+ * The file starts with a header of magic number, version, number of appends
+ * ({@code int}) and end of the last complete record ({@code long}), followed
+ * by one record per column ({@code int} length, then the number of the append,
+ * sheet, merge flag, layout and the column's cells). Records are written
+ * after the end in the header, and the header is only updated once they are
+ * forced to disk, so an interrupted append is overwritten by the next one and
+ * never read.
+ * </p>
+ */
+public class Journal {
+
+	// CONSTANTS ---------------------------------------------------- //
+
+	private static final int MAGIC = 0x534f454a; // "SOEJ"
+
+	private static final int VERSION = 2;
+
+	private static final int HEADER = 20;
+
+	// VARIABLES ---------------------------------------------------- //
+
+	private final Path file;
+
+	// CONSTRUCTOR -------------------------------------------------- //
+
+	/**
+	 * @param path
+	 *            the workbook
+	 */
+	public Journal(Path path) {
+		this.file = path.resolveSibling(path.getFileName() + ".journal");
+	}
+
+	// PUBLIC ------------------------------------------------------- //
+
+	public Path getFile() {
+		return file;
+	}
+
+	public boolean exists() {
+		return Files.exists(file);
+	}
+
+	/**
+	 * Appends {@code columns}, to be written to {@code sheet} ({@code null} for
+	 * the default sheet) in {@code layout}. The columns of one append are
+	 * written together (see {@link Entry#getCall()}).
+	 *
+	 * @param merge
+	 *            whether the columns are added to the workbook as it is, rather
+	 *            than to a new one
+	 */
+	@SuppressWarnings("try") // the lock is only held, not used
+	public void append(String sheet, boolean merge, String layout, List<ModelColumn> columns) throws IOException {
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE); FileLock lock = ch.lock()) {
+			int calls = 0;
+			long end = HEADER;
+			if (ch.size() < HEADER) {
+				write(ch, ByteBuffer.allocate(HEADER).putInt(MAGIC).putInt(VERSION).putInt(0).putLong(HEADER).flip(), 0);
+			} else {
+				ByteBuffer header = ByteBuffer.allocate(HEADER);
+				while (header.hasRemaining() && ch.read(header, header.position()) >= 0)
+					;
+				header.flip();
+				checkHeader(header);
+				calls = header.getInt();
+				end = header.getLong();
+			}
+
+			// anything after the last complete record is overwritten
+			ByteBuffer records = ByteBuffer.wrap(records(calls, sheet, merge, layout, columns));
+			write(ch, records, end);
+			ch.truncate(end + records.capacity());
+			ch.force(false);
+			write(ch, ByteBuffer.allocate(Integer.BYTES + Long.BYTES).putInt(calls + 1)
+					.putLong(end + records.capacity()).flip(), 8);
+			ch.force(false);
+		}
+	}
+
+	/**
+	 * Reads the records of all complete appends.
+	 */
+	public List<Entry> read() throws IOException {
+		List<Entry> entries = new ArrayList<>();
+		if (!exists())
+			return entries;
+
+		ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file));
+		if (buf.remaining() < HEADER)
+			throw new IOException(file + " is not a journal");
+		checkHeader(buf);
+		buf.getInt();
+		long end = buf.getLong();
+		if (end > buf.capacity())
+			throw new IOException(file + " is truncated");
+		buf.limit((int) end);
+
+		while (buf.remaining() >= Integer.BYTES) {
+			int length = buf.getInt();
+			try (DataInputStream in = new DataInputStream(
+					new ByteArrayInputStream(buf.array(), buf.position(), length))) {
+				int call = in.readInt();
+				String sheet = readString(in);
+				boolean merge = in.readBoolean();
+				String layout = in.readUTF();
+				String title = readString(in), equation = readString(in);
+				List<ModelColumn.Cell> terms = readCells(in), constants = readCells(in), stats = readCells(in);
+				entries.add(new Entry(call, sheet, merge, layout,
+						new ModelColumn(title, equation, terms, constants, stats)));
+			}
+			buf.position(buf.position() + length);
+		}
+		return entries;
+	}
+
+	public void delete() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	// PRIVATE ------------------------------------------------------ //
+
+	private void checkHeader(ByteBuffer header) throws IOException {
+		if (header.getInt() != MAGIC)
+			throw new IOException(file + " is not a journal");
+		if (header.getInt() != VERSION)
+			throw new IOException(file + " was written by an incompatible version");
+	}
+
+	private static byte[] records(int call, String sheet, boolean merge, String layout, List<ModelColumn> columns)
+			throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			ByteArrayOutputStream record = new ByteArrayOutputStream();
+			DataOutputStream rec = new DataOutputStream(record);
+			for (ModelColumn column : columns) {
+				record.reset();
+				rec.writeInt(call);
+				writeString(rec, sheet);
+				rec.writeBoolean(merge);
+				rec.writeUTF(layout);
+				writeString(rec, column.getTitle());
+				writeString(rec, column.getEquation());
+				writeCells(rec, column.getTerms());
+				writeCells(rec, column.getConstants());
+				writeCells(rec, column.getStats());
+				rec.flush();
+
+				out.writeInt(record.size());
+				record.writeTo(out);
+
+				// the following columns are added to this one's workbook
+				merge = true;
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	private static void write(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+		while (buf.hasRemaining())
+			pos += ch.write(buf, pos);
+	}
+
+	private static void writeCells(DataOutputStream out, List<ModelColumn.Cell> cells) throws IOException {
+		out.writeInt(cells.size());
+		for (ModelColumn.Cell cell : cells) {
+			writeString(out, cell.getLabel());
+			writeString(out, cell.getText());
+			writeDouble(out, cell.getValue());
+			writeDouble(out, cell.getSe());
+			writeString(out, cell.getSigStars());
+		}
+	}
+
+	private static List<ModelColumn.Cell> readCells(DataInputStream in) throws IOException {
+		int size = in.readInt();
+		List<ModelColumn.Cell> cells = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			cells.add(new ModelColumn.Cell(readString(in), readString(in), readDouble(in), readDouble(in),
+					readString(in)));
+		}
+		return cells;
+	}
+
+	/*
+	 * Labels and texts are short, but not necessarily below writeUTF()'s limit
+	 * of 64K bytes, so strings are written as length and UTF-8 bytes; -1 for
+	 * null. Doubles are written as NaN for null.
+	 */
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		if (Objects.isNull(s)) {
+			out.writeInt(-1);
+		} else {
+			byte[] b = s.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(b.length);
+			out.write(b);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0)
+			return null;
+		byte[] b = new byte[length];
+		in.readFully(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	private static void writeDouble(DataOutputStream out, Double d) throws IOException {
+		out.writeDouble(Objects.isNull(d) ? Double.NaN : d);
+	}
+
+	private static Double readDouble(DataInputStream in) throws IOException {
+		double d = in.readDouble();
+		return Double.isNaN(d) ? null : d;
+	}
+
+	// INNER CLASSES ------------------------------------------------ //
+
+	public static final class Entry {
+
+		// VARIABLES ------------------------------------------------ //
+
+		private final int call;
+
+		private final String sheet, layout;
+
+		private final boolean merge;
+
+		private final ModelColumn column;
+
+		// CONSTRUCTOR ---------------------------------------------- //
+
+		Entry(int call, String sheet, boolean merge, String layout, ModelColumn column) {
+			this.call = call;
+			this.sheet = sheet;
+			this.merge = merge;
+			this.layout = layout;
+			this.column = column;
+		}
+
+		// PUBLIC --------------------------------------------------- //
+
+		/**
+		 * The number of the append (or export) the column was added by.
+		 * Columns of different calls go to different sheets if each call asks
+		 * for a new sheet.
+		 */
+		public int getCall() {
+			return call;
+		}
+
+		public String getSheet() {
+			return sheet;
+		}
+
+		public boolean isMerge() {
+			return merge;
+		}
+
+		public String getLayout() {
+			return layout;
+		}
+
+		public ModelColumn getColumn() {
+			return column;
+		}
+
+	}
+
+}
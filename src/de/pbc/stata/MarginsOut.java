@@ -1,10 +1,10 @@
 package de.pbc.stata;
 
-import java.io.FileOutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.apache.poi.ss.usermodel.Row;
@@ -32,56 +32,92 @@ public class MarginsOut {
 	
 	// PRIVATE ------------------------------------------------------- //
 	
+	@SuppressWarnings("try") // the timing phases and the streaming workbook are only closed, not used
 	private int marginsOut(String[] args) {
+		Timing timing = new Timing("marginsout",
+				Arrays.stream(args).anyMatch((a) -> a.equalsIgnoreCase("timing")));
+		
 		try {
-			double[][] table = StataUtils.transposeMatrix(StataUtils.getMatrix("r(table)"));
-			double[][] at = StataUtils.transposeMatrix(StataUtils.getMatrix("r(at)"));
+			double[][] table, at;
+			String[] varNames;
+			try (Timing.Phase phase = timing.phase("read")) {
+				table = StataUtils.transposeMatrix(StataUtils.getMatrix("r(table)"));
+				at = StataUtils.transposeMatrix(StataUtils.getMatrix("r(at)"));
+				varNames = Matrix.getMatrixColNames("r(at)");
+				phase.cells(size(table) + size(at));
+			}
 			List<Integer> varyingVars = getVaryingVars(at);
-			String[] varNames = Matrix.getMatrixColNames("r(at)");
 			
 			Path path = Paths.get("marginsOut.xlsx");
 			
-			try (Workbook wb = Files.exists(path) ? new XSSFWorkbook(Files.newInputStream(path)) : new XSSFWorkbook()) {
-				Sheet sh = wb.createSheet();
-				
-				Row r = sh.createRow(0);
-				r.createCell(0).setCellValue(Macro.getLocal("r_cmdline"));
-				
-				r = sh.createRow(1);
-				for (int i = 0; i < varyingVars.size(); i++)
-					r.createCell(i).setCellValue(varNames[varyingVars.get(i)]);
-				r.createCell(varyingVars.size()).setCellValue("Margin");
-				r.createCell(varyingVars.size() + 1).setCellValue("Std. Err.");
-				r.createCell(varyingVars.size() + 2).setCellValue("z");
-				r.createCell(varyingVars.size() + 3).setCellValue("P>|z|");
-				
-				for (int i = 0; i < table.length; i++) {
-					r = sh.createRow(i + 2);
-					for (int j = 0; j < varyingVars.size(); j++)
-						r.createCell(j).setCellValue(at[varyingVars.get(j)][i]);
-					for (int j = 0; j < 4; j++)
-						r.createCell(j + varyingVars.size()).setCellValue(table[i][j]);
-				}
-				
-				sh = wb.createSheet();
-				
-				r = sh.createRow(0);
-				for (int i = 0; i < at.length; i++) {
-					r.createCell(i).setCellValue(varNames[i]);
+			MemoryGuard guard = new MemoryGuard("marginsout", timing.isDisplayed());
+			boolean streaming = guard.check(path,
+					table.length * (long) (varyingVars.size() + 4) + size(at) + varNames.length,
+					Arrays.stream(args).anyMatch((a) -> a.equalsIgnoreCase("stream")));
+			
+			StreamingWorkbook swb = streaming ? new StreamingWorkbook() : null;
+			Workbook opened;
+			try (Timing.Phase phase = timing.phase("open")) {
+				if (streaming) {
+					if (Files.exists(path))
+						swb.copy(path, null);
+					opened = swb.getWorkbook();
+				} else {
+					opened = Files.exists(path) ? new XSSFWorkbook(Files.newInputStream(path)) : new XSSFWorkbook();
 				}
-				
-				at = StataUtils.transposeMatrix(at);
-				for (int i = 0; i < at.length; i++) {
-					r = sh.createRow(i + 1);
-					for (int j = 0; j < at[i].length; j++) {
-						r.createCell(j).setCellValue(at[i][j]);
+			}
+			
+			try (Workbook wb = opened; StreamingWorkbook closing = swb) {
+				try (Timing.Phase phase = timing.phase("fill")) {
+					Sheet sh = wb.createSheet();
+					
+					Row r = sh.createRow(0);
+					r.createCell(0).setCellValue(Macro.getLocal("r_cmdline"));
+					
+					r = sh.createRow(1);
+					for (int i = 0; i < varyingVars.size(); i++)
+						r.createCell(i).setCellValue(varNames[varyingVars.get(i)]);
+					r.createCell(varyingVars.size()).setCellValue("Margin");
+					r.createCell(varyingVars.size() + 1).setCellValue("Std. Err.");
+					r.createCell(varyingVars.size() + 2).setCellValue("z");
+					r.createCell(varyingVars.size() + 3).setCellValue("P>|z|");
+					
+					for (int i = 0; i < table.length; i++) {
+						r = sh.createRow(i + 2);
+						for (int j = 0; j < varyingVars.size(); j++)
+							r.createCell(j).setCellValue(at[varyingVars.get(j)][i]);
+						for (int j = 0; j < 4; j++)
+							r.createCell(j + varyingVars.size()).setCellValue(table[i][j]);
+					}
+					
+					sh = wb.createSheet();
+					
+					r = sh.createRow(0);
+					for (int i = 0; i < at.length; i++) {
+						r.createCell(i).setCellValue(varNames[i]);
 					}
+					
+					at = StataUtils.transposeMatrix(at);
+					for (int i = 0; i < at.length; i++) {
+						r = sh.createRow(i + 1);
+						for (int j = 0; j < at[i].length; j++) {
+							r.createCell(j).setCellValue(at[i][j]);
+						}
+					}
+					
+					phase.cells(table.length * (long) (varyingVars.size() + 4) + size(at) + varNames.length);
 				}
 				
-				try (FileOutputStream out = new FileOutputStream(path.toFile())) {
-					wb.write(out);
+				try (Timing.Phase phase = timing.phase("write")) {
+					if (streaming)
+						swb.save(path);
+					else
+						StreamingWorkbook.write(wb, path);
 				}
 				
+				timing.report();
+				guard.report();
+				
 				SFIToolkit.display("{browse \"" + path + "\":Open " + path + "}");
 			}
 			
@@ -92,6 +128,10 @@ public class MarginsOut {
 		}
 	}
 	
+	private static long size(double[][] m) {
+		return m.length == 0 ? 0 : m.length * (long) m[0].length;
+	}
+	
 	private List<Integer> getVaryingVars(double[][] at) {
 		List<Integer> varyingVars = new ArrayList<>();
 		
@@ -0,0 +1,164 @@
+package de.pbc.stata;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import com.stata.sfi.SFIToolkit;
+
+/**
+ * <p>
+ * Decides whether an export fits into an in-memory {@code XSSFWorkbook}, from
+ * the number of cells it will hold and the heap that is left, or has to be
+ * written through {@link StreamingWorkbook}.
+ * </p>
+ * <p>
+ * The estimate is deliberately rough: an XSSF cell takes about
+ * {@value #BYTES_PER_CELL} bytes of heap (cell, row entry, XMLBeans objects and
+ * strings), and an existing workbook is counted by the size of its
+ * uncompressed sheet XML. {@link #report()} compares it with the peak heap
+ * usage during the export.
+ * </p>
+ */
+public class MemoryGuard {
+
+	// CONSTANTS ---------------------------------------------------- //
+
+	/** Heap per cell of an in-memory workbook. */
+	static final long BYTES_PER_CELL = 1000;
+
+	/** Uncompressed sheet XML per cell of an existing workbook. */
+	static final long XML_BYTES_PER_CELL = 40;
+
+	/** Share of the free heap an in-memory workbook may take. */
+	static final double MAX_SHARE = .6;
+
+	// VARIABLES ---------------------------------------------------- //
+
+	private final String exporter;
+
+	private final boolean display, quiet;
+
+	private long cells, estimate, headroom, used;
+
+	private boolean streaming;
+
+	// CONSTRUCTOR -------------------------------------------------- //
+
+	/**
+	 * @param display
+	 *            whether {@link #report()} displays the comparison
+	 */
+	public MemoryGuard(String exporter, boolean display) {
+		this(exporter, display, false);
+	}
+
+	/**
+	 * @param quiet
+	 *            display nothing at all, for exports off Stata's thread, which
+	 *            can't call SFI
+	 */
+	public MemoryGuard(String exporter, boolean display, boolean quiet) {
+		this.exporter = exporter;
+		this.display = display && !quiet;
+		this.quiet = quiet;
+	}
+
+	// PUBLIC ------------------------------------------------------- //
+
+	/**
+	 * Estimates the heap needed to write {@code newCells} cells, plus those of
+	 * {@code existing} if it is merged, and compares it with the heap that is
+	 * left. Also starts measuring the peak heap usage.
+	 *
+	 * @param force
+	 *            stream regardless of the estimate
+	 * @return whether to stream
+	 */
+	public boolean check(Path existing, long newCells, boolean force) throws IOException {
+		cells = newCells + (existing != null && Files.exists(existing) ? countCells(existing) : 0);
+		estimate = cells * BYTES_PER_CELL;
+
+		Runtime rt = Runtime.getRuntime();
+		used = rt.totalMemory() - rt.freeMemory();
+		headroom = rt.maxMemory() - used;
+
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isValid())
+				pool.resetPeakUsage();
+		}
+
+		streaming = force || estimate > headroom * MAX_SHARE;
+		if (streaming && !force && !quiet)
+			SFIToolkit.displayln(String.format(
+					"{txt}%s: about %,d cells need an estimated %s of %s free memory; writing in streaming mode",
+					exporter, cells, mb(estimate), mb(headroom)));
+		return streaming;
+	}
+
+	/**
+	 * Switches to streaming after the in-memory workbook ran out of memory.
+	 */
+	public void fallBack() {
+		streaming = true;
+		if (!quiet)
+			SFIToolkit.displayln(String.format("{txt}%s: out of memory; writing in streaming mode", exporter));
+	}
+
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	/**
+	 * Displays the estimate next to the measured peak, i.e. the sum of the
+	 * peaks of the heap pools (an upper bound) less the heap used before the
+	 * export. Does nothing unless requested.
+	 */
+	public void report() {
+		if (!display)
+			return;
+
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isValid())
+				peak += pool.getPeakUsage().getUsed();
+		}
+
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("{txt}memory (%s, %s){col 32}MB%n", exporter, streaming ? "streaming" : "in memory"));
+		sb.append(String.format("  cells{col 22}{res}%12d{txt}%n", cells));
+		sb.append(String.format("  estimated{col 22}{res}%12.1f{txt}%n", estimate / 1e6));
+		sb.append(String.format("  peak{col 22}{res}%12.1f{txt}%n", Math.max(peak - used, 0) / 1e6));
+		sb.append(String.format("  free{col 22}{res}%12.1f{txt}%n", headroom / 1e6));
+		SFIToolkit.display(sb.toString());
+	}
+
+	// PRIVATE ------------------------------------------------------ //
+
+	/**
+	 * Cells of a workbook by the uncompressed size of its sheets and shared
+	 * strings, without parsing them.
+	 */
+	private static long countCells(Path path) throws IOException {
+		long bytes = 0;
+		try (ZipFile zip = new ZipFile(path.toFile())) {
+			for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();) {
+				ZipEntry entry = e.nextElement();
+				if (entry.getName().startsWith("xl/worksheets/") || entry.getName().equals("xl/sharedStrings.xml"))
+					bytes += Math.max(entry.getSize(), entry.getCompressedSize());
+			}
+		}
+		return bytes / XML_BYTES_PER_CELL;
+	}
+
+	private static String mb(long bytes) {
+		return String.format("%,.0f MB", bytes / 1e6);
+	}
+
+}
@@ -0,0 +1,237 @@
+package de.pbc.stata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.apache.commons.math3.distribution.NormalDistribution;
+import org.apache.commons.math3.distribution.TDistribution;
+
+import com.stata.sfi.Data;
+import com.stata.sfi.Matrix;
+
+/**
+ * <p>
+ * Estimates of m imputed datasets combined by Rubin's rules, as
+ * {@code mi estimate} does, from each imputation's {@code e(b)}, the diagonal
+ * of {@code e(V)} and {@code e(df_r)}. Each imputation is read once
+ * ({@link Imputation#read()}); the rules are then applied column-wise on
+ * arrays:
+ * </p>
+ * <ul>
+ * <li>estimate Q = mean of the b's, within variance W = mean of the
+ * variances, between variance B = variance of the b's, and total variance
+ * T = W + (1 + 1/m) B</li>
+ * <li>degrees of freedom after Barnard and Rubin (1999) if the imputations
+ * have {@code e(df_r)}, from ν = (m - 1) / λ² and ν_obs = (ν_com + 1) /
+ * (ν_com + 3) ν_com (1 - λ), with λ = (1 + 1/m) B / T; ν otherwise</li>
+ * <li>p-values of Q / √T from the t distribution with these degrees of
+ * freedom (normal if B = 0 and there is no {@code e(df_r)})</li>
+ * </ul>
+ * <p>
+ * The imputations have to have the same coefficients. The model statistics
+ * are N (of the first imputation), the number of imputations, the average
+ * relative variance increase and the largest fraction of missing
+ * information.
+ * </p>
+ */
+public class MiResult implements ModelResult {
+
+	// VARIABLES ---------------------------------------------------- //
+
+	private final Variable dv;
+
+	private final List<String> equations;
+
+	private final Map<String, List<Term>> terms = new HashMap<>();
+
+	private final List<ModelStat> modelStats;
+
+	// CONSTRUCTOR -------------------------------------------------- //
+
+	/**
+	 * Combines {@code imputations}. Has to be called on Stata's thread.
+	 */
+	public MiResult(List<Imputation> imputations) {
+		int m = imputations.size();
+		if (m < 2)
+			throw new IllegalArgumentException("combining requires at least 2 imputations");
+
+		Imputation first = imputations.get(0);
+		int k = first.b.length;
+		for (Imputation imp : imputations) {
+			if (!Arrays.equals(imp.names, first.names) || !Arrays.equals(imp.eqs, first.eqs))
+				throw new IllegalArgumentException("the imputations' coefficients differ");
+		}
+
+		double[] q = new double[k], w = new double[k], b = new double[k];
+		for (Imputation imp : imputations) {
+			for (int j = 0; j < k; j++) {
+				q[j] += imp.b[j];
+				w[j] += imp.v[j];
+			}
+		}
+		for (int j = 0; j < k; j++) {
+			q[j] /= m;
+			w[j] /= m;
+		}
+		for (Imputation imp : imputations) {
+			for (int j = 0; j < k; j++) {
+				double d = imp.b[j] - q[j];
+				b[j] += d * d;
+			}
+		}
+
+		Double dfCom = first.dfR;
+		double rviSum = 0, fmiMax = 0;
+		int estimated = 0;
+		double[] se = new double[k], p = new double[k];
+		for (int j = 0; j < k; j++) {
+			b[j] /= m - 1;
+			double t = w[j] + (1 + 1d / m) * b[j];
+			if (t <= 0) {
+				// omitted or base, as for the other models
+				se[j] = 0;
+				p[j] = Double.NaN;
+				continue;
+			}
+			se[j] = Math.sqrt(t);
+
+			double lambda = (1 + 1d / m) * b[j] / t;
+			double df = (m - 1) / (lambda * lambda);
+			if (Objects.nonNull(dfCom)) {
+				double dfObs = (dfCom + 1) / (dfCom + 3) * dfCom * (1 - lambda);
+				df = Double.isInfinite(df) ? dfObs : df * dfObs / (df + dfObs);
+			}
+			double z = Math.abs(q[j] / se[j]);
+			p[j] = 2 * (1 - (Double.isInfinite(df) ? new NormalDistribution() : new TDistribution(df))
+					.cumulativeProbability(z));
+
+			double r = w[j] > 0 ? (1 + 1d / m) * b[j] / w[j] : 0;
+			rviSum += r;
+			fmiMax = Math.max(fmiMax, Double.isInfinite(df) ? lambda : (r + 2 / (df + 3)) / (r + 1));
+			estimated++;
+		}
+
+		this.dv = first.dv;
+
+		// as in e(b): equations in order of appearance, terms numbered within them
+		Map<String, TermTable.Builder> builders = new LinkedHashMap<>();
+		Map<String, Integer> counts = new HashMap<>();
+		TermTable.Names names = new TermTable.Names();
+		for (int j = 0; j < k; j++) {
+			String eq = Objects.isNull(first.eqs) ? "_" : first.eqs[j];
+			int index = counts.merge(eq, 1, Integer::sum) - 1;
+			builders.computeIfAbsent(eq, (e) -> new TermTable.Builder(names)).add(index, first.names[j], q[j], se[j],
+					p[j]);
+		}
+		builders.forEach((eq, builder) -> terms.put(eq, builder.build().asList()));
+		this.equations = builders.size() > 1 ? List.copyOf(builders.keySet()) : null;
+
+		List<ModelStat> stats = new ArrayList<>();
+		if (Objects.nonNull(first.n))
+			stats.add(new ModelStat("N", "N", first.n, null, 0));
+		stats.add(new ModelStat("M_mi", "Imputations", (double) m, null, 0));
+		if (estimated > 0) {
+			stats.add(new ModelStat("rvi_avg", "Average RVI", rviSum / estimated, null, 3));
+			stats.add(new ModelStat("fmi_max", "Largest FMI", fmiMax, null, 3));
+		}
+		this.modelStats = List.copyOf(stats);
+	}
+
+	// PUBLIC ------------------------------------------------------- //
+
+	@Override
+	public Variable getDv() {
+		return dv;
+	}
+
+	@Override
+	public boolean hasMultipleEquations() {
+		return Objects.nonNull(equations);
+	}
+
+	@Override
+	public List<String> getEquations() {
+		return equations;
+	}
+
+	@Override
+	public List<Term> getTerms() {
+		return terms.get(Objects.isNull(equations) ? terms.keySet().iterator().next() : equations.get(0));
+	}
+
+	@Override
+	public List<Term> getTerms(String eq) {
+		return terms.get(eq);
+	}
+
+	@Override
+	public List<ModelStat> getModelStats() {
+		return modelStats;
+	}
+
+	// INNER CLASSES ------------------------------------------------ //
+
+	/**
+	 * What is needed of one imputation's estimation.
+	 */
+	public static final class Imputation {
+
+		// VARIABLES ------------------------------------------------ //
+
+		private final Variable dv;
+
+		private final String[] names, eqs;
+
+		private final double[] b, v;
+
+		private final Double dfR, n;
+
+		// CONSTRUCTOR ---------------------------------------------- //
+
+		private Imputation(Variable dv, String[] names, String[] eqs, double[] b, double[] v, Double dfR, Double n) {
+			this.dv = dv;
+			this.names = names;
+			this.eqs = eqs;
+			this.b = b;
+			this.v = v;
+			this.dfR = dfR;
+			this.n = n;
+		}
+
+		// PUBLIC --------------------------------------------------- //
+
+		/**
+		 * Reads the active estimation. Only the diagonal of {@code e(V)} is
+		 * read.
+		 */
+		public static Imputation read() {
+			StataResults results = StataResults.fetch(new StataResults.Request().macros("depvar")
+					.scalars("df_r", "N").matrixWithEquations("e(b)"));
+			StataResults.ResultMatrix eb = results.getMatrix("e(b)");
+			if (Objects.isNull(eb))
+				throw new IllegalStateException("e(b) not found");
+
+			double[] b = eb.getValues()[0].clone(), v = new double[b.length];
+			for (int j = 0; j < b.length; j++) {
+				double var = Matrix.getMatrixValue("e(V)", j, j);
+				v[j] = Data.isValueMissing(var) ? 0 : var;
+				if (Data.isValueMissing(b[j]))
+					b[j] = 0;
+			}
+
+			String[] eqs = eb.getColEqs();
+			if (Objects.nonNull(eqs) && Arrays.stream(eqs).allMatch((eq) -> eq.equals("_")))
+				eqs = null;
+			return new Imputation(new Variable(results.getMacro("depvar")), eb.getColNames(), eqs, b, v,
+					results.getScalar("df_r"), results.getScalar("N"));
+		}
+
+	}
+
+}
@@ -0,0 +1,120 @@
+package de.pbc.stata;
+
+import java.util.List;
+
+/**
+ * <p>
+ * One column of a regression table, rendered and ready to be written: the
+ * cells of a model or of one of its equations. Created by
+ * {@link ColumnRenderer}; immutable.
+ * </p>
+ * <p>
+ * Cells are keyed by their row label. Terms come first (without the constant),
+ * then the constant, then indicator rows of collapsed factor variables and
+ * equation and model statistics.
+ * </p>
+ */
+public final class ModelColumn {
+	
+	// VARIABLES ---------------------------------------------------- //
+	
+	private final String title, equation;
+	
+	private final List<Cell> terms, constants, stats;
+	
+	// CONSTRUCTOR -------------------------------------------------- //
+	
+	ModelColumn(String title, String equation, List<Cell> terms, List<Cell> constants, List<Cell> stats) {
+		this.title = title;
+		this.equation = equation;
+		this.terms = List.copyOf(terms);
+		this.constants = List.copyOf(constants);
+		this.stats = List.copyOf(stats);
+	}
+	
+	// PUBLIC ------------------------------------------------------- //
+	
+	public String getTitle() {
+		return title;
+	}
+	
+	/**
+	 * The equation, or {@code null} for single-equation models.
+	 */
+	public String getEquation() {
+		return equation;
+	}
+	
+	public List<Cell> getTerms() {
+		return terms;
+	}
+	
+	public List<Cell> getConstants() {
+		return constants;
+	}
+	
+	public List<Cell> getStats() {
+		return stats;
+	}
+	
+	public int getCellCount() {
+		return terms.size() + constants.size() + stats.size();
+	}
+	
+	// INNER CLASSES ------------------------------------------------ //
+	
+	public static final class Cell {
+		
+		// VARIABLES ------------------------------------------------ //
+		
+		private final String label, text, stars;
+		
+		private final Double value, se;
+		
+		// CONSTRUCTOR ---------------------------------------------- //
+		
+		Cell(String label, String text) {
+			this(label, text, null, null, "");
+		}
+		
+		Cell(String label, String text, Double value, Double se, String stars) {
+			this.label = label;
+			this.text = text;
+			this.value = value;
+			this.se = se;
+			this.stars = stars;
+		}
+		
+		// PUBLIC --------------------------------------------------- //
+		
+		public String getLabel() {
+			return label;
+		}
+		
+		/**
+		 * The cell's content, or {@code null} if the row is shown without a
+		 * value (base levels) or only written as numbers.
+		 */
+		public String getText() {
+			return text;
+		}
+		
+		/**
+		 * The coefficient, for numeric layouts; {@code null} for statistics and
+		 * terms without an estimate.
+		 */
+		public Double getValue() {
+			return value;
+		}
+		
+		public Double getSe() {
+			return se;
+		}
+		
+		public String getSigStars() {
+			return stars;
+		}
+		
+	}
+	
+}
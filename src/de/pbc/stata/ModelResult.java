@@ -22,6 +22,18 @@ public interface ModelResult {
 		return getTerms();
 	}
 	
+	/**
+	 * Factor-variable blocks that are written as indicator rows instead of
+	 * terms.
+	 */
+	public default List<TermBlock> getTermBlocks() {
+		return List.of();
+	}
+	
+	public default List<TermBlock> getTermBlocks(String eq) {
+		return getTermBlocks();
+	}
+	
 	public List<ModelStat> getModelStats();
 	
 	public default List<ModelStat> getEquationStats(String eq) {
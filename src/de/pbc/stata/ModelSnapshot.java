@@ -0,0 +1,222 @@
+package de.pbc.stata;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * Immutable copy of a {@link ModelResult} with everything that has to be read
+ * from Stata already resolved: terms, their labels, and the values of all
+ * model and equation statistics. The scalars behind the statistics are fetched
+ * in a single pass.
+ * </p>
+ * <p>
+ * Rendering a snapshot doesn't call into SFI, so it can be done on any thread;
+ * snapshots are safe to share between threads.
+ * </p>
+ */
+public final class ModelSnapshot implements ModelResult {
+	
+	// VARIABLES ---------------------------------------------------- //
+	
+	private final Variable dv;
+	
+	private final boolean hasMultipleEquations;
+	
+	private final List<String> equations;
+	
+	private final List<Term> terms;
+	
+	private final Map<String, List<Term>> equationTerms;
+	
+	private final List<TermBlock> blocks;
+	
+	private final Map<String, List<TermBlock>> equationBlocks;
+	
+	private final List<ModelStat> modelStats;
+	
+	private final Map<String, List<ModelStat>> equationStats;
+	
+	// CONSTRUCTOR -------------------------------------------------- //
+	
+	private ModelSnapshot(ModelResult res, List<String> stats, TermFilter filter) {
+		dv = res.getDv();
+		dv.getLabel();
+		hasMultipleEquations = res.hasMultipleEquations();
+		equations = copy(res.getEquations());
+		terms = copyTerms(filter.apply(res.getTerms()));
+		blocks = copyBlocks(filter.blocks(res.getTerms()));
+		
+		Map<String, List<Term>> equationTerms = new HashMap<>();
+		Map<String, List<TermBlock>> equationBlocks = new HashMap<>();
+		Map<String, List<ModelStat>> equationStats = new HashMap<>();
+		Set<String> equationStatNames = new HashSet<>();
+		if (Objects.nonNull(equations)) {
+			for (String eq : equations) {
+				equationTerms.put(eq, copyTerms(filter.apply(res.getTerms(eq))));
+				equationBlocks.put(eq, copyBlocks(filter.blocks(res.getTerms(eq))));
+				List<ModelStat> eqStats = res.getEquationStats(eq);
+				if (Objects.nonNull(stats) && Objects.nonNull(eqStats)) {
+					eqStats = ModelStat.select(eqStats, stats, false);
+					eqStats.forEach((stat) -> equationStatNames.add(stat.getName()));
+				}
+				equationStats.put(eq, copy(eqStats));
+			}
+		}
+		
+		if (Objects.isNull(stats)) {
+			modelStats = copy(res.getModelStats());
+		} else {
+			// statistics of stored models are final, there is nothing to read
+			boolean declare = !(res instanceof ModelSnapshot || res instanceof EstimationStore.StoredModel);
+			modelStats = copy(ModelStat.select(res.getModelStats(),
+					stats.stream().filter((s) -> !equationStatNames.contains(s)).toList(), declare));
+		}
+		this.equationTerms = Collections.unmodifiableMap(equationTerms);
+		this.equationBlocks = Collections.unmodifiableMap(equationBlocks);
+		this.equationStats = Collections.unmodifiableMap(equationStats);
+		
+		Set<String> scalars = new LinkedHashSet<>();
+		forEachStat(stat -> scalars.addAll(stat.getScalars()));
+		StataResults results = StataResults.fetch(new StataResults.Request().scalars(scalars));
+		forEachStat(stat -> stat.resolve(results));
+	}
+	
+	private ModelSnapshot(ModelSnapshot snapshot, List<ModelStat> modelStats) {
+		dv = snapshot.dv;
+		hasMultipleEquations = snapshot.hasMultipleEquations;
+		equations = snapshot.equations;
+		terms = snapshot.terms;
+		equationTerms = snapshot.equationTerms;
+		blocks = snapshot.blocks;
+		equationBlocks = snapshot.equationBlocks;
+		this.modelStats = modelStats;
+		equationStats = snapshot.equationStats;
+	}
+	
+	// PUBLIC ------------------------------------------------------- //
+	
+	/**
+	 * Takes a snapshot of {@code res}. Has to be called on Stata's thread.
+	 * Snapshots are returned as they are.
+	 */
+	public static ModelSnapshot of(ModelResult res) {
+		return res instanceof ModelSnapshot ? (ModelSnapshot) res : new ModelSnapshot(res, null, TermFilter.NONE);
+	}
+	
+	/**
+	 * Takes a snapshot of {@code res} with only the statistics {@code stats}
+	 * (see {@link ModelStat#select(List, List, boolean)}), or all of them if
+	 * {@code null}. Only the selected statistics are read from Stata.
+	 */
+	public static ModelSnapshot of(ModelResult res, List<String> stats) {
+		return of(res, stats, TermFilter.NONE);
+	}
+	
+	/**
+	 * Like {@link #of(ModelResult, List)}, with only the terms accepted by
+	 * {@code filter}. Terms that are filtered out aren't labelled.
+	 */
+	public static ModelSnapshot of(ModelResult res, List<String> stats, TermFilter filter) {
+		if (Objects.isNull(stats) && filter == TermFilter.NONE)
+			return of(res);
+		return new ModelSnapshot(res, stats, filter);
+	}
+	
+	/**
+	 * A copy with the resolved statistics {@code stats} added below the
+	 * model statistics, e.g. {@link WaldTest}s.
+	 */
+	public ModelSnapshot withModelStats(List<ModelStat> stats) {
+		if (stats.isEmpty())
+			return this;
+		List<ModelStat> all = new ArrayList<>();
+		if (Objects.nonNull(modelStats))
+			all.addAll(modelStats);
+		all.addAll(stats);
+		return new ModelSnapshot(this, List.copyOf(all));
+	}
+	
+	@Override
+	public Variable getDv() {
+		return dv;
+	}
+	
+	@Override
+	public boolean hasMultipleEquations() {
+		return hasMultipleEquations;
+	}
+	
+	@Override
+	public List<String> getEquations() {
+		return equations;
+	}
+	
+	@Override
+	public List<Term> getTerms() {
+		return terms;
+	}
+	
+	@Override
+	public List<Term> getTerms(String eq) {
+		return equationTerms.get(eq);
+	}
+	
+	@Override
+	public List<TermBlock> getTermBlocks() {
+		return blocks;
+	}
+	
+	@Override
+	public List<TermBlock> getTermBlocks(String eq) {
+		return equationBlocks.get(eq);
+	}
+	
+	@Override
+	public List<ModelStat> getModelStats() {
+		return modelStats;
+	}
+	
+	@Override
+	public List<ModelStat> getEquationStats(String eq) {
+		return equationStats.get(eq);
+	}
+	
+	// PRIVATE ------------------------------------------------------ //
+	
+	private void forEachStat(Consumer<ModelStat> action) {
+		if (Objects.nonNull(modelStats))
+			modelStats.forEach(action);
+		for (List<ModelStat> stats : equationStats.values()) {
+			if (Objects.nonNull(stats))
+				stats.forEach(action);
+		}
+	}
+	
+	private static List<Term> copyTerms(List<Term> terms) {
+		if (Objects.nonNull(terms))
+			terms.forEach(Term::getLabel);
+		return copy(terms);
+	}
+	
+	/**
+	 * Labels are resolved; the blocks' terms are left as they are.
+	 */
+	private static List<TermBlock> copyBlocks(List<TermBlock> blocks) {
+		blocks.forEach(TermBlock::getLabel);
+		return List.copyOf(blocks);
+	}
+	
+	private static <T> List<T> copy(List<T> list) {
+		return Objects.isNull(list) ? null : List.copyOf(list);
+	}
+	
+}
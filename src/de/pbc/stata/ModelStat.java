@@ -1,12 +1,12 @@
 package de.pbc.stata;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Objects;
 
 import org.apache.commons.math3.distribution.FDistribution;
 
-import com.stata.sfi.Data;
-import com.stata.sfi.Scalar;
-
 public class ModelStat {
 
 	// VARIABLES ---------------------------------------------------- //
@@ -17,8 +17,15 @@ public class ModelStat {
 
 	protected int defScale;
 
+	protected boolean resolved;
+
 	// CONSTRUCTOR -------------------------------------------------- //
 
+	/*
+	 * Statistics that are read from e() are only declared here; their values
+	 * are set by resolve(), once the results have been fetched.
+	 */
+
 	protected ModelStat(String local, String localP, String label) {
 		this(local, localP, label, 2);
 	}
@@ -28,8 +35,6 @@ public class ModelStat {
 		this.localP = localP;
 		this.label = label;
 		this.defScale = defScale;
-
-		getValues();
 	}
 
 	protected ModelStat(String local, String label, Double val, Double p) {
@@ -42,24 +47,72 @@ public class ModelStat {
 		this.val = val;
 		this.p = p;
 		this.defScale = defScale;
+		this.resolved = true;
 	}
 
 	// PROTECTED ---------------------------------------------------- //
 
-	protected void getValues() {
-		val = Scalar.getValue(local, Scalar.TYPE_ERETURN);
-		val = Data.isValueMissing(val) ? null : val;
+	protected void getValues(StataResults results) {
+		val = results.getScalar(local);
 
 		if (Objects.nonNull(localP)) {
-			p = Scalar.getValue(localP, Scalar.TYPE_ERETURN);
-			if (Objects.nonNull(p)) {
-				p = Data.isValueMissing(p) ? null : p;
-			}
+			p = results.getScalar(localP);
 		}
 	}
 
 	// PUBLIC ------------------------------------------------------- //
 
+	/**
+	 * <p>
+	 * The statistics {@code names} (names of e() scalars, e.g. {@code N r2_a F})
+	 * in that order. Statistics in {@code available} are used as they are;
+	 * others are declared as plain scalars labelled by their name if
+	 * {@code declare} is set, and skipped otherwise.
+	 * </p>
+	 * <p>
+	 * Nothing is read here, so only the selected statistics are resolved later.
+	 * </p>
+	 */
+	public static List<ModelStat> select(List<ModelStat> available, List<String> names, boolean declare) {
+		List<ModelStat> stats = new ArrayList<>(names.size());
+		for (String name : names) {
+			ModelStat stat = Objects.isNull(available) ? null
+					: available.stream().filter((s) -> name.equals(s.getName())).findFirst().orElse(null);
+			if (Objects.nonNull(stat)) {
+				stats.add(stat);
+			} else if (declare) {
+				stats.add(new ModelStat(name, null, name, name.startsWith("N") || name.startsWith("df_") ? 0 : 2));
+			}
+		}
+		return stats;
+	}
+
+	/**
+	 * The e() scalars this statistic is computed from.
+	 */
+	public Collection<String> getScalars() {
+		if (resolved) {
+			return List.of();
+		} else {
+			List<String> scalars = new ArrayList<>(2);
+			scalars.add(local);
+			if (Objects.nonNull(localP))
+				scalars.add(localP);
+			return scalars;
+		}
+	}
+
+	/**
+	 * Sets the value from {@code results}, which must contain
+	 * {@link #getScalars()}. Does nothing if the value is known already.
+	 */
+	public void resolve(StataResults results) {
+		if (!resolved) {
+			getValues(results);
+			resolved = true;
+		}
+	}
+
 	public String getName() {
 		return local;
 	}
@@ -72,19 +125,32 @@ public class ModelStat {
 		return label;
 	}
 
+	public Double getValue() {
+		return val;
+	}
+
+	public Double getPValue() {
+		return p;
+	}
+
+	public int getScale() {
+		return defScale;
+	}
+
 	public String getVal() {
 		return getVal(defScale);
 	}
 
 	public String getVal(int scale) {
 		if (Objects.nonNull(val)) {
-			return StataUtils.correctRounding(val, scale);
+			return DecimalFormatter.format(val, scale);
 		} else {
 			return "";
 		}
 	}
 
 	public String getSigStars() {
+		Double p = getPValue();
 		if (Objects.nonNull(p)) {
 			return Term.SIG_LEVELS.apply(p);
 		} else {
@@ -99,16 +165,39 @@ public class ModelStat {
 
 	// INNER CLASSES ------------------------------------------------ //
 
+	/**
+	 * F statistic whose p-value is computed from {@code df_m} and
+	 * {@code df_r}.
+	 */
 	public static class FStat extends ModelStat {
 
-		// INNER CLASSES -------------------------------------------- //
+		// CONSTRUCTOR ---------------------------------------------- //
 
 		protected FStat(String local, String label) {
 			super(local, null, label);
+		}
+
+		// PROTECTED ------------------------------------------------ //
 
-			p = 1 - new FDistribution(Scalar.getValue("df_m", Scalar.TYPE_ERETURN),
-					Scalar.getValue("df_r", Scalar.TYPE_ERETURN))
-					.cumulativeProbability(Scalar.getValue(local, Scalar.TYPE_ERETURN));
+		@Override
+		protected void getValues(StataResults results) {
+			super.getValues(results);
+
+			Double dfM = results.getScalar("df_m"), dfR = results.getScalar("df_r");
+			if (Objects.nonNull(val) && Objects.nonNull(dfM) && Objects.nonNull(dfR))
+				p = 1 - new FDistribution(dfM, dfR).cumulativeProbability(val);
+		}
+
+		// PUBLIC --------------------------------------------------- //
+
+		@Override
+		public Collection<String> getScalars() {
+			List<String> scalars = new ArrayList<>(super.getScalars());
+			if (!scalars.isEmpty()) {
+				scalars.add("df_m");
+				scalars.add("df_r");
+			}
+			return scalars;
 		}
 
 	}
@@ -2,6 +2,7 @@ package de.pbc.stata;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -11,10 +12,7 @@ import java.util.stream.Collectors;
 import org.apache.commons.math3.distribution.TDistribution;
 
 import com.stata.sfi.Data;
-import com.stata.sfi.Macro;
-import com.stata.sfi.Matrix;
 import com.stata.sfi.SFIToolkit;
-import com.stata.sfi.Scalar;
 
 public class Models {
 
@@ -57,24 +55,26 @@ public class Models {
 		case "reghdfe":
 			return new StandardResult() {
 
+				private List<ModelStat> modelStats;
+
+				@Override
+				protected void request(StataResults.Request req) {
+					req.matrices("e(dof_table)");
+				}
+
 				@Override
 				public List<ModelStat> getModelStats() {
-					List<ModelStat> modelStats = new ArrayList<>();
-
-					modelStats.add(new ModelStat.FStat("F", "F"));
-					modelStats.add(new ModelStat("r2", null, "R²"));
-					modelStats.add(new ModelStat("r2_a", null, "R² (adj.)"));
-
-					double[][] dof = StataUtils.getMatrix("e(dof_table)");
-					String[] dofRows = Matrix.getMatrixRowNames("e(dof_table)");
-					for (int row = 0; row < dof.length; row++) {
-						Variable dofVar = new Variable(dofRows[row].replace("1.", ""));
-						modelStats.add(new ModelStat(dofVar.getLabel(), String.format("N (%s)", dofVar.getLabel()),
-								dof[row][0], null, 0));
-					}
+					if (Objects.isNull(modelStats)) {
+						List<ModelStat> stats = new ArrayList<>();
 
-					modelStats.add(new ModelStat("N", null, "N", 0));
+						stats.add(new ModelStat.FStat("F", "F"));
+						stats.add(new ModelStat("r2", null, "R²"));
+						stats.add(new ModelStat("r2_a", null, "R² (adj.)"));
+						stats.addAll(dofStats(results.getMatrix("e(dof_table)")));
+						stats.add(new ModelStat("N", null, "N", 0));
 
+						modelStats = List.copyOf(stats);
+					}
 					return modelStats;
 				}
 
@@ -111,14 +111,19 @@ public class Models {
 					if (Objects.isNull(eqStats)) {
 						eqStats = new HashMap<>(getEquations().size());
 						for (int i = 1; i <= getEquations().size(); i++) {
-							double sumrdv = Scalar.getValue(String.format("sumrdv%d", i), Scalar.TYPE_ERETURN);
-							double sumadv = Scalar.getValue(String.format("sumadv%d", i), Scalar.TYPE_ERETURN);
-							double r2_p = 1 - (sumadv / sumrdv);
+							String sumrdv = String.format("sumrdv%d", i);
+							String sumadv = String.format("sumadv%d", i);
 							eqStats.computeIfAbsent(getEquations().get(i - 1), k -> new ArrayList<>())
 									.add(new ModelStat("r2_p", null, "Pseudo R²") {
 
-										protected void getValues() {
-											val = r2_p;
+										@Override
+										public Collection<String> getScalars() {
+											return List.of(sumrdv, sumadv);
+										}
+
+										@Override
+										protected void getValues(StataResults results) {
+											val = 1 - (results.getScalar(sumadv) / results.getScalar(sumrdv));
 										};
 
 									});
@@ -143,7 +148,12 @@ public class Models {
 						private Double se;
 
 						@Override
-						protected void getValues() {
+						public Collection<String> getScalars() {
+							return List.of();
+						}
+
+						@Override
+						protected void getValues(StataResults results) {
 							// the last value in the regression is lambda
 							val = resultsTable[0][termNames.size() - 1];
 							val = Data.isValueMissing(val) ? null : val;
@@ -158,7 +168,7 @@ public class Models {
 						@Override
 						public String toString() {
 							return getVal() + getSigStars()
-									+ (Objects.nonNull(se) ? (" (" + StataUtils.correctRounding(se, defScale) + ")")
+									+ (Objects.nonNull(se) ? (" (" + DecimalFormatter.format(se, defScale) + ")")
 											: "");
 						}
 
@@ -192,6 +202,39 @@ public class Models {
 		}
 	}
 
+	// PRIVATE ------------------------------------------------------ //
+
+	/**
+	 * The categories per absorbed fixed effect, as reported by {@code reghdfe}
+	 * in {@code e(dof_table)}; none if it isn't there. The statistics are named
+	 * by their variables (e.g. {@code stats(N firm)}) and only labelled once
+	 * resolved, so unselected ones don't look up variables.
+	 */
+	private static List<ModelStat> dofStats(StataResults.ResultMatrix dof) {
+		if (Objects.isNull(dof))
+			return List.of();
+
+		List<ModelStat> stats = new ArrayList<>(dof.getRowNames().length);
+		for (int row = 0; row < dof.getRowNames().length; row++) {
+			double categories = dof.getValues()[row][0];
+			stats.add(new ModelStat(dof.getRowNames()[row].replace("1.", ""), null, null, 0) {
+
+				@Override
+				public Collection<String> getScalars() {
+					return List.of();
+				}
+
+				@Override
+				protected void getValues(StataResults results) {
+					val = categories;
+					label = String.format("N (%s)", new Variable(local).getLabel());
+				}
+
+			});
+		}
+		return stats;
+	}
+
 	// INNER CLASSES ------------------------------------------------ //
 
 	protected static class Qrprocess implements ModelResult {
@@ -215,50 +258,48 @@ public class Models {
 		// CONSTRUCTOR ---------------------------------------------- //
 
 		public Qrprocess() {
-			this.dv = new Variable(Macro.getGlobal("depvar", Macro.TYPE_ERETURN));
-			this.termNames = Arrays.asList(Matrix.getMatrixRowNames("e(coefmat)"));
-			this.equations = Arrays.asList(Matrix.getMatrixColNames("e(coefmat)"));
-			this.equationLabels = Arrays.stream(StataUtils.getMatrix("e(quantiles)"))
+			StataResults results = StataResults.fetch(new StataResults.Request().macros("depvar").scalars("df_r")
+					.matrices("e(coefmat)", "e(quantiles)", "e(V)", "e(sum_mdev)", "e(sum_rdev)"));
+
+			this.dv = new Variable(results.getMacro("depvar"));
+			this.termNames = Arrays.asList(results.getMatrix("e(coefmat)").getRowNames());
+			this.equations = Arrays.asList(results.getMatrix("e(coefmat)").getColNames());
+			this.equationLabels = Arrays.stream(results.getMatrix("e(quantiles)").getValues())
 					.<String>map(row -> String.format("Q=%s", row[0])).collect(Collectors.toList());
-			this.coefs = StataUtils.getMatrix("e(coefmat)");
-			this.V = StataUtils.getMatrix("e(V)");
-			this.t = new TDistribution(Scalar.getValue("df_r", Scalar.TYPE_ERETURN));
+			this.coefs = results.getMatrix("e(coefmat)").getValues();
+			this.V = results.getMatrix("e(V)").getValues();
+			this.t = new TDistribution(results.getScalar("df_r"));
 
+			TermTable.Names names = new TermTable.Names();
 			for (int i = 0; i < equations.size(); i++) {
 				String eqLabel = equationLabels.get(i);
-				List<Term> terms = new ArrayList<>();
+				TermTable.Builder terms = new TermTable.Builder(names);
 				for (int j = 0; j < termNames.size(); j++) {
 					String termName = termNames.get(j);
 
 					if (coefs[j][i] == 0 && V[j + termNames.size() * i][j + termNames.size() * i] == 0) {
 						// could not be estimated
-						terms.add(new Term(j, termName, null, null, null));
+						terms.add(j, termName, Double.NaN, Double.NaN, Double.NaN);
 					} else {
-						terms.add(new Term(j, termName, coefs[j][i],
+						terms.add(j, termName, coefs[j][i],
 								Math.sqrt(V[j + termNames.size() * i][j + termNames.size() * i]),
 								// there's no upper tail t distribution in Java. Instead, subtract from 1.
 								2 * (1 - t.cumulativeProbability(Math.abs(coefs[j][i]
-										/ Math.sqrt(V[j + termNames.size() * i][j + termNames.size() * i]))))));
+										/ Math.sqrt(V[j + termNames.size() * i][j + termNames.size() * i])))));
 					}
 				}
-				termsMap.put(eqLabel, terms);
+				termsMap.put(eqLabel, terms.build().asList());
 			}
 
 			modelStats = List.of(new ModelStat("N", null, "N", 0));
 
 			equationStats = new HashMap<>(equations.size());
-			double[][] sumadv = StataUtils.getMatrix("e(sum_mdev)");
-			double[][] sumrdv = StataUtils.getMatrix("e(sum_rdev)");
+			double[][] sumadv = results.getMatrix("e(sum_mdev)").getValues();
+			double[][] sumrdv = results.getMatrix("e(sum_rdev)").getValues();
 			for (int i = 0; i < equations.size(); i++) {
 				double r2_p = 1 - (sumadv[0][i] / sumrdv[0][i]);
 				equationStats.computeIfAbsent(equationLabels.get(i), k -> new ArrayList<>())
-						.add(new ModelStat("r2_p", null, "Pseudo R²") {
-
-							protected void getValues() {
-								val = r2_p;
-							};
-
-						});
+						.add(new ModelStat("r2_p", "Pseudo R²", r2_p, null));
 			}
 		}
 
@@ -315,16 +356,20 @@ public class Models {
 		// CONSTRUCTOR ---------------------------------------------- //
 
 		protected Ivreghdfe() {
-			this.dv = new Variable(Macro.getGlobal("depvar", Macro.TYPE_ERETURN));
-			this.eqs = new ArrayList<>(Arrays.asList(Macro.getGlobal("instd", Macro.TYPE_ERETURN).split(" ")));
+			StataResults results = StataResults.fetch(new StataResults.Request().macros("depvar", "instd")
+					.scalars("df_r", "N", "F", "Fp", "r2", "r2_a")
+					.matrices("e(b)", "e(V)", "e(dof_table)", "e(first)"));
+
+			this.dv = new Variable(results.getMacro("depvar"));
+			this.eqs = new ArrayList<>(Arrays.asList(results.getMacro("instd").split(" ")));
 			this.eqs.add(getDv().getName());
 
 			// 2nd stage
 
-			stage2();
+			stage2(results);
 
 			for (String eq : eqs.stream().filter(eq -> !eq.equals(getDv().getName())).toList()) {
-				stage1Stats(eq);
+				stage1Stats(results.getMatrix("e(first)"), eq);
 			}
 
 			for (String eq : eqs.stream().filter(eq -> !eq.equals(getDv().getName())).toList()) {
@@ -334,45 +379,37 @@ public class Models {
 
 		// PRIVATE -------------------------------------------------- //
 
-		private void stage2() {
+		/**
+		 * The stage 2 statistics are resolved here, from {@code results}: the
+		 * first stages are restored afterwards and replace e().
+		 */
+		private void stage2(StataResults results) {
 			// coefs
 
-			double[] b = StataUtils.getMatrix("e(b)")[0];
-			double[][] V = StataUtils.getMatrix("e(V)");
-			String[] cols = Matrix.getMatrixColNames("e(b)");
-			TDistribution t = new TDistribution(Scalar.getValue("df_r", Scalar.TYPE_ERETURN));
-			List<Term> terms = new ArrayList<>(cols.length);
-			for (int col = 0; col < cols.length; col++) {
-				terms.add(new Term(col, cols[col], b[col], Math.sqrt(V[col][col]),
-						// there's no upper tail t distribution in Java; instead, subtract from 1.
-						2 * (1 - t.cumulativeProbability(Math.abs(b[col] / Math.sqrt(V[col][col]))))));
-			}
-			eqTerms.put(getDv().getName(), terms);
+			eqTerms.put(getDv().getName(), terms(results));
 
 			// model stats
 
-			double[][] dof = StataUtils.getMatrix("e(dof_table)");
-			String[] dofRows = Matrix.getMatrixRowNames("e(dof_table)");
-			for (int row = 0; row < dof.length; row++) {
-				Variable dofVar = new Variable(dofRows[row].replace("1.", ""));
-				modelStats.add(new ModelStat(dofVar.getLabel(), String.format("N (%s)", dofVar.getLabel()), dof[row][0],
-						null, 0));
-			}
+			modelStats.addAll(dofStats(results.getMatrix("e(dof_table)")));
 
-			modelStats.add(new ModelStat("N", null, "N", 0));
+			ModelStat n = new ModelStat("N", null, "N", 0);
+			n.resolve(results);
+			modelStats.add(n);
 
 			// equation stats
 
 			// TODO probably shouldn't report R2 in 2SLS/IV
 			// https://www.stata.com/support/faqs/statistics/two-stage-least-squares/
-			eqStats.put(getDv().getName(), List.of(new ModelStat("F", "Fp", "F"), new ModelStat("r2", null, "R²"),
-					new ModelStat("r2_a", null, "R² (adj.)")));
+			List<ModelStat> stats = List.of(new ModelStat("F", "Fp", "F"), new ModelStat("r2", null, "R²"),
+					new ModelStat("r2_a", null, "R² (adj.)"));
+			stats.forEach((stat) -> stat.resolve(results));
+			eqStats.put(getDv().getName(), stats);
 		}
 
-		private void stage1Stats(String eq) {
-			double[] eqStat = StataUtils.transposeMatrix(StataUtils.getMatrix("e(first)"))[Arrays
-					.asList(Matrix.getMatrixColNames("e(first)")).indexOf(eq)];
-			List<String> eqStatRows = Arrays.asList(Matrix.getMatrixRowNames("e(first)"));
+		private void stage1Stats(StataResults.ResultMatrix first, String eq) {
+			double[] eqStat = StataUtils.transposeMatrix(first.getValues())[Arrays.asList(first.getColNames())
+					.indexOf(eq)];
+			List<String> eqStatRows = Arrays.asList(first.getRowNames());
 
 			// "simple F and partial R-squared statistics [parameters F and pr2] for each of
 			// the first-stage equations, with no adjustments if there is more than one
@@ -387,17 +424,25 @@ public class Models {
 			// this call removes e(first), so stage 1 stats have to be collected beforehand
 			SFIToolkit.executeCommand(String.format("quietly: estimates restore _ivreg2_%s", eq), false);
 
-			double[] b = StataUtils.getMatrix("e(b)")[0];
-			double[][] V = StataUtils.getMatrix("e(V)");
-			String[] cols = Matrix.getMatrixColNames("e(b)");
-			TDistribution t = new TDistribution(Scalar.getValue("df_r", Scalar.TYPE_ERETURN));
-			List<Term> terms = new ArrayList<>(cols.length);
+			eqTerms.put(eq, terms(StataResults
+					.fetch(new StataResults.Request().scalars("df_r").matrices("e(b)", "e(V)"))));
+		}
+
+		/**
+		 * The terms of {@code e(b)}, with p-values from the t distribution.
+		 */
+		private static List<Term> terms(StataResults results) {
+			double[] b = results.getMatrix("e(b)").getValues()[0];
+			double[][] V = results.getMatrix("e(V)").getValues();
+			String[] cols = results.getMatrix("e(b)").getColNames();
+			TDistribution t = new TDistribution(results.getScalar("df_r"));
+			TermTable.Builder terms = new TermTable.Builder();
 			for (int col = 0; col < cols.length; col++) {
-				terms.add(new Term(col, cols[col], b[col], Math.sqrt(V[col][col]),
+				terms.add(col, cols[col], b[col], Math.sqrt(V[col][col]),
 						// there's no upper tail t distribution in Java; instead, subtract from 1.
-						2 * (1 - t.cumulativeProbability(Math.abs(b[col] / Math.sqrt(V[col][col]))))));
+						2 * (1 - t.cumulativeProbability(Math.abs(b[col] / Math.sqrt(V[col][col])))));
 			}
-			eqTerms.put(eq, terms);
+			return terms.build().asList();
 		}
 
 		// PUBLIC --------------------------------------------------- //
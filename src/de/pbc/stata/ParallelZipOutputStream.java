@@ -0,0 +1,223 @@
+package de.pbc.stata;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+
+/**
+ * <p>
+ * Zip output that deflates entries in parallel: each entry is buffered until
+ * it is closed, then deflated on the common fork-join pool while the next
+ * entries are written to it. Deflated entries are written in the order they
+ * were put, as raw entries, so the archive is the same as a sequential one.
+ * POI saves workbooks through a {@link ZipArchiveOutputStream} it's given, so
+ * sheets, shared strings and styles are compressed at once.
+ * </p>
+ * <p>
+ * Memory is bounded: an entry that grows beyond {@link #MAX_ENTRY} is written
+ * through, deflated on the writing thread, and closing an entry waits for the
+ * oldest ones while more than {@link #MAX_PENDING} bytes are buffered.
+ * </p>
+ */
+final class ParallelZipOutputStream extends ZipArchiveOutputStream {
+
+	// CONSTANTS ---------------------------------------------------- //
+
+	private static final int MAX_ENTRY = 16 << 20;
+
+	private static final long MAX_PENDING = 64 << 20;
+
+	/** Entries smaller than this aren't worth a task. */
+	private static final int MIN_PARALLEL = 32 << 10;
+
+	// VARIABLES ---------------------------------------------------- //
+
+	private final int level;
+
+	private final Deque<Pending> pending = new ArrayDeque<>();
+
+	private long pendingBytes;
+
+	private ZipArchiveEntry entry;
+
+	private Buffer buffer;
+
+	/** Whether the current entry is written through. */
+	private boolean direct;
+
+	// CONSTRUCTOR -------------------------------------------------- //
+
+	/**
+	 * @param level
+	 *            the compression level, 0 (none) to 9 (best), or
+	 *            {@link Deflater#DEFAULT_COMPRESSION}
+	 */
+	ParallelZipOutputStream(OutputStream out, int level) {
+		super(out);
+		this.level = level;
+		setLevel(level);
+	}
+
+	// PUBLIC ------------------------------------------------------- //
+
+	@Override
+	public void putArchiveEntry(ArchiveEntry archiveEntry) throws IOException {
+		entry = (ZipArchiveEntry) archiveEntry;
+		buffer = new Buffer();
+		direct = false;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (direct) {
+			super.write(b, off, len);
+		} else if (buffer.size() + len <= MAX_ENTRY) {
+			buffer.write(b, off, len);
+		} else {
+			// the entries before it have to be written first
+			drain(-1);
+			entry.setMethod(ZipEntry.DEFLATED);
+			super.putArchiveEntry(entry);
+			super.write(buffer.array(), 0, buffer.size());
+			super.write(b, off, len);
+			buffer = null;
+			direct = true;
+		}
+	}
+
+	@Override
+	public void closeArchiveEntry() throws IOException {
+		if (direct) {
+			super.closeArchiveEntry();
+		} else {
+			Buffer b = buffer;
+			pending.add(new Pending(entry, b.size(), b.size() < MIN_PARALLEL
+					? CompletableFuture.completedFuture(deflate(b, level))
+					: CompletableFuture.supplyAsync(() -> deflate(b, level))));
+			pendingBytes += b.size();
+			drain(MAX_PENDING);
+		}
+		entry = null;
+		buffer = null;
+		direct = false;
+	}
+
+	@Override
+	public void finish() throws IOException {
+		drain(-1);
+		super.finish();
+	}
+
+	// PRIVATE ------------------------------------------------------ //
+
+	/**
+	 * Writes the entries at the head of the queue that are deflated, and waits
+	 * for more until at most {@code limit} bytes are pending (-1 for all).
+	 */
+	private void drain(long limit) throws IOException {
+		while (!pending.isEmpty() && (pending.peek().deflated.isDone() || pendingBytes > limit)) {
+			Pending p = pending.poll();
+			pendingBytes -= p.size;
+
+			Deflated d;
+			try {
+				d = p.deflated.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			} catch (ExecutionException e) {
+				throw new IOException(e.getCause());
+			}
+
+			ZipArchiveEntry raw = new ZipArchiveEntry(p.entry.getName());
+			if (p.entry.getTime() != -1)
+				raw.setTime(p.entry.getTime());
+			raw.setMethod(ZipEntry.DEFLATED);
+			raw.setSize(p.size);
+			raw.setCompressedSize(d.length);
+			raw.setCrc(d.crc);
+			addRawArchiveEntry(raw, new ByteArrayInputStream(d.data, 0, d.length));
+		}
+	}
+
+	private static Deflated deflate(Buffer in, int level) {
+		CRC32 crc = new CRC32();
+		crc.update(in.array(), 0, in.size());
+
+		Deflater deflater = new Deflater(level, true);
+		try {
+			deflater.setInput(in.array(), 0, in.size());
+			deflater.finish();
+			byte[] out = new byte[Math.max(64, in.size() / 4)];
+			int n = 0;
+			while (!deflater.finished()) {
+				if (n == out.length)
+					out = Arrays.copyOf(out, out.length * 2);
+				n += deflater.deflate(out, n, out.length - n);
+			}
+			return new Deflated(out, n, crc.getValue());
+		} finally {
+			deflater.end();
+		}
+	}
+
+	// INNER CLASSES ------------------------------------------------ //
+
+	private static final class Buffer extends ByteArrayOutputStream {
+
+		private Buffer() {
+			super(8192);
+		}
+
+		private byte[] array() {
+			return buf;
+		}
+
+	}
+
+	private static final class Pending {
+
+		private final ZipArchiveEntry entry;
+
+		private final int size;
+
+		private final CompletableFuture<Deflated> deflated;
+
+		private Pending(ZipArchiveEntry entry, int size, CompletableFuture<Deflated> deflated) {
+			this.entry = entry;
+			this.size = size;
+			this.deflated = deflated;
+		}
+
+	}
+
+	private static final class Deflated {
+
+		private final byte[] data;
+
+		private final int length;
+
+		private final long crc;
+
+		private Deflated(byte[] data, int length, long crc) {
+			this.data = data;
+			this.length = length;
+			this.crc = crc;
+		}
+
+	}
+
+}
@@ -1,28 +1,38 @@
 package de.pbc.stata;
 
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.zip.Deflater;
 
 import org.apache.poi.openxml4j.util.ZipSecureFile;
-import org.apache.poi.ss.usermodel.CellStyle;
 import org.apache.poi.ss.usermodel.CellType;
 import org.apache.poi.ss.usermodel.HorizontalAlignment;
 import org.apache.poi.ss.usermodel.Name;
 import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.ss.util.CellReference;
 import org.apache.poi.ss.util.WorkbookUtil;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFCell;
 import org.apache.poi.xssf.usermodel.XSSFCellStyle;
 import org.apache.poi.xssf.usermodel.XSSFRow;
@@ -43,52 +53,647 @@ import com.stata.sfi.SFIToolkit;
  * <li>{@code path=}: path of output file (regOut.xlsx default)</li>
  * <li>{@code m/merge}: merge with existing Excel file, if it exist</li>
  * <li>{@code sh/sheet[=]}: new sheet / sheet name
+ * <li>{@code store=}: append the model to an {@link EstimationStore} instead
+ * of writing it to Excel</li>
+ * <li>{@code from=}: write models from an {@link EstimationStore} instead of
+ * the active estimation</li>
+ * <li>{@code shard=}: append the model to this process's shard of a
+ * {@link Shards} set instead of writing it to Excel, for processes that run in
+ * parallel</li>
+ * <li>{@code fromshards=}: write the models of all shards of a {@link Shards}
+ * set, in the order they were appended</li>
+ * <li>{@code models=}: with {@code from=}, the models to write, e.g.
+ * {@code 1-20,35} (all default)</li>
+ * <li>{@code estimates=}: write the stored estimations (see
+ * {@code estimates store}) with these names or patterns instead of the active
+ * estimation, e.g. {@code estimates(wage_* hours_*)}</li>
+ * <li>{@code mi}: with {@code estimates=}, combine the estimations of the
+ * imputed datasets by Rubin's rules and write them as one model (see
+ * {@link MiResult})</li>
+ * <li>{@code split=}: write the models to one file each per {@code dv}
+ * (dependent variable) or {@code prefix} (the part of the estimation name
+ * before the first underscore, with {@code estimates=}), named after
+ * {@code path=} and the key, e.g. {@code regOut_wage.xlsx}; the files are
+ * written in parallel (see {@link FanOut})</li>
+ * <li>{@code threads=}: with {@code split=}, the number of files written at
+ * once (the number of cores, at most 4, default)</li>
+ * <li>{@code stats=}: the statistics to write, as comma-separated names of
+ * e() scalars, e.g. {@code stats=N,r2_a,F} or {@code stats(N r2_a F)} (the
+ * command's default statistics otherwise)</li>
+ * <li>{@code keep=}, {@code drop=}, {@code order=}: terms to keep, drop or
+ * put first, as Stata-style patterns on the coefficient names, e.g.
+ * {@code keep(x* 1.treated#*)} or {@code drop=*.year,o.*}</li>
+ * <li>{@code collapse[=]}: write factor variables as one indicator row
+ * ("Firm FE: Yes") instead of a row per level; those whose stems match the
+ * patterns, e.g. {@code collapse(firm year#industry)}, or, without patterns,
+ * those with more than five levels, so that e.g. {@code i.treated} stays a
+ * row</li>
+ * <li>{@code test=}: add a joint {@link WaldTest} per group of terms, with
+ * the patterns of a group joined by {@code +}, e.g.
+ * {@code test(x1+x2 *.year)}; statistic and p-value go below the
+ * statistics</li>
+ * <li>{@code bootstrap=}: add confidence intervals (as rows below the terms)
+ * and p-values computed from the bootstrap replications of the active
+ * estimation, read from a matrix or a dataset ({@code .dta}) with one column
+ * per coefficient (see {@link BootstrapResult})</li>
+ * <li>{@code bsci=}: with {@code bootstrap=}, {@code percentile} (default),
+ * {@code bc} (bias-corrected) or {@code bca} (bias-corrected and
+ * accelerated, requires {@code e(accel)})</li>
+ * <li>{@code level=}: with {@code bootstrap=}, the confidence level in
+ * percent (95 default)</li>
+ * <li>{@code timing}: display how long each phase of the export took, and
+ * the estimated and peak memory</li>
+ * <li>{@code journal}: add the model to the workbook's {@link Journal}
+ * instead of rewriting the workbook; {@code regout2 materialize} (or exiting
+ * Stata) then writes all journaled models at once</li>
+ * <li>{@code async}: write the workbook in the background and return right
+ * away; {@code regout2 wait} waits for it and reports errors</li>
+ * <li>{@code stream}: write through a {@link StreamingWorkbook}, which is
+ * otherwise only used when the workbook wouldn't fit into memory (see
+ * {@link MemoryGuard})</li>
+ * <li>{@code compression=}: how much workbooks are compressed, from 0 (not
+ * at all) to 9; 1 writes fastest, e.g. for workbooks that are written again
+ * later (6 default)</li>
+ * <li>{@code format=}: {@code xlsx} (default), {@code csv}, {@code tsv} or
+ * {@code txt} (fixed-width text); taken from the extension of {@code path=}
+ * otherwise. {@code merge}, {@code sheet}, {@code journal} and
+ * {@code async} only apply to Excel files (error 198 otherwise).</li>
+ * <li>{@code preview}: display the models as text table</li>
+ * <li>{@code layout=}: {@code text} writes coefficients as
+ * {@code 0.12*** (0.03)} (default); {@code rows} writes coefficient and
+ * standard error as numbers below each other, {@code columns} next to each
+ * other, with significance stars as number formats. {@code merge} only adds
+ * to a sheet written in the same layout (error 198 otherwise).</li>
  * </ul>
  * </p>
  */
 public class RegOut2 {
 
+	// CONSTANTS ----------------------------------------------------- //
+
+	private static final StreamingWorkbook.Style STYLE_TEXT = new StreamingWorkbook.Style("General",
+			HorizontalAlignment.RIGHT);
+
+	private static final StreamingWorkbook.Style STYLE_SE = new StreamingWorkbook.Style("(0.00)",
+			HorizontalAlignment.GENERAL);
+
+	/** The levels a factor variable needs to be collapsed by a bare {@code collapse}. */
+	private static final int COLLAPSE_LEVELS = 6;
+
+	/** Workbooks with a pending {@link Journal}, written on exit. */
+	private static final Set<Path> journals = ConcurrentHashMap.newKeySet();
+
+	/** Whether the hook that writes {@link #journals} on exit is registered. */
+	private static final AtomicBoolean exitHook = new AtomicBoolean();
+
+	/** Locks of the workbooks, so that a journal is only materialized once at a time. */
+	private static final Map<Path, Object> materializing = new ConcurrentHashMap<>();
+
+	/** Numbers the {@code async} exports, see {@link Journal.Entry#getCall()}. */
+	private static final AtomicInteger asyncCalls = new AtomicInteger();
+
 	// VARIABLES ----------------------------------------------------- //
 
 	private String cmd;
 
-	private ModelResult regPar;
-
 	private XSSFWorkbook wb;
 
+	private Timing timing;
+
 	private boolean hideOmitted, hideBase;
 
+	/** Whether running off Stata's thread, see {@link AsyncWriter}. */
+	private boolean background;
+
+	private Table.Layout layout;
+
+	/** The compression level of workbooks, see {@link StreamingWorkbook#write(Workbook, Path, int)}. */
+	private int compression = Deflater.DEFAULT_COMPRESSION;
+
+	private XSSFCellStyle csText, csSe;
+
+	private Map<String, XSSFCellStyle> csCoef;
+
 	// ENTRY POINT --------------------------------------------------- //
 
 	public static int start(String[] args) throws Exception {
 		return new RegOut2().execute(args);
 	}
 
+	public static int materialize(String[] args) throws Exception {
+		return new RegOut2().materializeJournal(args);
+	}
+
+	/**
+	 * Waits for the workbooks that are written in the background ({@code async})
+	 * and reports their errors.
+	 */
+	public static int await(String[] args) throws Exception {
+		List<String> errors = AsyncWriter.get().await();
+		for (String error : errors)
+			SFIToolkit.errorln(error);
+		return errors.isEmpty() ? 0 : 45;
+	}
+
 	// PUBLIC ------------------------------------------------------- //
 
+	@SuppressWarnings("try") // the timing phases are only closed, not used
 	public int execute(String[] args) {
-		if (Macro.getGlobal("cmd", Macro.TYPE_ERETURN) == null)
-			throw new RuntimeException("no estimation stored");
+		List<String> argsList = Arrays.asList(args).stream().map((s) -> s.toLowerCase()).collect(Collectors.toList());
 
-		// otherwise the Excel file sometimes triggers an error: "Zip bomb detected!"
-		ZipSecureFile.setMinInflateRatio(.0001);
+		Path workingDir = Path.of(SFIToolkit.getWorkingDir());
+		Optional<Path> from = argsList.stream().filter((a) -> a.startsWith("from=")).findFirst()
+				.map((a) -> workingDir.resolve(a.substring("from=".length())));
+		Optional<Path> store = argsList.stream().filter((a) -> a.startsWith("store=")).findFirst()
+				.map((a) -> workingDir.resolve(a.substring("store=".length())));
+		Optional<Path> shard = argsList.stream().filter((a) -> a.startsWith("shard=")).findFirst()
+				.map((a) -> workingDir.resolve(a.substring("shard=".length())));
+		Optional<Path> fromShards = argsList.stream().filter((a) -> a.startsWith("fromshards=")).findFirst()
+				.map((a) -> workingDir.resolve(a.substring("fromshards=".length())));
 
-		List<String> argsList = Arrays.asList(args).stream().map((s) -> s.toLowerCase()).collect(Collectors.toList());
+		List<String> estimates = listOption(args, "estimates");
+		String bootstrap = Arrays.stream(args).filter((a) -> a.toLowerCase().startsWith("bootstrap=")).findFirst()
+				.map((a) -> a.substring("bootstrap=".length())).orElse(null);
+		if (Objects.nonNull(bootstrap)
+				&& (from.isPresent() || fromShards.isPresent() || Objects.nonNull(estimates)))
+			throw new IllegalArgumentException("bootstrap= only works with the active estimation");
+		boolean mi = argsList.contains("mi");
+		if (mi && Objects.isNull(estimates))
+			throw new IllegalArgumentException("mi requires estimates=");
+		Optional<FanOut.Rule> split = argsList.stream().filter((a) -> a.startsWith("split=")).findFirst()
+				.map((a) -> FanOut.Rule.valueOf(a.substring("split=".length()).toUpperCase()));
+		int threads = argsList.stream().filter((a) -> a.startsWith("threads=")).findFirst()
+				.map((a) -> Integer.parseInt(a.substring("threads=".length()))).orElse(FanOut.defaultThreads());
+
+		if (from.isEmpty() && fromShards.isEmpty() && Objects.isNull(estimates)
+				&& Macro.getGlobal("cmd", Macro.TYPE_ERETURN) == null)
+			throw new RuntimeException("no estimation stored");
 
 		boolean merge = argsList.contains("m") || argsList.contains("merge");
+		timing = new Timing("regout2", argsList.contains("timing"));
 		hideOmitted = argsList.contains("hideomitted");
 		hideBase = argsList.contains("hidebase");
-		cmd = Macro.getGlobal("cmd", Macro.TYPE_ERETURN);
-		regPar = Models.byCmd(cmd);
+		compression = compression(argsList);
+		layout = argsList.stream().filter((a) -> a.startsWith("layout=")).findFirst()
+				.map((a) -> Table.Layout.valueOf(a.substring("layout=".length()).toUpperCase()))
+				.orElse(Table.Layout.TEXT);
+
+		List<String> stats = listOption(args, "stats"), testGroups = listOption(args, "test");
+		List<String> keep = listOption(args, "keep"), drop = listOption(args, "drop"),
+				order = listOption(args, "order"), collapse = listOption(args, "collapse");
+		int minLevels = 0;
+		if (Objects.isNull(collapse) && argsList.contains("collapse")) {
+			collapse = List.of("*");
+			minLevels = COLLAPSE_LEVELS;
+		}
+		TermFilter filter = hideOmitted || hideBase || Objects.nonNull(keep) || Objects.nonNull(drop)
+				|| Objects.nonNull(order) || Objects.nonNull(collapse)
+						? new TermFilter(hideOmitted, hideBase, keep, drop, order, collapse, minLevels)
+						: TermFilter.NONE;
+
+		List<ModelResult> models;
+		List<String> names = null;
+		try {
+			if (from.isPresent()) {
+				try (EstimationStore es = EstimationStore.open(from.get());
+						Timing.Phase phase = timing.phase("read store")) {
+					models = new ArrayList<>();
+					for (int i : selectModels(argsList, es.size()))
+						models.add(ModelSnapshot.of(es.read(i), stats, filter));
+				}
+			} else if (fromShards.isPresent()) {
+				try (Timing.Phase phase = timing.phase("read shards")) {
+					List<ModelResult> snapshots = new ArrayList<>();
+					new Shards(fromShards.get()).forEach((model) -> snapshots.add(ModelSnapshot.of(model, stats, filter)));
+					models = snapshots;
+				}
+			} else if (Objects.nonNull(estimates)) {
+				try (Timing.Phase phase = timing.phase("read estimates")) {
+					names = estimateNames(estimates);
+					models = readEstimates(names, stats, filter, testGroups, mi);
+				}
+				if (mi) {
+					// one combined model
+					names = List.of(names.get(0));
+				}
+			} else {
+				cmd = Macro.getGlobal("cmd", Macro.TYPE_ERETURN);
+				ModelResult model;
+				try (Timing.Phase phase = timing.phase("adapter")) {
+					model = Models.byCmd(cmd);
+				}
+
+				List<ModelStat> tests = List.of();
+				if (Objects.nonNull(testGroups)) {
+					try (Timing.Phase phase = timing.phase("wald")) {
+						tests = WaldTest.test(testGroups);
+					}
+				}
+
+				if (Objects.nonNull(bootstrap)) {
+					try (Timing.Phase phase = timing.phase("bootstrap")) {
+						model = new BootstrapResult(model, BootstrapResult.Replications.read(bootstrap),
+								bootstrapMethod(argsList), bootstrapLevel(argsList));
+					}
+				}
+
+				if (store.isPresent()) {
+					try (EstimationStore es = EstimationStore.open(store.get());
+							Timing.Phase phase = timing.phase("store")) {
+						int i = es.append(ModelSnapshot.of(model, stats).withModelStats(tests), cmd,
+								Macro.getGlobal("cmdline", Macro.TYPE_ERETURN));
+						SFIToolkit.displayln(String.format("model %d stored in %s", i + 1, store.get()));
+					}
+					timing.report();
+					return 0;
+				}
+
+				if (shard.isPresent()) {
+					try (Timing.Phase phase = timing.phase("shard")) {
+						Path file = new Shards(shard.get()).append(
+								ModelSnapshot.of(model, stats).withModelStats(tests), cmd,
+								Macro.getGlobal("cmdline", Macro.TYPE_ERETURN));
+						SFIToolkit.displayln(String.format("model stored in %s", file));
+					}
+					timing.report();
+					return 0;
+				}
+
+				// only the terms that are written are labelled
+				try (Timing.Phase phase = timing.phase("snapshot")) {
+					models = List.of(ModelSnapshot.of(model, stats, filter).withModelStats(tests));
+				}
+			}
+		} catch (Exception e) {
+			SFIToolkit.error(SFIToolkit.stackTraceToString(e));
+			return 45;
+		}
 
 		Path path = Path.of(SFIToolkit.getWorkingDir()).resolve(argsList.stream().filter((a) -> a.startsWith("path="))
 				.findFirst().map((a) -> Paths.get(a.substring("path=".length()))).orElse(Paths.get("regOut.xlsx")));
 
-		String sheet = argsList.stream().filter(a -> a.startsWith("sheet") || a.startsWith("sh")).findFirst()
+		String sheet = argsList.stream()
+				.filter(a -> a.equals("sh") || a.equals("sheet") || a.startsWith("sh=") || a.startsWith("sheet="))
+				.findFirst()
 				.map(s -> s.substring(s.indexOf("=") + 1)).orElse(null);
 
-		try (XSSFWorkbook wb = merge && Files.exists(path) ? new XSSFWorkbook(Files.newInputStream(path))
-				: new XSSFWorkbook()) {
+		String format = argsList.stream().filter((a) -> a.startsWith("format=")).findFirst()
+				.map((a) -> a.substring("format=".length())).orElse(null);
+		if (!(Objects.isNull(format) ? extension(path) : format).equals("xlsx") && (merge || Objects.nonNull(sheet)
+				|| argsList.contains("journal") || argsList.contains("async"))) {
+			SFIToolkit.errorln("options merge, sheet, journal and async are only allowed with xlsx");
+			return 198;
+		}
+
+		try {
+			if (split.isPresent()) {
+				FanOut fanOut = new FanOut(split.get(), threads);
+				Map<Path, List<ModelResult>> files = fanOut.route(path, models, names);
+				boolean stream = argsList.contains("stream");
+
+				for (Path file : files.keySet()) {
+					AsyncWriter.awaitPending(file);
+					String mismatch = layoutMismatch(file, merge, sheet);
+					if (Objects.nonNull(mismatch)) {
+						SFIToolkit.errorln(mismatch);
+						return 198;
+					}
+				}
+
+				List<String> errors;
+				try (Timing.Phase phase = timing.phase("fan-out")) {
+					errors = fanOut.write(files, (p, m) -> {
+						RegOut2 regOut = new RegOut2();
+						regOut.timing = new Timing("regout2", false);
+						regOut.background = true;
+						regOut.hideOmitted = hideOmitted;
+						regOut.hideBase = hideBase;
+						regOut.layout = layout;
+						regOut.compression = compression;
+						regOut.writeFile(p, m, merge, sheet, format, stream);
+					});
+					phase.cells(models.size());
+				}
+				timing.report();
+
+				for (Path file : files.keySet())
+					SFIToolkit.display("{browse \"" + file + "\":Open " + file + "}" + "\n");
+				for (String error : errors)
+					SFIToolkit.errorln(error);
+				return errors.isEmpty() ? 0 : 45;
+			}
+
+			// format in parallel, write in order
+			List<ModelColumn> columns;
+			try (Timing.Phase phase = timing.phase("render")) {
+				columns = new ColumnRenderer(hideOmitted, hideBase, layout != Table.Layout.TEXT).render(models);
+				phase.cells(columns.stream().mapToInt(ModelColumn::getCellCount).sum());
+			}
+
+			if (argsList.contains("preview")) {
+				Table table = Table.of(columns, layout);
+				SFIToolkit.display("{txt}" + smcl(new TextRenderer().render(table)));
+			}
+
+			TableRenderer renderer = TableRenderer.forFormat(Objects.nonNull(format) ? format : extension(path));
+			if (Objects.nonNull(renderer)) {
+				AsyncWriter.awaitPending(path);
+				try (Timing.Phase phase = timing.phase("write")) {
+					renderer.render(Table.of(columns, layout), path);
+				}
+				timing.report();
+				SFIToolkit.display("{browse \"" + path + "\":Open " + path + "}" + "\n");
+				Macro.setGlobal("filename", "path=" + path.toString());
+				return 0;
+			}
+
+			String mismatch = layoutMismatch(path, merge, sheet);
+			if (Objects.nonNull(mismatch)) {
+				SFIToolkit.errorln(mismatch);
+				return 198;
+			}
+
+			if (argsList.contains("journal")) {
+				Journal journal = new Journal(path);
+				try (Timing.Phase phase = timing.phase("journal")) {
+					journal.append(sheet, merge, layout.name(), columns);
+				}
+				materializeOnExit(path);
+				timing.report();
+				SFIToolkit.displayln(String.format("model added to %s; {cmd:regout2 materialize} writes %s",
+						journal.getFile(), path));
+				return 0;
+			}
+
+			if (argsList.contains("async")) {
+				int call = asyncCalls.getAndIncrement();
+				List<Journal.Entry> entries = new ArrayList<>();
+				for (ModelColumn column : columns)
+					entries.add(new Journal.Entry(call, sheet, merge || !entries.isEmpty(), layout.name(), column));
+
+				boolean stream = argsList.contains("stream");
+				int level = compression;
+				AsyncWriter.get().submit(path, entries, (p, e) -> writeInBackground(p, e, stream, level));
+				timing.report();
+				SFIToolkit.displayln(String.format("writing %s in the background; {cmd:regout2 wait} waits for it", path));
+				Macro.setGlobal("filename", "path=" + path.toString());
+				return 0;
+			}
+
+			AsyncWriter.awaitPending(path);
+			MemoryGuard guard = write(path, merge, sheet, columns, argsList.contains("stream"));
+
+			timing.report();
+			guard.report();
+
+			SFIToolkit.display("{browse \"" + path + "\":Open " + path + "}" + "\n");
+			Macro.setGlobal("filename", "path=" + path.toString());
+
+			return 0;
+		} catch (Exception e) {
+			SFIToolkit.error(SFIToolkit.stackTraceToString(e));
+			return 45;
+		}
+	}
+
+	/**
+	 * Writes the columns of the journal of the workbook {@code path=} to it (see
+	 * {@link Journal}), then deletes the journal. Takes the options
+	 * {@code path=}, {@code timing}, {@code stream} and {@code compression=}.
+	 */
+	public int materializeJournal(String[] args) {
+		List<String> argsList = Arrays.asList(args).stream().map((s) -> s.toLowerCase()).collect(Collectors.toList());
+		timing = new Timing("regout2", argsList.contains("timing"));
+		compression = compression(argsList);
+
+		Path path = Path.of(SFIToolkit.getWorkingDir()).resolve(argsList.stream().filter((a) -> a.startsWith("path="))
+				.findFirst().map((a) -> Paths.get(a.substring("path=".length()))).orElse(Paths.get("regOut.xlsx")));
+
+		try {
+			int n = materialize(path, argsList.contains("stream"));
+			timing.report();
+
+			if (n == 0) {
+				SFIToolkit.displayln(String.format("no models in %s", new Journal(path).getFile()));
+			} else {
+				SFIToolkit.display("{browse \"" + path + "\":Open " + path + "}" + "\n");
+				Macro.setGlobal("filename", "path=" + path.toString());
+			}
+			return 0;
+		} catch (IllegalArgumentException e) {
+			// a journaled column in another layout than the sheet's
+			SFIToolkit.errorln(e.getMessage());
+			return 198;
+		} catch (Exception e) {
+			SFIToolkit.error(SFIToolkit.stackTraceToString(e));
+			return 45;
+		}
+	}
+
+	/**
+	 * Writes columns (as from a {@link Journal}) to {@code path} without
+	 * calling into SFI, so on any thread.
+	 */
+	static void writeInBackground(Path path, List<Journal.Entry> entries, boolean stream, int compression)
+			throws IOException {
+		RegOut2 regOut = new RegOut2();
+		regOut.timing = new Timing("regout2", false);
+		regOut.background = true;
+		regOut.compression = compression;
+		regOut.write(path, entries, stream);
+	}
+
+	// PRIVATE ------------------------------------------------------ //
+
+	/**
+	 * The names of the stored estimations (see {@code estimates store})
+	 * matching {@code patterns}, in the order of the patterns.
+	 */
+	private List<String> estimateNames(List<String> patterns) {
+		if (patterns.stream().noneMatch((p) -> p.contains("*") || p.contains("?")))
+			return patterns;
+
+		SFIToolkit.executeCommand("quietly: estimates dir", false);
+		String dir = Macro.getGlobal("names", Macro.TYPE_RRETURN);
+		List<String> all = Objects.isNull(dir) ? List.of() : Arrays.asList(dir.trim().split("\\s+"));
+
+		Set<String> names = new LinkedHashSet<>();
+		for (String pattern : patterns) {
+			Pattern p = TermFilter.compile(List.of(pattern));
+			all.stream().filter((n) -> p.matcher(n).matches()).forEach(names::add);
+		}
+		return new ArrayList<>(names);
+	}
+
+	private static BootstrapResult.Method bootstrapMethod(List<String> argsList) {
+		return argsList.stream().filter((a) -> a.startsWith("bsci=")).findFirst()
+				.map((a) -> BootstrapResult.Method.valueOf(a.substring("bsci=".length()).toUpperCase()))
+				.orElse(BootstrapResult.Method.PERCENTILE);
+	}
+
+	private static double bootstrapLevel(List<String> argsList) {
+		double level = argsList.stream().filter((a) -> a.startsWith("level=")).findFirst()
+				.map((a) -> Double.parseDouble(a.substring("level=".length()))).orElse(95d);
+		if (level <= 0 || level >= 100)
+			throw new IllegalArgumentException("level= takes a confidence level between 0 and 100");
+		return level;
+	}
+
+	/**
+	 * Restores each of the estimations {@code names} and takes a snapshot of
+	 * it, or, if {@code mi} is set, combines them into one {@link MiResult}.
+	 * The active estimation is held meanwhile and restored afterwards.
+	 */
+	private List<ModelResult> readEstimates(List<String> names, List<String> stats, TermFilter filter,
+			List<String> testGroups, boolean mi) {
+		if (mi && Objects.nonNull(testGroups))
+			throw new IllegalArgumentException("test= can't be combined with mi");
+
+		List<ModelResult> models = new ArrayList<>(names.size());
+		List<MiResult.Imputation> imputations = new ArrayList<>(names.size());
+		SFIToolkit.executeCommand("_estimates hold _regout2_active, copy nullok", false);
+		try {
+			for (String name : names) {
+				if (SFIToolkit.executeCommand("quietly: estimates restore " + name, false) != 0)
+					throw new IllegalArgumentException(String.format("estimation %s not found", name));
+
+				if (mi) {
+					imputations.add(MiResult.Imputation.read());
+					continue;
+				}
+				ModelResult model = Models.byCmd(Macro.getGlobal("cmd", Macro.TYPE_ERETURN));
+				List<ModelStat> tests = Objects.isNull(testGroups) ? List.of() : WaldTest.test(testGroups);
+				models.add(ModelSnapshot.of(model, stats, filter).withModelStats(tests));
+			}
+
+			// statistics that aren't combined are those of the last imputation
+			if (mi)
+				models.add(ModelSnapshot.of(new MiResult(imputations), stats, filter));
+		} finally {
+			SFIToolkit.executeCommand("_estimates unhold _regout2_active", false);
+		}
+		return models;
+	}
+
+	/**
+	 * Renders {@code models} and writes them to {@code path}, as
+	 * {@code format} ({@code null} to take it from the extension). Doesn't
+	 * call into SFI if {@link #background} is set.
+	 */
+	private void writeFile(Path path, List<ModelResult> models, boolean merge, String sheet, String format,
+			boolean stream) throws IOException {
+		List<ModelColumn> columns = new ColumnRenderer(hideOmitted, hideBase, layout != Table.Layout.TEXT)
+				.render(models);
+		TableRenderer renderer = TableRenderer.forFormat(Objects.nonNull(format) ? format : extension(path));
+		if (Objects.nonNull(renderer))
+			renderer.render(Table.of(columns, layout), path);
+		else
+			write(path, merge, sheet, columns, stream);
+	}
+
+	/**
+	 * @return the number of journaled columns
+	 */
+	@SuppressWarnings("try") // the timing phases are only closed, not used
+	private int materialize(Path path, boolean stream) throws IOException, InterruptedException {
+		AsyncWriter.awaitPending(path);
+
+		synchronized (materializing.computeIfAbsent(path, (p) -> new Object())) {
+			Journal journal = new Journal(path);
+			List<Journal.Entry> entries;
+			try (Timing.Phase phase = timing.phase("read journal")) {
+				entries = journal.read();
+			}
+
+			write(path, entries, stream);
+
+			journal.delete();
+			journals.remove(path);
+			return entries.size();
+		}
+	}
+
+	/**
+	 * Writes journaled (or queued) columns. A column written without merge
+	 * replaces everything before it; each call that asks for a new sheet gets
+	 * its own.
+	 */
+	private void write(Path path, List<Journal.Entry> entries, boolean stream) throws IOException {
+		int first = 0;
+		for (int i = 0; i < entries.size(); i++) {
+			if (!entries.get(i).isMerge())
+				first = i;
+		}
+
+		// one workbook write per run of columns with the same sheet and layout
+		for (int i = first; i < entries.size();) {
+			Journal.Entry entry = entries.get(i);
+			boolean newSheet = Objects.nonNull(entry.getSheet())
+					&& (entry.getSheet().equals("sh") || entry.getSheet().equals("sheet"));
+			List<ModelColumn> columns = new ArrayList<>();
+			int j = i;
+			for (; j < entries.size() && Objects.equals(entries.get(j).getSheet(), entry.getSheet())
+					&& entries.get(j).getLayout().equals(entry.getLayout())
+					&& (!newSheet || entries.get(j).getCall() == entry.getCall()); j++)
+				columns.add(entries.get(j).getColumn());
+
+			layout = Table.Layout.valueOf(entry.getLayout());
+			wb = null;
+			csText = null;
+			write(path, i > first || entry.isMerge(), entry.getSheet(), columns, stream).report();
+			i = j;
+		}
+	}
+
+	/**
+	 * Journals that are still pending when Stata exits are written then.
+	 */
+	private static void materializeOnExit(Path path) {
+		journals.add(path);
+		if (exitHook.compareAndSet(false, true)) {
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				for (Path p : journals) {
+					try {
+						RegOut2 regOut = new RegOut2();
+						regOut.timing = new Timing("regout2", false);
+						regOut.background = true;
+						regOut.materialize(p, false);
+					} catch (Throwable e) {
+						// Stata is gone; the journal stays for the next materialize
+					}
+				}
+			}, "regout2-materialize"));
+		}
+	}
+
+	/**
+	 * Writes the columns to the workbook, in memory or, if it doesn't fit, in
+	 * streaming mode (see {@link MemoryGuard}).
+	 */
+	private MemoryGuard write(Path path, boolean merge, String sheet, List<ModelColumn> columns, boolean stream)
+			throws IOException {
+		// otherwise the Excel file sometimes triggers an error: "Zip bomb detected!"
+		ZipSecureFile.setMinInflateRatio(.0001);
+
+		MemoryGuard guard = new MemoryGuard("regout2", timing.isDisplayed(), background);
+		long cells = columns.stream().mapToLong((c) -> c.getCellCount() * (layout == Table.Layout.TEXT ? 2L : 3L)).sum();
+		if (!guard.check(merge ? path : null, cells, stream)) {
+			try {
+				writeWorkbook(path, merge, sheet, columns);
+			} catch (OutOfMemoryError e) {
+				wb = null;
+				csText = null;
+				guard.fallBack();
+			}
+		}
+		if (guard.isStreaming())
+			writeStreaming(path, merge, sheet, columns);
+		return guard;
+	}
+
+	@SuppressWarnings("try") // the timing phases are only closed, not used
+	private void writeWorkbook(Path path, boolean merge, String sheet, List<ModelColumn> columns) throws IOException {
+		try (XSSFWorkbook wb = openWorkbook(path, merge)) {
 			this.wb = wb;
 
 			wb.setMissingCellPolicy(Row.MissingCellPolicy.CREATE_NULL_AS_BLANK);
@@ -97,7 +702,7 @@ public class RegOut2 {
 			if (Objects.isNull(sheet)) {
 				sh = Optional.ofNullable(wb.getSheet("Sheet0")).orElseGet(() -> wb.createSheet());
 			} else if (sheet.equals("sh") || sheet.equals("sheet")) {
-				sh = wb.createSheet(iterateSheetName("Sheet", 1));
+				sh = wb.createSheet(iterateSheetName(wb, "Sheet", 1));
 			} else {
 				sh = Optional.ofNullable(wb.getSheet(WorkbookUtil.createSafeSheetName(sheet)))
 						.orElseGet(() -> wb.createSheet(WorkbookUtil.createSafeSheetName(sheet)));
@@ -105,39 +710,216 @@ public class RegOut2 {
 			wb.setActiveSheet(wb.getSheetIndex(sh));
 			wb.setSelectedTab(wb.getSheetIndex(sh));
 
-			if (regPar.hasMultipleEquations()) {
-				for (String eq : regPar.getEquations()) {
-					addModel(sh, regPar.getTerms(eq), String.format("%s (%s)", regPar.getDv(), eq), eq);
+			List<Integer> cols = new ArrayList<>(columns.size());
+			try (Timing.Phase phase = timing.phase("fill")) {
+				for (ModelColumn column : columns) {
+					int col = addModel(sh, column);
+					if (col > 0) {
+						cols.add(col);
+						phase.cells(column.getCellCount());
+					}
 				}
+			}
+
+			// widths only depend on the final content, so each column is sized once
+			try (Timing.Phase phase = timing.phase("autosize")) {
+				sh.autoSizeColumn(0);
+				for (int col : cols) {
+					sh.autoSizeColumn(col);
+					if (layout == Table.Layout.COLUMNS)
+						sh.autoSizeColumn(col + 1);
+				}
+				phase.cells(sh.getLastRowNum() + 1);
+			}
+
+			try (Timing.Phase phase = timing.phase("write")) {
+				StreamingWorkbook.write(wb, path, compression);
+			}
+		}
+	}
+
+	/**
+	 * Same as {@link #writeWorkbook(Path, boolean, String, List)}, but copies
+	 * the workbook through a {@link StreamingWorkbook} and fills the sheet as
+	 * {@link StreamingWorkbook.Grid}.
+	 */
+	@SuppressWarnings("try") // the timing phases are only closed, not used
+	private void writeStreaming(Path path, boolean merge, String sheet, List<ModelColumn> columns)
+			throws IOException {
+		try (StreamingWorkbook swb = new StreamingWorkbook()) {
+			boolean newSheet = Objects.nonNull(sheet) && (sheet.equals("sh") || sheet.equals("sheet"));
+			String target = Objects.isNull(sheet) ? "Sheet0" : newSheet ? null : WorkbookUtil.createSafeSheetName(sheet);
+
+			StreamingWorkbook.Grid grid = null;
+			try (Timing.Phase phase = timing.phase("open")) {
+				if (merge && Files.exists(path))
+					grid = swb.copy(path, target);
+			}
+
+			SXSSFWorkbook wb = swb.getWorkbook();
+			SXSSFSheet sh;
+			if (Objects.nonNull(grid)) {
+				sh = wb.getSheet(target);
+			} else if (Objects.isNull(sheet)) {
+				sh = wb.createSheet();
+			} else if (newSheet) {
+				sh = wb.createSheet(iterateSheetName(wb, "Sheet", 1));
 			} else {
-				addModel(sh, regPar.getTerms(), regPar.getDv().getLabel(), null);
+				sh = wb.createSheet(target);
 			}
+			wb.setActiveSheet(wb.getSheetIndex(sh));
+			wb.setSelectedTab(wb.getSheetIndex(sh));
+			if (Objects.isNull(grid))
+				grid = new StreamingWorkbook.Grid();
 
-			try (FileOutputStream out = new FileOutputStream(path.toFile())) {
-				wb.write(out);
+			try (Timing.Phase phase = timing.phase("fill")) {
+				for (ModelColumn column : columns) {
+					if (addModel(swb, sh.getSheetName(), grid, column) > 0)
+						phase.cells(column.getCellCount());
+				}
 			}
 
-			SFIToolkit.display("{browse \"" + path + "\":Open " + path + "}" + "\n");
-			Macro.setGlobal("filename", "path=" + path.toString());
+			try (Timing.Phase phase = timing.phase("write")) {
+				swb.write(sh, grid);
+				swb.save(path, compression);
+				phase.cells(swb.getCellCount());
+			}
+		}
+	}
 
-			return 0;
-		} catch (Exception e) {
-			SFIToolkit.error(SFIToolkit.stackTraceToString(e));
-			return 45;
+	/**
+	 * Why the models can't be merged into {@code sheet} of the workbook
+	 * {@code path}, see {@link #layoutMismatch(String, boolean, String)};
+	 * {@code null} if they can.
+	 */
+	private String layoutMismatch(Path path, boolean merge, String sheet) throws IOException {
+		if (!merge || !Files.exists(path) || (Objects.nonNull(sheet) && (sheet.equals("sh") || sheet.equals("sheet"))))
+			return null;
+		String sheetName = Objects.isNull(sheet) ? "Sheet0" : WorkbookUtil.createSafeSheetName(sheet);
+		Map<String, String> names = StreamingWorkbook.readNames(path);
+		return layoutMismatch(sheetName, names.containsKey(String.format("%s_lastvar", sheetName.replace('-', '_'))),
+				names.get(String.format("%s_layout", sheetName.replace('-', '_'))));
+	}
+
+	/**
+	 * The terms of a sheet take one row each in layouts {@code text} and
+	 * {@code columns}, but two in {@code rows}; and its models one column
+	 * each in {@code text} and {@code rows}, but two in {@code columns}. So
+	 * models are only merged into a sheet written in the same layout, which is
+	 * kept in the defined name {@code <sheet>_layout} (sheets from before it
+	 * are {@code text}).
+	 *
+	 * @param filled    whether the sheet has models ({@code <sheet>_lastvar})
+	 * @param formula   the formula of {@code <sheet>_layout}, or {@code null}
+	 * @return the error, or {@code null} if {@link #layout} is the sheet's
+	 */
+	private String layoutMismatch(String sheetName, boolean filled, String formula) {
+		if (!filled)
+			return null;
+		Table.Layout sheetLayout = Objects.isNull(formula) ? Table.Layout.TEXT
+				: Table.Layout.valueOf(formula.replace("\"", ""));
+		if (sheetLayout == layout)
+			return null;
+		return String.format("sheet %s was written with layout=%s; merge it with that layout or write to another sheet",
+				sheetName, sheetLayout.name().toLowerCase());
+	}
+
+	@SuppressWarnings("try") // the timing phases are only closed, not used
+	private XSSFWorkbook openWorkbook(Path path, boolean merge) throws IOException {
+		try (Timing.Phase phase = timing.phase("open")) {
+			return merge && Files.exists(path) ? new XSSFWorkbook(Files.newInputStream(path)) : new XSSFWorkbook();
 		}
 	}
 
-	// PRIVATE ------------------------------------------------------ //
+	/**
+	 * The extension of {@code path} if it is one of {@link TableRenderer}'s
+	 * formats, otherwise {@code xlsx}.
+	 */
+	private static String extension(Path path) {
+		String name = path.getFileName().toString().toLowerCase();
+		String ext = name.substring(name.lastIndexOf('.') + 1);
+		return ext.equals("csv") || ext.equals("tsv") || ext.equals("txt") ? ext : "xlsx";
+	}
+
+	/**
+	 * The option {@code compression=}, 0 (none) to 9 (best); Deflater's default
+	 * (6) otherwise.
+	 */
+	private static int compression(List<String> argsList) {
+		Optional<Integer> level = argsList.stream().filter((a) -> a.startsWith("compression=")).findFirst()
+				.map((a) -> Integer.parseInt(a.substring("compression=".length())));
+		if (level.isPresent() && (level.get() < Deflater.NO_COMPRESSION || level.get() > Deflater.BEST_COMPRESSION))
+			throw new IllegalArgumentException("compression= takes a level from 0 to 9");
+		return level.orElse(Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * Escapes braces, which SMCL would take for directives.
+	 */
+	private static String smcl(String text) {
+		StringBuilder sb = new StringBuilder(text.length());
+		for (char c : text.toCharArray()) {
+			if (c == '{')
+				sb.append("{c -(}");
+			else if (c == '}')
+				sb.append("{c )-}");
+			else
+				sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Parses {@code models=1-20,35} (1-based, inclusive) into 0-based model
+	 * numbers. All models if the argument is missing.
+	 */
+	private List<Integer> selectModels(List<String> args, int size) {
+		Optional<String> sel = args.stream().filter((a) -> a.startsWith("models=")).findFirst()
+				.map((a) -> a.substring("models=".length()));
 
-	private String iterateSheetName(String name, int i) {
+		List<Integer> models = new ArrayList<>();
+		if (sel.isEmpty()) {
+			for (int i = 0; i < size; i++)
+				models.add(i);
+		} else {
+			for (String part : sel.get().split(",")) {
+				String[] range = part.trim().split("-");
+				int first = Integer.parseInt(range[0].trim());
+				int last = range.length > 1 ? Integer.parseInt(range[1].trim()) : first;
+				for (int i = first; i <= last; i++)
+					models.add(i - 1);
+			}
+		}
+		return models;
+	}
+
+	/**
+	 * Parses list options such as {@code stats=N,r2_a,F} or
+	 * {@code stats(N r2_a F)}. Takes the raw arguments, as e() and term names
+	 * are case-sensitive. {@code null} if missing.
+	 */
+	static List<String> listOption(String[] args, String name) {
+		Matcher m = Pattern.compile("(?i)(?:^|\\s)" + name + "(?:=(\\S+)|\\(([^)]*)\\))")
+				.matcher(String.join(" ", args));
+		if (!m.find())
+			return null;
+
+		String sel = Objects.nonNull(m.group(1)) ? m.group(1) : m.group(2);
+		return Arrays.stream(sel.split("[,\\s]+")).filter((s) -> !s.isEmpty()).toList();
+	}
+
+	private String iterateSheetName(Workbook wb, String name, int i) {
 		String tmpName = name + i;
 		if (wb.getSheet(tmpName) == null)
 			return tmpName;
 		else
-			return iterateSheetName(name, i + 1);
+			return iterateSheetName(wb, name, i + 1);
 	}
 
-	private void addModel(XSSFSheet sh, List<Term> terms, String modelTitle, String eq) {
+	/**
+	 * @return the column the model was written to, or -1 if the sheet is full
+	 */
+	private int addModel(XSSFSheet sh, ModelColumn column) {
 		XSSFRow r = Optional.ofNullable(sh.getRow(0)).orElseGet(() -> sh.createRow(0));
 
 		XSSFCell c = r.getCell(0);
@@ -147,6 +929,8 @@ public class RegOut2 {
 		Map<String, Integer> rows = new HashMap<>();
 		for (int row = 1; row <= sh.getLastRowNum(); row++) {
 			r = sh.getRow(row);
+			if (Objects.isNull(r))
+				continue;
 			c = r.getCell(0);
 			if (!c.getCellType().equals(CellType.BLANK))
 				rows.put(c.getStringCellValue(), row);
@@ -156,31 +940,34 @@ public class RegOut2 {
 		for (int col = 1; col < 1001; col++) {
 			c = r.getCell(col);
 			if (c.getCellType().equals(CellType.BLANK)) {
-				fillModel(sh, col, rows, terms, modelTitle, eq);
-				break;
+				fillModel(sh, col, rows, column);
+				return col;
 			}
 		}
+		return -1;
 	}
 
-	private void fillModel(XSSFSheet sh, int col, Map<String, Integer> rows, List<Term> terms, String modelTitle,
-			String eq) {
-		CellStyle cs0d = wb.createCellStyle();
-		cs0d.setDataFormat(wb.createDataFormat().getFormat("#,##0"));
-
-		CellStyle cs2d = wb.createCellStyle();
-		cs2d.setDataFormat(wb.createDataFormat().getFormat("#,##0.00"));
-
-		CellStyle cs3d = wb.createCellStyle();
-		cs3d.setDataFormat(wb.createDataFormat().getFormat("0.000"));
-
-		XSSFCellStyle csText = wb.createCellStyle();
-		csText.setAlignment(HorizontalAlignment.RIGHT);
+	private void fillModel(XSSFSheet sh, int col, Map<String, Integer> rows, ModelColumn column) {
+		createStyles();
 
 		XSSFRow r = sh.getRow(0);
 		XSSFCell c = r.getCell(col);
-		c.setCellValue(modelTitle);
+		c.setCellValue(column.getTitle());
+		if (layout == Table.Layout.COLUMNS)
+			r.getCell(col + 1).setCellValue("SE");
 
 		Name lastVarName = wb.getName(String.format("%s_lastvar", sh.getSheetName().replace('-', '_')));
+		Name layoutName = wb.getName(String.format("%s_layout", sh.getSheetName().replace('-', '_')));
+		String mismatch = layoutMismatch(sh.getSheetName(), Objects.nonNull(lastVarName),
+				Objects.nonNull(layoutName) ? layoutName.getRefersToFormula() : null);
+		if (Objects.nonNull(mismatch))
+			throw new IllegalArgumentException(mismatch);
+		if (Objects.isNull(layoutName)) {
+			layoutName = wb.createName();
+			layoutName.setNameName(String.format("%s_layout", sh.getSheetName().replace('-', '_')));
+			layoutName.setRefersToFormula(String.format("\"%s\"", layout.name()));
+		}
+
 		int row;
 		if (Objects.nonNull(lastVarName)) {
 			CellReference lastVarCR = new CellReference(lastVarName.getRefersToFormula());
@@ -189,46 +976,16 @@ public class RegOut2 {
 			row = 0;
 		}
 
-		Iterator<Term> termsItr = terms.iterator();
-		while (termsItr.hasNext()) {
-			Term term = termsItr.next();
-
-			if (!term.isConstant()) {
-				termsItr.remove();
-
-				if ((hideOmitted && term.isOmitted()) || (hideBase && term.isBase())) {
-					continue;
-				}
-
-				if (rows.containsKey(term.getLabel())) {
-					r = sh.getRow(rows.get(term.getLabel()));
-					c = r.getCell(col);
-				} else {
-					row++;
-					r = sh.getRow(row) != null ? sh.getRow(row) : sh.createRow(row);
-
-					c = r.getCell(0);
-					if (c.getCellType().equals(CellType.BLANK)) {
-						c.setCellValue(term.getLabel());
-					} else {
-						int tmpRow = row;
-						rows.replaceAll((s, i) -> i >= tmpRow ? i + 1 : i);
-						sh.shiftRows(row, sh.getLastRowNum(), 1);
-						r = sh.createRow(row);
-						c = r.getCell(0);
-						c.setCellValue(term.getLabel());
-					}
-				}
-
-				c = r.getCell(col);
-				if (term.isOmitted()) {
-					c.setCellValue("0 (omitted)");
-					c.setCellStyle(csText);
-				} else if (!term.isBase()) {
-					c.setCellValue(term.getCoefficient(2) + term.getSigStars() + " (" + term.getStandardError(2) + ")");
-					c.setCellStyle(csText);
-				}
+		int height = layout == Table.Layout.ROWS ? 2 : 1;
+		for (ModelColumn.Cell cell : column.getTerms()) {
+			int termRow;
+			if (rows.containsKey(cell.getLabel())) {
+				termRow = rows.get(cell.getLabel());
+			} else {
+				termRow = insertRow(sh, rows, cell.getLabel(), row + 1, height);
+				row = termRow + height - 1;
 			}
+			writeTerm(sh, termRow, col, cell);
 		}
 
 		if (Objects.nonNull(lastVarName)) {
@@ -244,58 +1001,29 @@ public class RegOut2 {
 		}
 
 		// constant
-		for (Term term : terms) {
-			if (rows.containsKey(term.getLabel())) {
-				r = sh.getRow(rows.get(term.getLabel()));
-				c = r.getCell(col);
-				c.setCellValue(term.getCoefficient(2) + term.getSigStars() + " (" + term.getStandardError(2) + ")");
-				c.setCellStyle(csText);
+		for (ModelColumn.Cell cell : column.getConstants()) {
+			int termRow;
+			if (rows.containsKey(cell.getLabel())) {
+				termRow = rows.get(cell.getLabel());
 			} else {
-				row++;
-				r = sh.getRow(row) != null ? sh.getRow(row) : sh.createRow(row);
-
-				c = r.getCell(0);
-				if (c.getCellType().equals(CellType.BLANK)) {
-					c.setCellValue(term.getLabel());
-				} else {
-					int tmpRow = row;
-					rows.replaceAll((s, i) -> i >= tmpRow ? i + 1 : i);
-					sh.shiftRows(row, sh.getLastRowNum(), 1);
-					r = sh.createRow(row);
-					c = r.getCell(0);
-					c.setCellValue(term.getLabel());
-				}
-
-				c = r.getCell(col);
-				c.setCellValue(term.getCoefficient(2) + term.getSigStars() + " (" + term.getStandardError(2) + ")");
-				c.setCellStyle(csText);
+				termRow = insertRow(sh, rows, cell.getLabel(), row + 1, height);
+				row = termRow + height - 1;
 			}
+			writeTerm(sh, termRow, col, cell);
 		}
 
 		row = sh.getLastRowNum();
 		int tmpRow;
 
-		if (Objects.nonNull(eq)) {
-			for (ModelStat stat : regPar.getEquationStats(eq)) {
-				tmpRow = rows.containsKey(stat.getLabel()) ? rows.get(stat.getLabel()) : ++row;
-				r = sh.getRow(tmpRow) != null ? sh.getRow(tmpRow) : sh.createRow(tmpRow);
-				c = r.getCell(0);
-				if (c.getCellType().equals(CellType.BLANK))
-					c.setCellValue(stat.getLabel());
-				c = r.getCell(col);
-				c.setCellValue(stat.toString());
-				c.setCellStyle(csText);
-			}
-		}
-
-		for (ModelStat stat : regPar.getModelStats()) {
-			tmpRow = rows.containsKey(stat.getLabel()) ? rows.get(stat.getLabel()) : ++row;
+		// equation and model statistics
+		for (ModelColumn.Cell cell : column.getStats()) {
+			tmpRow = rows.containsKey(cell.getLabel()) ? rows.get(cell.getLabel()) : ++row;
 			r = sh.getRow(tmpRow) != null ? sh.getRow(tmpRow) : sh.createRow(tmpRow);
 			c = r.getCell(0);
 			if (c.getCellType().equals(CellType.BLANK))
-				c.setCellValue(stat.getLabel());
+				c.setCellValue(cell.getLabel());
 			c = r.getCell(col);
-			c.setCellValue(stat.toString());
+			c.setCellValue(cell.getText());
 			c.setCellStyle(csText);
 		}
 
@@ -306,9 +1034,182 @@ public class RegOut2 {
 			c.setCellValue("created");
 		c = r.getCell(col);
 		c.setCellValue(LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
+	}
+
+	/**
+	 * Inserts a term labelled {@code label} at {@code row}, shifting the rows
+	 * from there down if it is taken. Terms take {@code height} rows.
+	 */
+	private int insertRow(XSSFSheet sh, Map<String, Integer> rows, String label, int row, int height) {
+		XSSFRow r = sh.getRow(row) != null ? sh.getRow(row) : sh.createRow(row);
+
+		XSSFCell c = r.getCell(0);
+		if (!c.getCellType().equals(CellType.BLANK)) {
+			rows.replaceAll((s, i) -> i >= row ? i + height : i);
+			sh.shiftRows(row, sh.getLastRowNum(), height);
+			r = sh.createRow(row);
+			c = r.getCell(0);
+		}
+		c.setCellValue(label);
+
+		for (int i = 1; i < height; i++) {
+			if (sh.getRow(row + i) == null)
+				sh.createRow(row + i);
+		}
+		return row;
+	}
+
+	private void writeTerm(XSSFSheet sh, int row, int col, ModelColumn.Cell cell) {
+		XSSFCell c = sh.getRow(row).getCell(col);
+
+		if (Objects.nonNull(cell.getText())) {
+			c.setCellValue(cell.getText());
+			c.setCellStyle(csText);
+		} else if (layout != Table.Layout.TEXT && Objects.nonNull(cell.getValue())) {
+			c.setCellValue(cell.getValue());
+			c.setCellStyle(csCoef.computeIfAbsent(cell.getSigStars(), this::createCoefStyle));
+
+			if (Objects.nonNull(cell.getSe())) {
+				XSSFCell se = layout == Table.Layout.ROWS ? sh.getRow(row + 1).getCell(col) : sh.getRow(row).getCell(col + 1);
+				se.setCellValue(cell.getSe());
+				se.setCellStyle(csSe);
+			}
+		}
+	}
+
+	/**
+	 * Same as {@link #addModel(XSSFSheet, ModelColumn)} on a streamed sheet.
+	 */
+	private int addModel(StreamingWorkbook swb, String sheetName, StreamingWorkbook.Grid grid, ModelColumn column) {
+		if (grid.isBlank(0, 0))
+			grid.set(0, 0, "Variables", null);
+
+		Map<String, Integer> rows = new HashMap<>();
+		for (int row = 1; row < grid.size(); row++) {
+			if (!grid.isBlank(row, 0))
+				rows.put(grid.get(row, 0).toString(), row);
+		}
+
+		for (int col = 1; col < 1001; col++) {
+			if (grid.isBlank(0, col)) {
+				fillModel(swb, sheetName, grid, col, rows, column);
+				return col;
+			}
+		}
+		return -1;
+	}
+
+	private void fillModel(StreamingWorkbook swb, String sheetName, StreamingWorkbook.Grid grid, int col,
+			Map<String, Integer> rows, ModelColumn column) {
+		grid.set(0, col, column.getTitle(), null);
+		if (layout == Table.Layout.COLUMNS)
+			grid.set(0, col + 1, "SE", null);
+
+		String lastVarName = String.format("%s_lastvar", sheetName.replace('-', '_'));
+		String lastVar = swb.getName(lastVarName);
+		String layoutName = String.format("%s_layout", sheetName.replace('-', '_'));
+		String mismatch = layoutMismatch(sheetName, Objects.nonNull(lastVar), swb.getName(layoutName));
+		if (Objects.nonNull(mismatch))
+			throw new IllegalArgumentException(mismatch);
+		swb.setName(layoutName, String.format("\"%s\"", layout.name()));
+
+		int row = Objects.nonNull(lastVar) ? new CellReference(lastVar).getRow() : 0;
+
+		int height = layout == Table.Layout.ROWS ? 2 : 1;
+		for (ModelColumn.Cell cell : column.getTerms()) {
+			int termRow;
+			if (rows.containsKey(cell.getLabel())) {
+				termRow = rows.get(cell.getLabel());
+			} else {
+				termRow = insertRow(grid, rows, cell.getLabel(), row + 1, height);
+				row = termRow + height - 1;
+			}
+			writeTerm(grid, termRow, col, cell);
+		}
+
+		if (Objects.nonNull(lastVar))
+			row = Math.max(row, new CellReference(lastVar).getRow());
+		swb.setName(lastVarName, new CellReference(sheetName, row, 0, true, true).formatAsString());
+
+		// constant
+		for (ModelColumn.Cell cell : column.getConstants()) {
+			int termRow;
+			if (rows.containsKey(cell.getLabel())) {
+				termRow = rows.get(cell.getLabel());
+			} else {
+				termRow = insertRow(grid, rows, cell.getLabel(), row + 1, height);
+				row = termRow + height - 1;
+			}
+			writeTerm(grid, termRow, col, cell);
+		}
+
+		row = grid.size() - 1;
+		int tmpRow;
+
+		// equation and model statistics
+		for (ModelColumn.Cell cell : column.getStats()) {
+			tmpRow = rows.containsKey(cell.getLabel()) ? rows.get(cell.getLabel()) : ++row;
+			if (grid.isBlank(tmpRow, 0))
+				grid.set(tmpRow, 0, cell.getLabel(), null);
+			grid.set(tmpRow, col, cell.getText(), STYLE_TEXT);
+		}
+
+		tmpRow = rows.containsKey("created") ? rows.get("created") : ++row;
+		if (grid.isBlank(tmpRow, 0))
+			grid.set(tmpRow, 0, "created", null);
+		grid.set(tmpRow, col, LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")), null);
+	}
+
+	private int insertRow(StreamingWorkbook.Grid grid, Map<String, Integer> rows, String label, int row, int height) {
+		if (!grid.isBlank(row, 0)) {
+			rows.replaceAll((s, i) -> i >= row ? i + height : i);
+			grid.insertRows(row, height);
+		}
+		grid.set(row, 0, label, null);
+		grid.ensureSize(row + height);
+		return row;
+	}
+
+	private void writeTerm(StreamingWorkbook.Grid grid, int row, int col, ModelColumn.Cell cell) {
+		if (Objects.nonNull(cell.getText())) {
+			grid.set(row, col, cell.getText(), STYLE_TEXT);
+		} else if (layout != Table.Layout.TEXT && Objects.nonNull(cell.getValue())) {
+			String format = "0.00" + cell.getSigStars().replace("*", "\\*");
+			grid.set(row, col, cell.getValue(), new StreamingWorkbook.Style(format, HorizontalAlignment.GENERAL));
+			if (Objects.nonNull(cell.getSe())) {
+				if (layout == Table.Layout.ROWS)
+					grid.set(row + 1, col, cell.getSe(), STYLE_SE);
+				else
+					grid.set(row, col + 1, cell.getSe(), STYLE_SE);
+			}
+		}
+	}
+
+	/**
+	 * Styles are shared by all columns of the workbook, so that the number of
+	 * styles doesn't grow with the number of models.
+	 */
+	private void createStyles() {
+		if (Objects.nonNull(csText))
+			return;
+
+		csText = wb.createCellStyle();
+		csText.setAlignment(HorizontalAlignment.RIGHT);
+
+		csSe = wb.createCellStyle();
+		csSe.setDataFormat(wb.createDataFormat().getFormat("(0.00)"));
+
+		csCoef = new HashMap<>();
+	}
 
-		sh.autoSizeColumn(0);
-		sh.autoSizeColumn(col);
+	/**
+	 * Number format with the stars as escaped literal suffix, e.g.
+	 * {@code 0.00\*\*\*}.
+	 */
+	private XSSFCellStyle createCoefStyle(String stars) {
+		XSSFCellStyle cs = wb.createCellStyle();
+		cs.setDataFormat(wb.createDataFormat().getFormat("0.00" + stars.replace("*", "\\*")));
+		return cs;
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,118 @@
+package de.pbc.stata;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Models written by several Stata processes at once, e.g. specifications run
+ * in parallel, each into its own {@link EstimationStore} (its shard), so that
+ * they don't overwrite each other's workbook. {@link #forEach(Visitor)} then
+ * reads all of them to be written as one table, one model at a time.
+ * </p>
+ * <p>
+ * A shard set {@code <path>} consists of the shards
+ * {@code <path>.shard-<pid>} and the registry {@code <path>.shards}, a text
+ * file with a line {@code <shard>\t<model>} per model, in the order the models
+ * were appended. The registry's file lock is held while a model is appended
+ * and registered, and while the shards are read, so that a model is only read
+ * once it is complete.
+ * </p>
+ */
+public class Shards {
+
+	// VARIABLES ---------------------------------------------------- //
+
+	private final Path path, registry;
+
+	// CONSTRUCTOR -------------------------------------------------- //
+
+	public Shards(Path path) {
+		this.path = path;
+		this.registry = path.resolveSibling(path.getFileName() + ".shards");
+	}
+
+	// PUBLIC ------------------------------------------------------- //
+
+	/**
+	 * Appends a model to this process's shard and registers it.
+	 *
+	 * @return the shard
+	 */
+	@SuppressWarnings("try") // the lock is only held, not used
+	public Path append(ModelResult res, String cmd, String cmdline) throws IOException {
+		Path shard = path.resolveSibling(path.getFileName() + ".shard-" + ProcessHandle.current().pid());
+
+		try (FileChannel ch = openRegistry(); FileLock lock = ch.lock()) {
+			int i;
+			try (EstimationStore es = EstimationStore.open(shard)) {
+				i = es.append(res, cmd, cmdline);
+			}
+
+			ByteBuffer line = StandardCharsets.UTF_8
+					.encode(String.format("%s\t%d\n", shard.getFileName(), i));
+			ch.position(ch.size());
+			while (line.hasRemaining())
+				ch.write(line);
+			ch.force(false);
+		}
+		return shard;
+	}
+
+	/**
+	 * Reads the registered models, in the order they were appended, and hands
+	 * each to {@code visitor} as it is read; the models aren't collected. The
+	 * registry stays locked until all models are visited, so {@code visitor}
+	 * should be quick and must not append to this shard set.
+	 */
+	@SuppressWarnings("try") // the lock is only held, not used
+	public void forEach(Visitor visitor) throws IOException {
+		Map<String, EstimationStore> stores = new HashMap<>();
+
+		try (FileChannel ch = openRegistry(); FileLock lock = ch.lock()) {
+			BufferedReader in = new BufferedReader(Channels.newReader(ch, StandardCharsets.UTF_8));
+			for (String line = in.readLine(); line != null; line = in.readLine()) {
+				int tab = line.indexOf('\t');
+				if (tab < 0)
+					continue;
+
+				String shard = line.substring(0, tab);
+				EstimationStore es = stores.get(shard);
+				if (es == null) {
+					es = EstimationStore.open(path.resolveSibling(shard));
+					stores.put(shard, es);
+				}
+				visitor.visit(es.read(Integer.parseInt(line.substring(tab + 1).trim())));
+			}
+		} finally {
+			for (EstimationStore es : stores.values())
+				es.close();
+		}
+	}
+
+	// PRIVATE ------------------------------------------------------ //
+
+	private FileChannel openRegistry() throws IOException {
+		return FileChannel.open(registry, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+	}
+
+	// INNER CLASSES ------------------------------------------------ //
+
+	@FunctionalInterface
+	public interface Visitor {
+
+		void visit(ModelResult model) throws IOException;
+
+	}
+
+}
@@ -1,15 +1,11 @@
 package de.pbc.stata;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
-import com.stata.sfi.Macro;
-import com.stata.sfi.Matrix;
-import com.stata.sfi.SFIToolkit;
 
 /*
  * Standard Stata model.
@@ -30,6 +26,8 @@ public abstract class StandardResult implements ModelResult {
 	
 	protected double[][] resultsTable;
 	
+	protected StataResults results;
+	
 	protected Map<String, List<Term>> termsMap = new HashMap<>();
 	
 	// CONSTRUCTOR -------------------------------------------------- //
@@ -46,36 +44,49 @@ public abstract class StandardResult implements ModelResult {
 	// PROTECTED ---------------------------------------------------- //
 	
 	protected void init() {
-		this.dv = new Variable(Macro.getGlobal("depvar", Macro.TYPE_ERETURN));
-		this.termNames = Arrays.asList(Matrix.getMatrixColNames("r(table)"));
-		this.resultsTable = StataUtils.getMatrix("r(table)");
+		StataResults.Request req = new StataResults.Request().macros("depvar").matrices("r(table)");
+		if (hasMultipleEquations())
+			req.matrixWithEquations("e(b)");
+		request(req);
+		results = StataResults.fetch(req);
+		
+		this.dv = new Variable(results.getMacro("depvar"));
+		this.termNames = Arrays.asList(results.getMatrix("r(table)").getColNames());
+		this.resultsTable = results.getMatrix("r(table)").getValues();
 		
+		TermTable.Names names = new TermTable.Names();
 		if (hasMultipleEquations()) {
-			SFIToolkit.executeCommand("local coleq : coleq e(b)", false);
-			termEquations = Arrays.asList(StataUtils.getMacroArray("coleq"));
+			termEquations = Arrays.asList(results.getMatrix("e(b)").getColEqs());
 			equations = termEquations.stream().distinct().collect(Collectors.toList());
 			
 			for (String eq : getEquations()) {
-				List<Term> terms = new ArrayList<>();
+				TermTable.Builder terms = new TermTable.Builder(names);
 				for (int col = 0; col < termEquations.size(); col++) {
 					if (termEquations.get(col).equals(eq)) {
-						terms.add(new Term(col,
+						terms.add(col,
 								termNames.get(col),
 								resultsTable[0][col],
 								resultsTable[1][col],
-								resultsTable[3][col]));
+								resultsTable[3][col]);
 					}
 				}
-				termsMap.put(eq, terms);
+				termsMap.put(eq, terms.build().asList());
 			}
 		} else {
-			List<Term> terms = new ArrayList<>(termNames.size());
+			TermTable.Builder terms = new TermTable.Builder(names);
 			for (int i = 0; i < termNames.size(); i++)
-				terms.add(new Term(i, termNames.get(i), resultsTable[0][i], resultsTable[1][i], resultsTable[3][i]));
-			termsMap.put(EQUATION0, terms);
+				terms.add(i, termNames.get(i), resultsTable[0][i], resultsTable[1][i], resultsTable[3][i]);
+			termsMap.put(EQUATION0, terms.build().asList());
 		}
 	}
 	
+	/**
+	 * Declares further results the model is read from, to be fetched with
+	 * the others into {@link #results}. Called during construction.
+	 */
+	protected void request(StataResults.Request req) {
+	}
+	
 	// PUBLIC ------------------------------------------------------- //
 	
 	@Override
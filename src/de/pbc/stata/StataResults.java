@@ -0,0 +1,206 @@
+package de.pbc.stata;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import com.stata.sfi.Data;
+import com.stata.sfi.Macro;
+import com.stata.sfi.Matrix;
+import com.stata.sfi.SFIToolkit;
+import com.stata.sfi.Scalar;
+
+/**
+ * <p>
+ * Immutable snapshot of stored results ({@code e()} or {@code r()} scalars,
+ * macros and matrices), read from Stata in one pass.
+ * </p>
+ * <p>
+ * Names are given the way Stata shows them, e.g. {@code e(N)} or
+ * {@code r(table)}; a plain name (e.g. {@code N}) refers to {@code e()}.
+ * Missing scalars and scalars that don't exist are {@code null}. Only declared
+ * results can be read; asking for anything else is an error rather than a
+ * silent SFI call. Matrices are shared, not copied, and must not be modified.
+ * </p>
+ */
+public final class StataResults {
+	
+	// VARIABLES ---------------------------------------------------- //
+	
+	private final Map<String, Double> scalars;
+	
+	private final Map<String, String> macros;
+	
+	private final Map<String, ResultMatrix> matrices;
+	
+	// CONSTRUCTOR -------------------------------------------------- //
+	
+	private StataResults(Map<String, Double> scalars, Map<String, String> macros,
+			Map<String, ResultMatrix> matrices) {
+		this.scalars = Collections.unmodifiableMap(scalars);
+		this.macros = Collections.unmodifiableMap(macros);
+		this.matrices = Collections.unmodifiableMap(matrices);
+	}
+	
+	// PUBLIC ------------------------------------------------------- //
+	
+	/**
+	 * Reads everything declared in {@code req} from Stata.
+	 */
+	public static StataResults fetch(Request req) {
+		Map<String, Double> scalars = new HashMap<>(req.scalars.size() * 2);
+		for (String name : req.scalars) {
+			int type = isReturn(name, 'r') ? Scalar.TYPE_RRETURN : Scalar.TYPE_ERETURN;
+			Double val = Scalar.getValue(local(name), type);
+			scalars.put(name, Objects.isNull(val) || Data.isValueMissing(val) ? null : val);
+		}
+		
+		Map<String, String> macros = new HashMap<>(req.macros.size() * 2);
+		for (String name : req.macros) {
+			int type = isReturn(name, 'r') ? Macro.TYPE_RRETURN : Macro.TYPE_ERETURN;
+			macros.put(name, Macro.getGlobal(local(name), type));
+		}
+		
+		Map<String, ResultMatrix> matrices = new HashMap<>(req.matrices.size() * 2);
+		for (String name : req.matrices) {
+			String[] colEqs = null;
+			if (req.equations.contains(name)) {
+				// there is no SFI call for equation names
+				SFIToolkit.executeCommand(String.format("local coleq : coleq %s", qualified(name)), false);
+				colEqs = StataUtils.getMacroArray("coleq");
+			}
+			matrices.put(name, Matrix.getMatrixColDim(qualified(name)) < 0 ? null
+					: new ResultMatrix(StataUtils.getMatrix(qualified(name)),
+							Matrix.getMatrixRowNames(qualified(name)), Matrix.getMatrixColNames(qualified(name)),
+							colEqs));
+		}
+		
+		return new StataResults(scalars, macros, matrices);
+	}
+	
+	public Double getScalar(String name) {
+		return get(scalars, name, "scalar");
+	}
+	
+	public String getMacro(String name) {
+		return get(macros, name, "macro");
+	}
+	
+	public ResultMatrix getMatrix(String name) {
+		return get(matrices, name, "matrix");
+	}
+	
+	// PRIVATE ------------------------------------------------------ //
+	
+	private static <T> T get(Map<String, T> map, String name, String kind) {
+		if (!map.containsKey(name))
+			throw new IllegalStateException(String.format("%s %s was not fetched", kind, qualified(name)));
+		return map.get(name);
+	}
+	
+	private static boolean isQualified(String name) {
+		return name.length() > 3 && name.charAt(1) == '(' && name.endsWith(")");
+	}
+	
+	private static String qualified(String name) {
+		return isQualified(name) ? name : "e(" + name + ")";
+	}
+	
+	private static String local(String name) {
+		return isQualified(name) ? name.substring(2, name.length() - 1) : name;
+	}
+	
+	private static boolean isReturn(String name, char type) {
+		return isQualified(name) ? name.charAt(0) == type : type == 'e';
+	}
+	
+	// INNER CLASSES ------------------------------------------------ //
+	
+	/**
+	 * The results to fetch.
+	 */
+	public static class Request {
+		
+		// VARIABLES -------------------------------------------------- //
+		
+		private final Set<String> scalars = new LinkedHashSet<>(), macros = new LinkedHashSet<>(),
+				matrices = new LinkedHashSet<>(), equations = new LinkedHashSet<>();
+		
+		// PUBLIC ----------------------------------------------------- //
+		
+		public Request scalars(String... names) {
+			return scalars(Arrays.asList(names));
+		}
+		
+		public Request scalars(Collection<String> names) {
+			scalars.addAll(names);
+			return this;
+		}
+		
+		public Request macros(String... names) {
+			macros.addAll(Arrays.asList(names));
+			return this;
+		}
+		
+		public Request matrices(String... names) {
+			matrices.addAll(Arrays.asList(names));
+			return this;
+		}
+		
+		/**
+		 * Declares a matrix together with its column equation names.
+		 */
+		public Request matrixWithEquations(String name) {
+			matrices.add(name);
+			equations.add(name);
+			return this;
+		}
+		
+	}
+	
+	/**
+	 * A fetched matrix. Column equations are {@code null} unless requested.
+	 */
+	public static final class ResultMatrix {
+		
+		// VARIABLES -------------------------------------------------- //
+		
+		private final double[][] values;
+		
+		private final String[] rowNames, colNames, colEqs;
+		
+		// CONSTRUCTOR ------------------------------------------------ //
+		
+		private ResultMatrix(double[][] values, String[] rowNames, String[] colNames, String[] colEqs) {
+			this.values = values;
+			this.rowNames = rowNames;
+			this.colNames = colNames;
+			this.colEqs = colEqs;
+		}
+		
+		// PUBLIC ----------------------------------------------------- //
+		
+		public double[][] getValues() {
+			return values;
+		}
+		
+		public String[] getRowNames() {
+			return rowNames;
+		}
+		
+		public String[] getColNames() {
+			return colNames;
+		}
+		
+		public String[] getColEqs() {
+			return colEqs;
+		}
+		
+	}
+	
+}
@@ -0,0 +1,513 @@
+package de.pbc.stata;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.HorizontalAlignment;
+import org.apache.poi.ss.usermodel.Name;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.streaming.SXSSFCell;
+import org.apache.poi.xssf.streaming.SXSSFRow;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.xml.sax.SAXException;
+
+/**
+ * <p>
+ * Bounded-memory workbook output for exports that are too large for an
+ * in-memory {@code XSSFWorkbook} (see {@link MemoryGuard}). Rows are written
+ * through an {@link SXSSFWorkbook}, which keeps only a window of rows on the
+ * heap and strings inline.
+ * </p>
+ * <p>
+ * An existing workbook is copied sheet by sheet while it is parsed, except for
+ * the sheet that is written to, which is read into a compact {@link Grid} so
+ * that new columns can be merged into it. Cell values, number formats,
+ * alignment, column widths and defined names are kept; other formatting isn't.
+ * </p>
+ */
+class StreamingWorkbook implements Closeable {
+
+	// CONSTANTS ---------------------------------------------------- //
+
+	/** Rows kept in memory per sheet. */
+	private static final int WINDOW = 200;
+
+	private static final String NS_MAIN = "http://schemas.openxmlformats.org/spreadsheetml/2006/main";
+
+	// VARIABLES ---------------------------------------------------- //
+
+	private final SXSSFWorkbook wb = new SXSSFWorkbook(WINDOW) {
+
+		@Override
+		protected ZipArchiveOutputStream createArchiveOutputStream(OutputStream out) {
+			return new ParallelZipOutputStream(out, level);
+		}
+
+	};
+
+	private final Map<Style, CellStyle> styles = new HashMap<>();
+
+	private final Map<String, String> names = new LinkedHashMap<>();
+
+	private long cells;
+
+	/** The compression level of the next {@link #save(Path, int)}. */
+	private int level = Deflater.DEFAULT_COMPRESSION;
+
+	// CONSTRUCTOR -------------------------------------------------- //
+
+	StreamingWorkbook() {
+		wb.setCompressTempFiles(true);
+	}
+
+	// PUBLIC ------------------------------------------------------- //
+
+	/**
+	 * Copies all sheets and defined names of {@code existing}, except the sheet
+	 * {@code target}. That sheet is created empty, at its position, and its
+	 * content returned.
+	 *
+	 * @return the content of {@code target}, or {@code null} if there is no such
+	 *         sheet
+	 */
+	public Grid copy(Path existing, String target) throws IOException {
+		try (OPCPackage pkg = OPCPackage.open(existing.toFile(), PackageAccess.READ)) {
+			XSSFReader reader = new XSSFReader(pkg);
+			ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg, false);
+			StylesTable stylesTable = reader.getStylesTable();
+
+			try (InputStream in = reader.getWorkbookData()) {
+				readNames(in, names);
+			}
+
+			Grid grid = null;
+			XSSFReader.SheetIterator it = (XSSFReader.SheetIterator) reader.getSheetsData();
+			while (it.hasNext()) {
+				try (InputStream in = it.next()) {
+					SXSSFSheet sh = wb.createSheet(it.getSheetName());
+					if (it.getSheetName().equals(target)) {
+						grid = new Grid();
+						readSheet(in, strings, stylesTable, sh, grid);
+					} else {
+						readSheet(in, strings, stylesTable, sh, null);
+					}
+				}
+			}
+			return grid;
+		} catch (OpenXML4JException | SAXException | XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * The defined names of the workbook {@code existing} (keyed ignoring case),
+	 * without reading its sheets.
+	 */
+	public static Map<String, String> readNames(Path existing) throws IOException {
+		try (OPCPackage pkg = OPCPackage.open(existing.toFile(), PackageAccess.READ)) {
+			Map<String, String> names = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+			try (InputStream in = new XSSFReader(pkg).getWorkbookData()) {
+				readNames(in, names);
+			}
+			return names;
+		} catch (OpenXML4JException | XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+	public SXSSFWorkbook getWorkbook() {
+		return wb;
+	}
+
+	/**
+	 * The formula of the defined name {@code name} (ignoring case, as Excel
+	 * does), or {@code null}.
+	 */
+	public String getName(String name) {
+		return names.entrySet().stream().filter((e) -> e.getKey().equalsIgnoreCase(name)).findFirst()
+				.map(Map.Entry::getValue).orElse(null);
+	}
+
+	/**
+	 * Defines {@code name}, or changes its formula; written on
+	 * {@link #save(Path)}.
+	 */
+	public void setName(String name, String formula) {
+		names.keySet().removeIf((key) -> key.equalsIgnoreCase(name));
+		names.put(name, formula);
+	}
+
+	/**
+	 * Writes {@code grid} to the (empty) sheet {@code sh}, with columns wide
+	 * enough for their content.
+	 */
+	public void write(SXSSFSheet sh, Grid grid) {
+		int[] widths = new int[grid.getColCount()];
+		for (int row = 0; row < grid.size(); row++) {
+			Object[] values = grid.values.get(row);
+			if (Objects.isNull(values))
+				continue;
+
+			SXSSFRow r = sh.createRow(row);
+			Style[] rowStyles = grid.styles.get(row);
+			for (int col = 0; col < values.length; col++) {
+				if (Objects.isNull(values[col]) && Objects.isNull(rowStyles[col]))
+					continue;
+				setCell(r.createCell(col), values[col], rowStyles[col]);
+				widths[col] = Math.max(widths[col], width(values[col], rowStyles[col]));
+			}
+		}
+
+		for (int col = 0; col < widths.length; col++) {
+			if (widths[col] > 0)
+				sh.setColumnWidth(col, Math.min(255, widths[col] + 2) * 256);
+		}
+	}
+
+	/**
+	 * Cells written so far.
+	 */
+	public long getCellCount() {
+		return cells;
+	}
+
+	/**
+	 * Writes the workbook, see {@link #write(Workbook, Path)}.
+	 */
+	public void save(Path path) throws IOException {
+		save(path, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * Writes the workbook with compression {@code level}, see
+	 * {@link #write(Workbook, Path, int)}.
+	 */
+	public void save(Path path, int level) throws IOException {
+		this.level = level;
+		for (Map.Entry<String, String> e : names.entrySet()) {
+			Name name = wb.createName();
+			name.setNameName(e.getKey());
+			name.setRefersToFormula(e.getValue());
+		}
+		write(wb, path, level);
+	}
+
+	/**
+	 * Writes {@code wb} to a temporary file next to {@code path} and moves it
+	 * into place, so that {@code path} is never left half-written, e.g. when
+	 * running out of memory.
+	 */
+	static void write(Workbook wb, Path path) throws IOException {
+		write(wb, path, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * Like {@link #write(Workbook, Path)}, with the parts of the workbook
+	 * deflated in parallel (see {@link ParallelZipOutputStream}) at compression
+	 * {@code level}, 0 to 9; 1 is fastest, e.g. for workbooks that are written
+	 * again soon.
+	 */
+	static void write(Workbook wb, Path path, int level) throws IOException {
+		// not Files.createTempFile(), whose permissions would be kept by the move
+		Path tmp = path.resolveSibling(String.format(".~%s.%d", path.getFileName(), ProcessHandle.current().pid()));
+		try {
+			try (OutputStream out = Files.newOutputStream(tmp)) {
+				if (wb instanceof SXSSFWorkbook) {
+					// zips through createArchiveOutputStream()
+					wb.write(out);
+				} else {
+					try (ParallelZipOutputStream zip = new ParallelZipOutputStream(out, level)) {
+						wb.write(zip);
+					}
+				}
+			}
+			Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		wb.dispose();
+		wb.close();
+	}
+
+	// PRIVATE ------------------------------------------------------ //
+
+	private static void readNames(InputStream in, Map<String, String> names) throws XMLStreamException {
+		XMLStreamReader xml = XMLHelper.newXMLInputFactory().createXMLStreamReader(in);
+		try {
+			while (xml.hasNext()) {
+				if (xml.next() == XMLStreamConstants.START_ELEMENT && xml.getLocalName().equals("definedName")) {
+					String name = xml.getAttributeValue(null, "name");
+					// sheet-scoped and built-in names (print areas etc.) aren't copied
+					if (Objects.isNull(xml.getAttributeValue(null, "localSheetId")) && !name.startsWith("_xlnm."))
+						names.put(name, xml.getElementText());
+				}
+			}
+		} finally {
+			xml.close();
+		}
+	}
+
+	/**
+	 * Copies the sheet XML {@code in} to {@code sh}, or into {@code grid} if
+	 * given.
+	 */
+	private void readSheet(InputStream in, ReadOnlySharedStringsTable strings, StylesTable stylesTable,
+			SXSSFSheet sh, Grid grid) throws XMLStreamException {
+		XMLStreamReader xml = XMLHelper.newXMLInputFactory().createXMLStreamReader(in);
+		try {
+			SXSSFRow r = null;
+			int row = -1, col = -1;
+			String type = null;
+			Style style = null;
+			String value = null;
+
+			while (xml.hasNext()) {
+				int event = xml.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					switch (xml.getLocalName()) {
+						case "col":
+							// widths of the target sheet are recomputed
+							if (Objects.isNull(grid) && Objects.nonNull(xml.getAttributeValue(null, "width"))) {
+								int width = (int) (Double.parseDouble(xml.getAttributeValue(null, "width")) * 256);
+								int max = Math.min(Integer.parseInt(xml.getAttributeValue(null, "max")), 16384);
+								for (int i = Integer.parseInt(xml.getAttributeValue(null, "min")); i <= max; i++)
+									sh.setColumnWidth(i - 1, Math.min(width, 255 * 256));
+							}
+							break;
+						case "row":
+							row = Objects.nonNull(xml.getAttributeValue(null, "r"))
+									? Integer.parseInt(xml.getAttributeValue(null, "r")) - 1
+									: row + 1;
+							col = -1;
+							if (Objects.isNull(grid))
+								r = sh.createRow(row);
+							break;
+						case "c":
+							String ref = xml.getAttributeValue(null, "r");
+							col = Objects.nonNull(ref) ? new CellReference(ref).getCol() : col + 1;
+							type = xml.getAttributeValue(null, "t");
+							String s = xml.getAttributeValue(null, "s");
+							style = Objects.nonNull(s) ? style(stylesTable.getStyleAt(Integer.parseInt(s))) : null;
+							value = null;
+							break;
+						case "v":
+							value = xml.getElementText();
+							break;
+						case "t":
+							// inline strings, possibly in several runs
+							value = Objects.isNull(value) ? xml.getElementText() : value + xml.getElementText();
+							break;
+						default:
+							break;
+					}
+				} else if (event == XMLStreamConstants.END_ELEMENT && xml.getLocalName().equals("c")
+						&& NS_MAIN.equals(xml.getNamespaceURI())) {
+					Object cell = value(type, value, strings);
+					if (Objects.nonNull(grid)) {
+						grid.set(row, col, cell, style);
+					} else if (Objects.nonNull(cell) || Objects.nonNull(style)) {
+						setCell(r.createCell(col), cell, style);
+					}
+				}
+			}
+		} finally {
+			xml.close();
+		}
+	}
+
+	private static Object value(String type, String value, ReadOnlySharedStringsTable strings) {
+		if (Objects.isNull(value))
+			return null;
+		if (Objects.isNull(type) || type.equals("n"))
+			return Double.valueOf(value);
+		switch (type) {
+			case "s":
+				return strings.getItemAt(Integer.parseInt(value)).getString();
+			case "b":
+				return value.equals("1");
+			default:
+				// str, inlineStr, e
+				return value;
+		}
+	}
+
+	private void setCell(SXSSFCell c, Object value, Style style) {
+		if (value instanceof String)
+			c.setCellValue((String) value);
+		else if (value instanceof Double)
+			c.setCellValue((Double) value);
+		else if (value instanceof Boolean)
+			c.setCellValue((Boolean) value);
+
+		if (Objects.nonNull(style))
+			c.setCellStyle(styles.computeIfAbsent(style, this::createStyle));
+		cells++;
+	}
+
+	private CellStyle createStyle(Style style) {
+		CellStyle cs = wb.createCellStyle();
+		cs.setDataFormat(wb.createDataFormat().getFormat(style.format));
+		cs.setAlignment(style.alignment);
+		return cs;
+	}
+
+	private static Style style(XSSFCellStyle cs) {
+		return new Style(cs.getDataFormatString(), cs.getAlignment());
+	}
+
+	/**
+	 * Width in characters, roughly as displayed.
+	 */
+	private static int width(Object value, Style style) {
+		if (value instanceof String)
+			return ((String) value).length();
+		if (value instanceof Double)
+			return Math.max(Objects.nonNull(style) ? style.format.length() : 0,
+					Double.toString((Double) value).length());
+		return Objects.isNull(value) ? 0 : 5;
+	}
+
+	// INNER CLASSES ------------------------------------------------ //
+
+	/**
+	 * The parts of a cell style that are kept.
+	 */
+	static final class Style {
+
+		// VARIABLES ------------------------------------------------ //
+
+		private final String format;
+
+		private final HorizontalAlignment alignment;
+
+		// CONSTRUCTOR ---------------------------------------------- //
+
+		Style(String format, HorizontalAlignment alignment) {
+			this.format = Objects.isNull(format) ? "General" : format;
+			this.alignment = Objects.isNull(alignment) ? HorizontalAlignment.GENERAL : alignment;
+		}
+
+		// PUBLIC --------------------------------------------------- //
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Style && ((Style) obj).format.equals(format)
+					&& ((Style) obj).alignment == alignment;
+		}
+
+		@Override
+		public int hashCode() {
+			return format.hashCode() * 31 + alignment.hashCode();
+		}
+
+	}
+
+	/**
+	 * A sheet's cell values (strings, doubles or booleans) and styles, by row.
+	 * Rows can be inserted, which shifts the rows below.
+	 */
+	static final class Grid {
+
+		// VARIABLES ------------------------------------------------ //
+
+		private final List<Object[]> values = new ArrayList<>();
+
+		private final List<Style[]> styles = new ArrayList<>();
+
+		private int cols;
+
+		// PUBLIC --------------------------------------------------- //
+
+		/**
+		 * Number of rows, i.e. the last row + 1.
+		 */
+		public int size() {
+			return values.size();
+		}
+
+		public int getColCount() {
+			return cols;
+		}
+
+		public Object get(int row, int col) {
+			if (row >= values.size() || Objects.isNull(values.get(row)) || col >= values.get(row).length)
+				return null;
+			return values.get(row)[col];
+		}
+
+		public boolean isBlank(int row, int col) {
+			return Objects.isNull(get(row, col));
+		}
+
+		public void set(int row, int col, Object value, Style style) {
+			ensureSize(row + 1);
+			if (Objects.isNull(values.get(row))) {
+				values.set(row, new Object[Math.max(col + 1, 8)]);
+				styles.set(row, new Style[Math.max(col + 1, 8)]);
+			} else if (values.get(row).length <= col) {
+				values.set(row, Arrays.copyOf(values.get(row), Math.max(col + 1, values.get(row).length * 2)));
+				styles.set(row, Arrays.copyOf(styles.get(row), values.get(row).length));
+			}
+			values.get(row)[col] = value;
+			styles.get(row)[col] = style;
+			cols = Math.max(cols, col + 1);
+		}
+
+		/**
+		 * Inserts {@code n} empty rows at {@code row}.
+		 */
+		public void insertRows(int row, int n) {
+			ensureSize(row);
+			for (int i = 0; i < n; i++) {
+				values.add(row, null);
+				styles.add(row, null);
+			}
+		}
+
+		/**
+		 * Adds empty rows up to {@code size}.
+		 */
+		public void ensureSize(int size) {
+			while (values.size() < size) {
+				values.add(null);
+				styles.add(null);
+			}
+		}
+
+	}
+
+}
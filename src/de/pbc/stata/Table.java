@@ -0,0 +1,297 @@
+package de.pbc.stata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * Rendered models as a table independent of the output format: a column per
+ * model (or equation), a row per term or statistic, and typed cells. Terms
+ * are aligned across columns as when models are merged into a workbook: a
+ * term that isn't in the table yet is inserted after the previous term of its
+ * model, statistics go below all terms.
+ * </p>
+ * <p>
+ * {@link TableRenderer}s write tables to files. The class doesn't depend on
+ * POI, so that exports that don't write Excel files don't load it.
+ * </p>
+ */
+public final class Table {
+
+	// VARIABLES ---------------------------------------------------- //
+
+	private final Layout layout;
+
+	private final List<String> columns = new ArrayList<>();
+
+	private final List<Row> terms = new ArrayList<>(), stats = new ArrayList<>();
+
+	private final Map<String, Row> rows = new HashMap<>();
+
+	/** Position of the last term inserted so far, -1 for none. */
+	private int last = -1;
+
+	// CONSTRUCTOR -------------------------------------------------- //
+
+	public Table(Layout layout) {
+		this.layout = layout;
+	}
+
+	// PUBLIC ------------------------------------------------------- //
+
+	public static Table of(List<ModelColumn> columns, Layout layout) {
+		Table table = new Table(layout);
+		for (ModelColumn column : columns)
+			table.add(column);
+		return table;
+	}
+
+	/**
+	 * Adds {@code column} to the right.
+	 */
+	public void add(ModelColumn column) {
+		int col = columns.size();
+		columns.add(column.getTitle());
+
+		int row = last;
+		for (ModelColumn.Cell cell : column.getTerms())
+			row = addTerm(cell, col, row);
+		last = Math.max(row, last);
+		for (ModelColumn.Cell cell : column.getConstants())
+			row = addTerm(cell, col, row);
+
+		for (ModelColumn.Cell cell : column.getStats()) {
+			Row r = rows.get(cell.getLabel());
+			if (Objects.isNull(r)) {
+				r = new Row(cell.getLabel(), true);
+				rows.put(cell.getLabel(), r);
+				stats.add(r);
+			}
+			r.set(col, new Cell(Type.STAT, cell.getText(), null, null, ""));
+		}
+	}
+
+	public Layout getLayout() {
+		return layout;
+	}
+
+	/**
+	 * The column titles.
+	 */
+	public List<String> getColumns() {
+		return Collections.unmodifiableList(columns);
+	}
+
+	public List<Row> getTerms() {
+		return Collections.unmodifiableList(terms);
+	}
+
+	public List<Row> getStats() {
+		return Collections.unmodifiableList(stats);
+	}
+
+	/**
+	 * Passes the table, as text, row by row to {@code action}: the header,
+	 * the terms and the statistics. With {@link Layout#ROWS}, standard errors
+	 * take an extra row below each term; with {@link Layout#COLUMNS}, an extra
+	 * column next to each model. The array is reused for all rows.
+	 */
+	public void forEachRow(Consumer<String[]> action) {
+		int width = layout == Layout.COLUMNS ? 2 : 1;
+		String[] line = new String[1 + columns.size() * width], se = new String[line.length];
+
+		Arrays.fill(line, "");
+		line[0] = "Variables";
+		for (int col = 0; col < columns.size(); col++) {
+			line[1 + col * width] = columns.get(col);
+			if (layout == Layout.COLUMNS)
+				line[2 + col * width] = "SE";
+		}
+		action.accept(line);
+
+		StringBuilder sb = new StringBuilder();
+		for (Row row : terms) {
+			Arrays.fill(line, "");
+			Arrays.fill(se, "");
+			line[0] = row.getLabel();
+			for (int col = 0; col < columns.size(); col++) {
+				Cell cell = row.get(col);
+				if (Objects.isNull(cell))
+					continue;
+				int pos = 1 + col * width;
+				if (cell.getType() == Type.COEF) {
+					sb.setLength(0);
+					line[pos] = DecimalFormatter.append(sb, cell.getValue(), 2, false).append(cell.getSigStars())
+							.toString();
+					if (Objects.nonNull(cell.getSe())) {
+						sb.setLength(0);
+						sb.append('(');
+						String text = DecimalFormatter.append(sb, cell.getSe(), 2, false).append(')').toString();
+						if (layout == Layout.ROWS)
+							se[pos] = text;
+						else
+							line[pos + 1] = text;
+					}
+				} else if (Objects.nonNull(cell.getText())) {
+					line[pos] = cell.getText();
+				}
+			}
+			action.accept(line);
+			if (layout == Layout.ROWS)
+				action.accept(se);
+		}
+
+		for (Row row : stats) {
+			Arrays.fill(line, "");
+			line[0] = row.getLabel();
+			for (int col = 0; col < columns.size(); col++) {
+				Cell cell = row.get(col);
+				if (Objects.nonNull(cell) && Objects.nonNull(cell.getText()))
+					line[1 + col * width] = cell.getText();
+			}
+			action.accept(line);
+		}
+	}
+
+	// PRIVATE ------------------------------------------------------ //
+
+	/**
+	 * @return the position of the term's row
+	 */
+	private int addTerm(ModelColumn.Cell cell, int col, int row) {
+		Row r = rows.get(cell.getLabel());
+		if (Objects.isNull(r)) {
+			r = new Row(cell.getLabel(), false);
+			rows.put(cell.getLabel(), r);
+			terms.add(++row, r);
+		} else if (r.stat) {
+			// a statistic of the same name
+			return row;
+		}
+
+		if (Objects.nonNull(cell.getText()))
+			r.set(col, new Cell(Type.TEXT, cell.getText(), null, null, ""));
+		else if (Objects.nonNull(cell.getValue()))
+			r.set(col, new Cell(Type.COEF, null, cell.getValue(), cell.getSe(), cell.getSigStars()));
+		return row;
+	}
+
+	// INNER CLASSES ------------------------------------------------ //
+
+	/**
+	 * How coefficients and standard errors are laid out: as one text cell, or
+	 * as numbers in two rows or two columns.
+	 */
+	public enum Layout {
+		TEXT, ROWS, COLUMNS
+	}
+
+	public enum Type {
+		/** A term as text, e.g. {@code 0.12*** (0.03)} */
+		TEXT,
+		/** A term as numbers */
+		COEF,
+		/** A statistic as text */
+		STAT
+	}
+
+	public static final class Row {
+
+		// VARIABLES ------------------------------------------------ //
+
+		private final String label;
+
+		private final boolean stat;
+
+		private Cell[] cells = new Cell[4];
+
+		// CONSTRUCTOR ---------------------------------------------- //
+
+		private Row(String label, boolean stat) {
+			this.label = label;
+			this.stat = stat;
+		}
+
+		// PUBLIC --------------------------------------------------- //
+
+		public String getLabel() {
+			return label;
+		}
+
+		/**
+		 * @return the cell in column {@code col}, or {@code null}
+		 */
+		public Cell get(int col) {
+			return col < cells.length ? cells[col] : null;
+		}
+
+		// PRIVATE -------------------------------------------------- //
+
+		private void set(int col, Cell cell) {
+			if (col >= cells.length)
+				cells = Arrays.copyOf(cells, Math.max(col + 1, cells.length * 2));
+			cells[col] = cell;
+		}
+
+	}
+
+	public static final class Cell {
+
+		// VARIABLES ------------------------------------------------ //
+
+		private final Type type;
+
+		private final String text, stars;
+
+		private final Double value, se;
+
+		// CONSTRUCTOR ---------------------------------------------- //
+
+		private Cell(Type type, String text, Double value, Double se, String stars) {
+			this.type = type;
+			this.text = text;
+			this.value = value;
+			this.se = se;
+			this.stars = stars;
+		}
+
+		// PUBLIC --------------------------------------------------- //
+
+		public Type getType() {
+			return type;
+		}
+
+		/**
+		 * The text of {@link Type#TEXT} and {@link Type#STAT} cells.
+		 */
+		public String getText() {
+			return text;
+		}
+
+		/**
+		 * The coefficient of {@link Type#COEF} cells.
+		 */
+		public Double getValue() {
+			return value;
+		}
+
+		/**
+		 * The standard error of {@link Type#COEF} cells, if any.
+		 */
+		public Double getSe() {
+			return se;
+		}
+
+		public String getSigStars() {
+			return stars;
+		}
+
+	}
+
+}
@@ -0,0 +1,33 @@
+package de.pbc.stata;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Writes a {@link Table} to a file in some format.
+ */
+public interface TableRenderer {
+
+	void render(Table table, Path path) throws IOException;
+
+	/**
+	 * The renderer for {@code format} ({@code csv}, {@code tsv} or {@code txt}),
+	 * or {@code null} for Excel.
+	 */
+	static TableRenderer forFormat(String format) {
+		switch (format.toLowerCase(Locale.ROOT)) {
+			case "csv":
+				return DelimitedRenderer.CSV;
+			case "tsv":
+				return DelimitedRenderer.TSV;
+			case "txt":
+				return new TextRenderer();
+			case "xlsx":
+				return null;
+			default:
+				throw new IllegalArgumentException("unknown format " + format);
+		}
+	}
+
+}
@@ -15,19 +15,28 @@ public class Term {
 	public static final Function<Double, String> SIG_LEVELS = (p) -> p < .01 ? "***"
 			: p < .05 ? "**" : p < .1 ? "*" : "";
 
+	/** Flags of a term, see {@link #flags(String)}. */
+	static final int OMITTED = 1, BASE = 2, CONSTANT = 4;
+
 	// VARIABLES ---------------------------------------------------- //
 
-	private int index;
+	private final int index;
+
+	private final String name;
 
-	private String name;
+	private final int flags;
 
 	private List<Variable> vars;
 
-	private Double coef;
+	private final Double coef;
+
+	private final Double se;
+
+	private final Double p;
 
-	private Double se;
+	private String label;
 
-	private Double p;
+	private Interval interval;
 
 	// CONSTRUCTOR -------------------------------------------------- //
 
@@ -36,9 +45,25 @@ public class Term {
 	}
 
 	public Term(int index, String name, Double coef, Double se, Double p) {
+		this(index, name, null, coef, se, p);
+	}
+
+	/**
+	 * A term whose label is known already (or {@code null} to resolve it from
+	 * Stata when needed).
+	 */
+	public Term(int index, String name, String label, Double coef, Double se, Double p) {
+		this(index, name.trim(), label, coef, se, p, flags(name.trim()));
+	}
+
+	/**
+	 * A term whose flags are known already, e.g. from a {@link TermTable}.
+	 */
+	Term(int index, String name, String label, Double coef, Double se, Double p, int flags) {
 		this.index = index;
-		this.name = name.trim();
-		vars = Arrays.stream(this.name.split("#")).map(Variable::new).collect(Collectors.toList());
+		this.label = label;
+		this.name = name;
+		this.flags = flags;
 		this.coef = Objects.isNull(coef) || Data.isValueMissing(coef) ? null : coef;
 		this.se = Objects.isNull(se) || Data.isValueMissing(se) ? null : se;
 		this.p = p;
@@ -54,35 +79,77 @@ public class Term {
 		return name;
 	}
 
+	/**
+	 * Resolved from Stata on first call and kept afterwards.
+	 */
 	public String getLabel() {
-		return vars.stream().collect(Collectors.groupingBy((e) -> e.getName())).entrySet().stream().map((e) -> {
-			int power = e.getValue().size();
-			if (power <= 3)
-				return e.getValue().get(0).getLabel() + (power == 1 ? "" : power == 2 ? "²" : "³");
-			else
-				return e.getValue().stream().map((e1) -> e1.getLabel()).collect(Collectors.joining(" * "));
-		}).collect(Collectors.joining(" * "));
+		if (Objects.isNull(label))
+			label = buildLabel();
+		return label;
 	}
 
+	/**
+	 * Parsed on first call.
+	 */
 	public List<Variable> getVariables() {
+		if (Objects.isNull(vars))
+			vars = Arrays.stream(name.split("#")).map(Variable::new).collect(Collectors.toList());
 		return vars;
 	}
 
+	/**
+	 * {@link #OMITTED}, {@link #BASE} and {@link #CONSTANT}.
+	 */
+	int getFlags() {
+		return flags;
+	}
+
 	public boolean isOmitted() {
-		return !isBase() && vars.stream().anyMatch((v) -> v.isOmitted());
+		return (flags & OMITTED) != 0;
 	}
 
 	public boolean isBase() {
-		return vars.stream().anyMatch((v) -> v.isBase());
+		return (flags & BASE) != 0;
 	}
 
 	public boolean isConstant() {
-		return getName().equals("_cons");
+		return (flags & CONSTANT) != 0;
+	}
+
+	/**
+	 * {@link #OMITTED}, {@link #BASE} and {@link #CONSTANT} of the term
+	 * {@code name}, read from its factor-variable prefixes without creating
+	 * {@link Variable}s. A term is base if any of its variables is and
+	 * omitted if any is but it's not base.
+	 */
+	static int flags(String name) {
+		if (name.equals("_cons"))
+			return CONSTANT;
+
+		boolean omitted = false, base = false;
+		for (String var : name.split("#")) {
+			int varFlags = Variable.flags(var);
+			omitted |= (varFlags & OMITTED) != 0;
+			base |= (varFlags & BASE) != 0;
+		}
+		return base ? BASE : omitted ? OMITTED : 0;
+	}
+
+	public Double getCoef() {
+		return coef;
+	}
+
+	public Double getSe() {
+		return se;
+	}
+
+	public Double getP() {
+		return p;
 	}
 
 	public String getCoefficient(int scale) {
 		if (Objects.nonNull(coef)) {
-			return StataUtils.correctRounding(coef, scale);
+			return DecimalFormatter.format(coef, scale);
 		} else {
 			return "";
 		}
@@ -90,7 +157,7 @@ public class Term {
 
 	public String getStandardError(int scale) {
 		if (Objects.nonNull(se)) {
-			return StataUtils.correctRounding(se, scale);
+			return DecimalFormatter.format(se, scale);
 		} else {
 			return "";
 		}
@@ -104,8 +171,81 @@ public class Term {
 		}
 	}
 
+	/**
+	 * The confidence interval, if one was computed apart from the standard
+	 * error (see {@link BootstrapResult}); {@code null} otherwise.
+	 */
+	public Interval getInterval() {
+		return interval;
+	}
+
+	/**
+	 * A copy with the confidence interval {@code interval} and the p-value
+	 * {@code p}.
+	 */
+	Term withInterval(Interval interval, Double p) {
+		Term term = new Term(index, name, label, coef, se, p, flags);
+		term.vars = vars;
+		term.interval = interval;
+		return term;
+	}
+
 	public String toString() {
 		return String.format("%s %s=%s (%s %s)", index, name, coef, se, p);
 	}
 
+	// PRIVATE ------------------------------------------------------ //
+
+	private String buildLabel() {
+		return getVariables().stream().collect(Collectors.groupingBy((e) -> e.getName())).entrySet().stream().map((e) -> {
+			int power = e.getValue().size();
+			if (power <= 3)
+				return e.getValue().get(0).getLabel() + (power == 1 ? "" : power == 2 ? "²" : "³");
+			else
+				return e.getValue().stream().map((e1) -> e1.getLabel()).collect(Collectors.joining(" * "));
+		}).collect(Collectors.joining(" * "));
+	}
+
+
+	// INNER CLASSES ------------------------------------------------ //
+
+	public static final class Interval {
+
+		// VARIABLES ------------------------------------------------ //
+
+		private final String name;
+
+		private final Double lower, upper;
+
+		// CONSTRUCTOR ---------------------------------------------- //
+
+		/**
+		 * @param name
+		 *            how the interval was computed, e.g. {@code 95% CI, BCa}
+		 */
+		public Interval(String name, Double lower, Double upper) {
+			this.name = name;
+			this.lower = lower;
+			this.upper = upper;
+		}
+
+		// PUBLIC --------------------------------------------------- //
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * {@code null} if it can't be computed.
+		 */
+		public Double getLower() {
+			return lower;
+		}
+
+		public Double getUpper() {
+			return upper;
+		}
+
+	}
+
 }
\ No newline at end of file
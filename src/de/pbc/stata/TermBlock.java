@@ -0,0 +1,64 @@
+package de.pbc.stata;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * <p>
+ * The terms of a factor variable, or an interaction of factor variables, that
+ * are written as a single indicator row (e.g. "Firm FE: Yes") instead of one
+ * row per level. The coefficients are kept and can be read from
+ * {@link #getTerms()}.
+ * </p>
+ * <p>
+ * Created by {@link TermFilter#blocks(List)}.
+ * </p>
+ */
+public final class TermBlock {
+	
+	// VARIABLES ---------------------------------------------------- //
+	
+	private final String stem;
+	
+	private final List<Term> terms;
+	
+	private String label;
+	
+	// CONSTRUCTOR -------------------------------------------------- //
+	
+	TermBlock(String stem, List<Term> terms) {
+		this.stem = stem;
+		this.terms = terms;
+	}
+	
+	// PUBLIC ------------------------------------------------------- //
+	
+	/**
+	 * The variable names without levels, e.g. {@code year#industry}.
+	 */
+	public String getStem() {
+		return stem;
+	}
+	
+	/**
+	 * Label of the indicator row, e.g. "Year * Industry FE". Resolved from
+	 * Stata on first call and kept afterwards.
+	 */
+	public String getLabel() {
+		if (Objects.isNull(label))
+			label = Arrays.stream(stem.split("#")).map((v) -> new Variable(v).getLabel())
+					.collect(Collectors.joining(" * ")) + " FE";
+		return label;
+	}
+	
+	public List<Term> getTerms() {
+		return terms;
+	}
+	
+	public int size() {
+		return terms.size();
+	}
+	
+}
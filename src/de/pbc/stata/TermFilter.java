@@ -0,0 +1,247 @@
+package de.pbc.stata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.IntFunction;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * <p>
+ * Decides which terms of a model are written, and in which order. Works on
+ * term names (as in {@code r(table)}, e.g. {@code 1.treated#c.x}) and flags,
+ * so for terms in a {@link TermTable} nothing is created for dropped rows.
+ * </p>
+ * <p>
+ * {@code keep}, {@code drop} and {@code order} take Stata-style patterns,
+ * where {@code *} matches any characters and {@code ?} a single one. Terms
+ * matching {@code order} come first, in the order of the patterns; all other
+ * terms keep their position. {@code hideOmitted} and {@code hideBase} never
+ * drop the constant.
+ * </p>
+ * <p>
+ * {@code collapse} patterns match factor-variable stems, i.e. the names of
+ * indicator terms without their levels ({@code 2001.year#3.industry} has the
+ * stem {@code year#industry}). Matching terms aren't written; they are
+ * grouped into {@link TermBlock}s instead. With {@code minLevels}, a stem is
+ * only collapsed in models where it has at least that many terms, so that
+ * e.g. a treatment dummy stays a row while fixed effects are collapsed.
+ * </p>
+ */
+public class TermFilter {
+	
+	// CONSTANTS ---------------------------------------------------- //
+	
+	public static final TermFilter NONE = new TermFilter(false, false);
+	
+	// VARIABLES ---------------------------------------------------- //
+	
+	private final boolean hideOmitted, hideBase;
+	
+	private final Pattern keep, drop, collapse;
+	
+	private final int minLevels;
+	
+	private final List<Pattern> order;
+	
+	// CONSTRUCTOR -------------------------------------------------- //
+	
+	public TermFilter(boolean hideOmitted, boolean hideBase) {
+		this(hideOmitted, hideBase, null, null, null, null);
+	}
+	
+	public TermFilter(boolean hideOmitted, boolean hideBase, List<String> keep, List<String> drop,
+			List<String> order, List<String> collapse) {
+		this(hideOmitted, hideBase, keep, drop, order, collapse, 0);
+	}
+	
+	/**
+	 * @param keep
+	 *            patterns of the terms to keep, or {@code null} for all
+	 * @param drop
+	 *            patterns of the terms to drop, or {@code null}
+	 * @param order
+	 *            patterns of the terms to put first, or {@code null}
+	 * @param collapse
+	 *            patterns of the factor-variable stems to collapse, or
+	 *            {@code null}
+	 * @param minLevels
+	 *            the number of terms a stem needs in a model to be collapsed;
+	 *            0 for any
+	 */
+	public TermFilter(boolean hideOmitted, boolean hideBase, List<String> keep, List<String> drop,
+			List<String> order, List<String> collapse, int minLevels) {
+		this.hideOmitted = hideOmitted;
+		this.hideBase = hideBase;
+		this.keep = Objects.isNull(keep) ? null : compile(keep);
+		this.drop = Objects.isNull(drop) ? null : compile(drop);
+		this.order = Objects.isNull(order) ? null : order.stream().map((p) -> compile(List.of(p))).toList();
+		this.collapse = Objects.isNull(collapse) ? null : compile(collapse);
+		this.minLevels = minLevels;
+	}
+	
+	// PUBLIC ------------------------------------------------------- //
+	
+	/**
+	 * The accepted {@code terms} in order, or {@code terms} itself if this
+	 * filter keeps everything.
+	 */
+	public List<Term> apply(List<Term> terms) {
+		if (this == NONE || terms == null)
+			return terms;
+		
+		TermTable table = TermTable.of(terms);
+		Set<String> collapsed = collapsed(terms, table);
+		if (table != null) {
+			int[] rows = IntStream.range(0, table.size())
+					.filter((row) -> accept(table.getName(row), table.getStem(row), table.getFlags(row), collapsed))
+					.toArray();
+			if (Objects.nonNull(order))
+				rows = sort(rows, table::getName);
+			return table.select(rows).asList();
+		} else {
+			List<Term> accepted = terms.stream()
+					.filter((t) -> accept(t.getName(), Objects.isNull(collapse) ? null : TermTable.stem(t.getName()),
+							t.getFlags(), collapsed))
+					.collect(Collectors.toCollection(ArrayList::new));
+			if (Objects.nonNull(order))
+				accepted.sort(Comparator.comparingInt((t) -> rank(t.getName())));
+			return List.copyOf(accepted);
+		}
+	}
+	
+	/**
+	 * The terms of {@code terms} that are collapsed, grouped by their stems in
+	 * order of appearance. Empty if nothing is collapsed.
+	 */
+	public List<TermBlock> blocks(List<Term> terms) {
+		if (Objects.isNull(collapse) || terms == null)
+			return List.of();
+		
+		// stem -> rows, built from the distinct names only
+		Map<String, List<Integer>> index = new LinkedHashMap<>();
+		TermTable table = TermTable.of(terms);
+		Set<String> collapsed = collapsed(terms, table);
+		for (int row = 0; row < terms.size(); row++) {
+			String name = Objects.nonNull(table) ? table.getName(row) : terms.get(row).getName();
+			String stem = Objects.nonNull(table) ? table.getStem(row) : TermTable.stem(name);
+			if (Objects.nonNull(stem) && collapsed.contains(stem) && matches(name))
+				index.computeIfAbsent(stem, (k) -> new ArrayList<>()).add(row);
+		}
+		
+		List<TermBlock> blocks = new ArrayList<>(index.size());
+		for (Map.Entry<String, List<Integer>> e : index.entrySet()) {
+			int[] rows = e.getValue().stream().mapToInt(Integer::intValue).toArray();
+			List<Term> blockTerms = Objects.nonNull(table) ? table.select(rows).asList()
+					: Arrays.stream(rows).mapToObj(terms::get).toList();
+			blocks.add(new TermBlock(e.getKey(), blockTerms));
+		}
+		return blocks;
+	}
+	
+	// PRIVATE ------------------------------------------------------ //
+	
+	/**
+	 * @param stem
+	 *            see {@link TermTable#stem(String)}
+	 * @param flags
+	 *            {@link Term#OMITTED}, {@link Term#BASE} and
+	 *            {@link Term#CONSTANT}
+	 * @param collapsed
+	 *            see {@link #collapsed(List, TermTable)}
+	 */
+	private boolean accept(String name, String stem, int flags, Set<String> collapsed) {
+		if (!matches(name))
+			return false;
+		if (Objects.nonNull(stem) && collapsed.contains(stem))
+			return false;
+		if ((flags & Term.CONSTANT) != 0)
+			return true;
+		return !(hideOmitted && (flags & Term.OMITTED) != 0) && !(hideBase && (flags & Term.BASE) != 0);
+	}
+	
+	/**
+	 * {@code keep} and {@code drop}.
+	 */
+	private boolean matches(String name) {
+		if (Objects.nonNull(keep) && !keep.matcher(name).matches())
+			return false;
+		return !(Objects.nonNull(drop) && drop.matcher(name).matches());
+	}
+	
+	/**
+	 * The stems of {@code terms} that are collapsed: those matching
+	 * {@code collapse} with at least {@code minLevels} terms. The patterns are
+	 * matched once per distinct stem.
+	 * 
+	 * @param table
+	 *            {@code terms} as {@link TermTable}, or {@code null}
+	 */
+	private Set<String> collapsed(List<Term> terms, TermTable table) {
+		if (Objects.isNull(collapse))
+			return Set.of();
+		
+		Map<String, Integer> levels = new HashMap<>();
+		for (int row = 0; row < terms.size(); row++) {
+			String stem = Objects.nonNull(table) ? table.getStem(row) : TermTable.stem(terms.get(row).getName());
+			if (Objects.nonNull(stem))
+				levels.merge(stem, 1, Integer::sum);
+		}
+		
+		return levels.entrySet().stream()
+				.filter((e) -> e.getValue() >= minLevels && collapse.matcher(e.getKey()).matches())
+				.map(Map.Entry::getKey).collect(Collectors.toSet());
+	}
+	
+	/**
+	 * Stable sort of {@code rows} by {@link #rank(String)} of their names.
+	 */
+	private int[] sort(int[] rows, IntFunction<String> names) {
+		int[] ranks = new int[rows.length];
+		for (int i = 0; i < rows.length; i++)
+			ranks[i] = rank(names.apply(rows[i]));
+		return IntStream.range(0, rows.length).boxed().sorted(Comparator.comparingInt((i) -> ranks[i]))
+				.mapToInt((i) -> rows[i]).toArray();
+	}
+	
+	/**
+	 * Index of the first {@code order} pattern that matches {@code name}, or
+	 * the number of patterns if none does.
+	 */
+	private int rank(String name) {
+		for (int i = 0; i < order.size(); i++) {
+			if (order.get(i).matcher(name).matches())
+				return i;
+		}
+		return order.size();
+	}
+	
+	/**
+	 * One regular expression for any of the Stata {@code patterns}.
+	 */
+	static Pattern compile(List<String> patterns) {
+		StringBuilder regex = new StringBuilder();
+		for (String pattern : patterns) {
+			if (regex.length() > 0)
+				regex.append('|');
+			for (String part : pattern.split("(?=[*?])|(?<=[*?])")) {
+				if (part.equals("*"))
+					regex.append(".*");
+				else if (part.equals("?"))
+					regex.append('.');
+				else if (!part.isEmpty())
+					regex.append(Pattern.quote(part));
+			}
+		}
+		return Pattern.compile(regex.toString());
+	}
+	
+}
@@ -0,0 +1,324 @@
+package de.pbc.stata;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.function.IntPredicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.stata.sfi.Data;
+
+/**
+ * <p>
+ * The terms of a model (or an equation) as primitive columns: coefficients,
+ * standard errors and p-values as {@code double[]}, names as indexes into a
+ * {@link Names} dictionary and the term flags as bits. Missing values are
+ * {@code NaN}.
+ * </p>
+ * <p>
+ * {@link Term} objects, and the {@link Variable}s behind them, are only
+ * created for rows that are asked for through {@link #asList()}. Use
+ * {@link #select(IntPredicate)} to drop rows before that.
+ * </p>
+ */
+public final class TermTable {
+
+	// CONSTANTS ---------------------------------------------------- //
+
+	/** A factor-variable level, e.g. {@code 3.year} or {@code 1bn.firm}. */
+	private static final Pattern INDICATOR = Pattern.compile("(?i)^\\d+[bno]*\\.(.+)$");
+
+	// VARIABLES ---------------------------------------------------- //
+
+	private final Names names;
+
+	private final int size;
+
+	private final int[] index, name;
+
+	private final double[] coef, se, p;
+
+	private final Term[] terms;
+
+	private final List<Term> list;
+
+	// CONSTRUCTOR -------------------------------------------------- //
+
+	private TermTable(Names names, int size, int[] index, int[] name, double[] coef, double[] se, double[] p) {
+		this.names = names;
+		this.size = size;
+		this.index = index;
+		this.name = name;
+		this.coef = coef;
+		this.se = se;
+		this.p = p;
+		this.terms = new Term[size];
+		this.list = new TermList();
+	}
+
+	// PUBLIC ------------------------------------------------------- //
+
+	/**
+	 * The table behind {@code terms} if it is the {@link #asList()} of one,
+	 * otherwise {@code null}.
+	 */
+	public static TermTable of(List<Term> terms) {
+		return terms instanceof TermTable.TermList ? ((TermTable.TermList) terms).table() : null;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getIndex(int row) {
+		return index[row];
+	}
+
+	public String getName(int row) {
+		return names.get(name[row]);
+	}
+
+	public double getCoef(int row) {
+		return coef[row];
+	}
+
+	public double getSe(int row) {
+		return se[row];
+	}
+
+	public double getP(int row) {
+		return p[row];
+	}
+
+	/**
+	 * {@link Term#OMITTED}, {@link Term#BASE} and {@link Term#CONSTANT}.
+	 */
+	public int getFlags(int row) {
+		return names.getFlags(name[row]);
+	}
+
+	/**
+	 * See {@link #stem(String)}.
+	 */
+	public String getStem(int row) {
+		return names.getStem(name[row]);
+	}
+
+	/**
+	 * The factor-variable stem of an indicator term, i.e. its variable names
+	 * without levels ({@code year#industry} for {@code 2001.year#3b.industry}),
+	 * or {@code null} if any part of the term isn't an indicator.
+	 */
+	public static String stem(String name) {
+		StringBuilder stem = new StringBuilder(name.length());
+		for (String part : name.split("#")) {
+			Matcher m = INDICATOR.matcher(part);
+			if (!m.matches())
+				return null;
+			if (stem.length() > 0)
+				stem.append('#');
+			stem.append(m.group(1));
+		}
+		return stem.toString();
+	}
+
+	/**
+	 * The rows as (unmodifiable) list of terms, each created on first access
+	 * and kept afterwards.
+	 */
+	public List<Term> asList() {
+		return list;
+	}
+
+	/**
+	 * A table of the rows for which {@code rows} is true, sharing the names.
+	 * Doesn't create any terms.
+	 */
+	public TermTable select(IntPredicate rows) {
+		Builder b = new Builder(names);
+		for (int row = 0; row < size; row++) {
+			if (rows.test(row))
+				b.add(index[row], name[row], coef[row], se[row], p[row]);
+		}
+		return b.build();
+	}
+
+	/**
+	 * The rows in the order of {@code rows}.
+	 */
+	public TermTable select(int[] rows) {
+		Builder b = new Builder(names);
+		for (int row : rows)
+			b.add(index[row], name[row], coef[row], se[row], p[row]);
+		return b.build();
+	}
+
+	// PRIVATE ------------------------------------------------------ //
+
+	private Term term(int row) {
+		Term term = terms[row];
+		if (Objects.isNull(term)) {
+			term = new Term(index[row], names.get(name[row]), null, toDouble(coef[row]), toDouble(se[row]),
+					toDouble(p[row]), names.getFlags(name[row]));
+			terms[row] = term;
+		}
+		return term;
+	}
+
+	private static Double toDouble(double val) {
+		return Double.isNaN(val) ? null : val;
+	}
+
+	// INNER CLASSES ------------------------------------------------ //
+
+	/**
+	 * Term names, each stored (and its flags parsed) once, e.g. for all
+	 * equations of a model.
+	 */
+	public static final class Names {
+
+		// VARIABLES ------------------------------------------------ //
+
+		private final Map<String, Integer> ids = new HashMap<>();
+
+		private final List<String> names = new ArrayList<>();
+
+		private int[] flags = new int[16];
+
+		private String[] stems = new String[16];
+
+		// PUBLIC --------------------------------------------------- //
+
+		public int intern(String name) {
+			Integer id = ids.get(name);
+			if (Objects.isNull(id)) {
+				id = names.size();
+				names.add(name);
+				ids.put(name, id);
+				if (id == flags.length) {
+					flags = Arrays.copyOf(flags, id * 2);
+					stems = Arrays.copyOf(stems, id * 2);
+				}
+				flags[id] = Term.flags(name);
+			}
+			return id;
+		}
+
+		public String get(int id) {
+			return names.get(id);
+		}
+
+		public int getFlags(int id) {
+			return flags[id];
+		}
+
+		/**
+		 * Parsed on first call; "" for terms without a stem.
+		 */
+		public String getStem(int id) {
+			if (Objects.isNull(stems[id])) {
+				String stem = stem(names.get(id));
+				stems[id] = Objects.isNull(stem) ? "" : stem;
+			}
+			return stems[id].isEmpty() ? null : stems[id];
+		}
+
+		public int size() {
+			return names.size();
+		}
+
+	}
+
+	public static final class Builder {
+
+		// VARIABLES ------------------------------------------------ //
+
+		private final Names names;
+
+		private int size;
+
+		private int[] index, name;
+
+		private double[] coef, se, p;
+
+		// CONSTRUCTOR ---------------------------------------------- //
+
+		public Builder() {
+			this(new Names());
+		}
+
+		public Builder(Names names) {
+			this.names = names;
+			index = new int[16];
+			name = new int[16];
+			coef = new double[16];
+			se = new double[16];
+			p = new double[16];
+		}
+
+		// PUBLIC --------------------------------------------------- //
+
+		/**
+		 * Adds a term; Stata's missing values are stored as {@code NaN}.
+		 */
+		public Builder add(int index, String name, double coef, double se, double p) {
+			return add(index, names.intern(name.trim()), coef, se, p);
+		}
+
+		public TermTable build() {
+			return new TermTable(names, size, Arrays.copyOf(index, size), Arrays.copyOf(name, size),
+					Arrays.copyOf(coef, size), Arrays.copyOf(se, size), Arrays.copyOf(p, size));
+		}
+
+		// PRIVATE -------------------------------------------------- //
+
+		private Builder add(int index, int name, double coef, double se, double p) {
+			if (size == this.index.length) {
+				int capacity = size * 2;
+				this.index = Arrays.copyOf(this.index, capacity);
+				this.name = Arrays.copyOf(this.name, capacity);
+				this.coef = Arrays.copyOf(this.coef, capacity);
+				this.se = Arrays.copyOf(this.se, capacity);
+				this.p = Arrays.copyOf(this.p, capacity);
+			}
+			this.index[size] = index;
+			this.name[size] = name;
+			this.coef[size] = missing(coef);
+			this.se[size] = missing(se);
+			this.p[size] = p;
+			size++;
+			return this;
+		}
+
+		private static double missing(double val) {
+			return Data.isValueMissing(val) ? Double.NaN : val;
+		}
+
+	}
+
+	private class TermList extends AbstractList<Term> implements RandomAccess {
+
+		TermTable table() {
+			return TermTable.this;
+		}
+
+		@Override
+		public Term get(int row) {
+			Objects.checkIndex(row, size);
+			return term(row);
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+	}
+
+}
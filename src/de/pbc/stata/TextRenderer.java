@@ -0,0 +1,66 @@
+package de.pbc.stata;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes tables as fixed-width text, e.g. to preview them in Stata's results
+ * window: labels left-aligned, models right-aligned, and a rule below the
+ * header and above the statistics.
+ */
+public class TextRenderer implements TableRenderer {
+
+	// CONSTANTS ---------------------------------------------------- //
+
+	private static final String GAP = "  ";
+
+	// PUBLIC ------------------------------------------------------- //
+
+	@Override
+	public void render(Table table, Path path) throws IOException {
+		try (BufferedWriter out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+			out.write(render(table));
+		}
+	}
+
+	/**
+	 * The table as text, lines ending with {@code \n}.
+	 */
+	public String render(Table table) {
+		List<String[]> rows = new ArrayList<>();
+		table.forEachRow((row) -> rows.add(row.clone()));
+
+		int[] widths = new int[rows.get(0).length];
+		for (String[] row : rows) {
+			for (int i = 0; i < row.length; i++)
+				widths[i] = Math.max(widths[i], row[i].length());
+		}
+		int total = 0;
+		for (int w : widths)
+			total += w;
+		String rule = "-".repeat(total + GAP.length() * (widths.length - 1)) + "\n";
+
+		StringBuilder sb = new StringBuilder();
+		int stats = rows.size() - table.getStats().size();
+		for (int r = 0; r < rows.size(); r++) {
+			if (r == stats && r > 1)
+				sb.append(rule);
+
+			String[] row = rows.get(r);
+			sb.append(row[0]).append(" ".repeat(widths[0] - row[0].length()));
+			for (int i = 1; i < row.length; i++)
+				sb.append(GAP).append(" ".repeat(widths[i] - row[i].length())).append(row[i]);
+			sb.append('\n');
+
+			if (r == 0)
+				sb.append(rule);
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,383 @@
+package de.pbc.stata;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import com.stata.sfi.Macro;
+import com.stata.sfi.SFIToolkit;
+
+/**
+ * <p>
+ * Stata Java plugin to append the active estimation to a tidy, long-format
+ * file for use outside Stata (R, Python etc.): a row per equation and term,
+ * followed by a row per statistic, with the columns {@code model}, {@code dv},
+ * {@code equation}, {@code kind} ({@code term} or {@code stat}), {@code term}
+ * (the coefficient or e() scalar name), {@code label}, {@code coef} (the
+ * statistic's value for statistics), {@code se}, {@code p} and {@code stars}.
+ * </p>
+ * <p>
+ * Each call appends the model's rows, in O(model) whatever the size of the
+ * file; earlier rows are never rewritten. The file is locked while appending,
+ * so parallel Stata processes can append to the same file.
+ * </p>
+ * <p>
+ * Files are written as CSV (UTF-8, CRLF line ends, a header line) or as
+ * columnar binary file, big endian:
+ * <ul>
+ * <li>header: {@code int} magic ("SOET"), {@code int} version, {@code int}
+ * number of models, {@code long} end of the last model</li>
+ * <li>per model: {@code int} length of the block, {@code int} rows n, model
+ * and dv, then the columns equation, kind ({@code byte}, 0 for terms), term,
+ * label, coef, se, p and stars, each as n values; strings as {@code int}
+ * length and UTF-8 bytes (-1 for missing), numbers as {@code double}s (NaN
+ * for missing)</li>
+ * </ul>
+ * The header is updated after the block is written; anything beyond the end
+ * it gives is incomplete and to be ignored.
+ * </p>
+ * <p>
+ * Takes the following arguments:
+ * <ul>
+ * <li>{@code path=}: path of output file (tidy.csv default)</li>
+ * <li>{@code format=}: {@code csv} or {@code bin}; taken from the extension of
+ * {@code path=} otherwise</li>
+ * <li>{@code name=}: the model's identifier; the number of the model in the
+ * file otherwise</li>
+ * <li>{@code stats=}: the statistics, as for {@link RegOut2}</li>
+ * <li>{@code hideomitted}, {@code hidebase}: leave out omitted and base
+ * terms</li>
+ * <li>{@code timing}: display how long each phase of the export took</li>
+ * </ul>
+ * </p>
+ */
+public class TidyOut {
+
+	// CONSTANTS ---------------------------------------------------- //
+
+	private static final int MAGIC = 0x534f4554; // "SOET"
+
+	private static final int VERSION = 1;
+
+	private static final int HEADER = 20;
+
+	private static final String[] COLUMNS = { "model", "dv", "equation", "kind", "term", "label", "coef", "se", "p",
+			"stars" };
+
+	/** Bytes read from the end of a CSV file to find the last model. */
+	private static final int TAIL = 1 << 16;
+
+	// ENTRY POINT --------------------------------------------------- //
+
+	public static int start(String[] args) {
+		return new TidyOut().execute(args);
+	}
+
+	// PUBLIC ------------------------------------------------------- //
+
+	@SuppressWarnings("try") // the timing phases are only closed, not used
+	public int execute(String[] args) {
+		List<String> argsList = Arrays.asList(args).stream().map((s) -> s.toLowerCase()).collect(Collectors.toList());
+		Timing timing = new Timing("tidyout", argsList.contains("timing"));
+
+		Path path = Path.of(SFIToolkit.getWorkingDir()).resolve(argsList.stream().filter((a) -> a.startsWith("path="))
+				.findFirst().map((a) -> a.substring("path=".length())).orElse("tidy.csv"));
+		boolean bin = argsList.stream().filter((a) -> a.startsWith("format=")).findFirst()
+				.map((a) -> a.equals("format=bin")).orElseGet(() -> path.toString().toLowerCase().endsWith(".bin"));
+		String name = Arrays.stream(args).filter((a) -> a.toLowerCase().startsWith("name=")).findFirst()
+				.map((a) -> a.substring("name=".length())).orElse(null);
+		List<String> stats = RegOut2.listOption(args, "stats");
+		boolean hideOmitted = argsList.contains("hideomitted"), hideBase = argsList.contains("hidebase");
+
+		try {
+			String cmd = Macro.getGlobal("cmd", Macro.TYPE_ERETURN);
+			if (cmd == null)
+				throw new RuntimeException("no estimation stored");
+
+			ModelSnapshot model;
+			try (Timing.Phase phase = timing.phase("read")) {
+				model = ModelSnapshot.of(Models.byCmd(cmd), stats,
+						hideOmitted || hideBase ? new TermFilter(hideOmitted, hideBase) : TermFilter.NONE);
+			}
+
+			List<Row> rows = rows(model);
+			String id;
+			try (Timing.Phase phase = timing.phase("append")) {
+				id = bin ? appendBinary(path, name, model.getDv().getName(), rows)
+						: appendCsv(path, name, model.getDv().getName(), rows);
+				phase.cells(rows.size() * (long) COLUMNS.length);
+			}
+			timing.report();
+
+			SFIToolkit.displayln(String.format("model %s (%d rows) appended to %s", id, rows.size(), path));
+			return 0;
+		} catch (Exception e) {
+			SFIToolkit.error(SFIToolkit.stackTraceToString(e));
+			return 45;
+		}
+	}
+
+	// PRIVATE ------------------------------------------------------ //
+
+	/**
+	 * The terms of each equation, then the equation and model statistics.
+	 */
+	private List<Row> rows(ModelResult model) {
+		List<Row> rows = new ArrayList<>();
+		List<String> equations = model.hasMultipleEquations() ? model.getEquations() : null;
+		if (Objects.isNull(equations)) {
+			for (Term term : model.getTerms())
+				rows.add(new Row(null, term));
+		} else {
+			for (String eq : equations) {
+				for (Term term : model.getTerms(eq))
+					rows.add(new Row(eq, term));
+			}
+			for (String eq : equations) {
+				List<ModelStat> eqStats = model.getEquationStats(eq);
+				if (Objects.nonNull(eqStats)) {
+					for (ModelStat stat : eqStats)
+						rows.add(new Row(eq, stat));
+				}
+			}
+		}
+		if (Objects.nonNull(model.getModelStats())) {
+			for (ModelStat stat : model.getModelStats())
+				rows.add(new Row(null, stat));
+		}
+		return rows;
+	}
+
+	/**
+	 * @return the model's identifier
+	 */
+	@SuppressWarnings("try") // the lock is only held, not used
+	private String appendCsv(Path path, String name, String dv, List<Row> rows) throws IOException {
+		try (FileChannel ch = open(path); FileLock lock = ch.lock()) {
+			StringBuilder sb = new StringBuilder();
+			String id = name;
+			if (ch.size() == 0) {
+				sb.append(String.join(",", COLUMNS)).append("\r\n");
+				if (Objects.isNull(id))
+					id = "1";
+			} else if (Objects.isNull(id)) {
+				id = String.valueOf(lastCsvModel(path, ch) + 1);
+			}
+
+			for (Row row : rows) {
+				String[] fields = { id, dv, row.equation, row.stat ? "stat" : "term", row.term, row.label,
+						number(row.coef), number(row.se), number(row.p), row.stars };
+				for (int i = 0; i < fields.length; i++) {
+					if (i > 0)
+						sb.append(',');
+					appendField(sb, Objects.isNull(fields[i]) ? "" : fields[i]);
+				}
+				sb.append("\r\n");
+			}
+
+			write(ch, StandardCharsets.UTF_8.encode(sb.toString()), ch.size());
+			ch.force(false);
+			return id;
+		}
+	}
+
+	/**
+	 * The identifier of the last model of a CSV file, which has to be a
+	 * number, read from the file's last line.
+	 */
+	private long lastCsvModel(Path path, FileChannel ch) throws IOException {
+		long size = ch.size();
+		ByteBuffer buf = ByteBuffer.allocate((int) Math.min(TAIL, size));
+		long pos = size - buf.capacity();
+		while (buf.hasRemaining() && ch.read(buf, pos + buf.position()) >= 0)
+			;
+		String tail = new String(buf.array(), StandardCharsets.UTF_8).stripTrailing();
+		String last = tail.substring(tail.lastIndexOf('\n') + 1);
+		String field = last.substring(0, Math.max(0, last.indexOf(',')));
+
+		if (field.equals("model"))
+			return 0;
+		try {
+			return Long.parseLong(field);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(
+					String.format("the last model of %s is named (%s), so name= is required", path, field));
+		}
+	}
+
+	/**
+	 * @return the model's identifier
+	 */
+	@SuppressWarnings("try") // the lock is only held, not used
+	private String appendBinary(Path path, String name, String dv, List<Row> rows) throws IOException {
+		try (FileChannel ch = open(path); FileLock lock = ch.lock()) {
+			int models = 0;
+			long end = HEADER;
+			if (ch.size() < HEADER) {
+				write(ch, ByteBuffer.allocate(HEADER).putInt(MAGIC).putInt(VERSION).putInt(0).putLong(HEADER).flip(), 0);
+			} else {
+				ByteBuffer header = ByteBuffer.allocate(HEADER);
+				while (header.hasRemaining() && ch.read(header, header.position()) >= 0)
+					;
+				header.flip();
+				if (header.getInt() != MAGIC)
+					throw new IOException(path + " is not a tidy file");
+				if (header.getInt() != VERSION)
+					throw new IOException(path + " was written by an incompatible version");
+				models = header.getInt();
+				end = header.getLong();
+			}
+			String id = Objects.isNull(name) ? String.valueOf(models + 1) : name;
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (DataOutputStream out = new DataOutputStream(bytes)) {
+				out.writeInt(0);
+				out.writeInt(rows.size());
+				writeString(out, id);
+				writeString(out, dv);
+				for (Row row : rows)
+					writeString(out, row.equation);
+				for (Row row : rows)
+					out.writeByte(row.stat ? 1 : 0);
+				for (Row row : rows)
+					writeString(out, row.term);
+				for (Row row : rows)
+					writeString(out, row.label);
+				for (Row row : rows)
+					writeDouble(out, row.coef);
+				for (Row row : rows)
+					writeDouble(out, row.se);
+				for (Row row : rows)
+					writeDouble(out, row.p);
+				for (Row row : rows)
+					writeString(out, row.stars);
+			}
+
+			// anything after the last complete block is overwritten
+			ByteBuffer block = ByteBuffer.wrap(bytes.toByteArray());
+			block.putInt(0, block.capacity() - Integer.BYTES);
+			write(ch, block, end);
+			ch.truncate(end + block.capacity());
+			ch.force(false);
+			write(ch, ByteBuffer.allocate(Integer.BYTES + Long.BYTES).putInt(models + 1)
+					.putLong(end + block.capacity()).flip(), 8);
+			ch.force(false);
+			return id;
+		}
+	}
+
+	private static FileChannel open(Path path) throws IOException {
+		return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+
+	private static void write(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+		while (buf.hasRemaining())
+			pos += ch.write(buf, pos);
+	}
+
+	/**
+	 * A CSV field, quoted if it contains a comma, a quote or a line break.
+	 */
+	private static void appendField(StringBuilder sb, String field) {
+		boolean quote = false;
+		for (int i = 0; i < field.length() && !quote; i++) {
+			char c = field.charAt(i);
+			quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+		}
+
+		if (!quote) {
+			sb.append(field);
+		} else {
+			sb.append('"');
+			for (int i = 0; i < field.length(); i++) {
+				char c = field.charAt(i);
+				if (c == '"')
+					sb.append('"');
+				sb.append(c);
+			}
+			sb.append('"');
+		}
+	}
+
+	/**
+	 * A string as {@code int} length and UTF-8 bytes; -1 for {@code null}.
+	 */
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		if (Objects.isNull(s)) {
+			out.writeInt(-1);
+		} else {
+			byte[] b = s.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(b.length);
+			out.write(b);
+		}
+	}
+
+	/**
+	 * NaN for {@code null}.
+	 */
+	private static void writeDouble(DataOutputStream out, Double d) throws IOException {
+		out.writeDouble(Objects.isNull(d) ? Double.NaN : d);
+	}
+
+	/**
+	 * Full precision, as the shortest decimal that reads back to the same
+	 * double; whole numbers (N, df) without decimals.
+	 */
+	private static String number(Double d) {
+		if (Objects.isNull(d) || d.isNaN())
+			return null;
+		if (d == Math.rint(d) && Math.abs(d) < 1e15)
+			return String.valueOf(d.longValue());
+		return String.valueOf(d);
+	}
+
+	// INNER CLASSES ------------------------------------------------ //
+
+	private static final class Row {
+
+		// VARIABLES ------------------------------------------------ //
+
+		private final String equation, term, label, stars;
+
+		private final boolean stat;
+
+		private final Double coef, se, p;
+
+		// CONSTRUCTOR ---------------------------------------------- //
+
+		private Row(String equation, Term term) {
+			this.equation = equation;
+			this.stat = false;
+			this.term = term.getName();
+			this.label = term.getLabel();
+			this.coef = term.getCoef();
+			this.se = term.getSe();
+			this.p = term.getP();
+			this.stars = term.getSigStars();
+		}
+
+		private Row(String equation, ModelStat stat) {
+			this.equation = equation;
+			this.stat = true;
+			this.term = stat.getName();
+			this.label = stat.getLabel();
+			this.coef = stat.getValue();
+			this.se = null;
+			this.p = stat.getPValue();
+			this.stars = stat.getSigStars();
+		}
+
+	}
+
+}
@@ -0,0 +1,156 @@
+package de.pbc.stata;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.stata.sfi.SFIToolkit;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * <p>
+ * Phase timings of an export (SFI reads, workbook parsing, filling cells,
+ * writing, ...). Each phase is emitted as a {@link PhaseEvent} to JDK Flight
+ * Recorder, whether or not the breakdown is displayed; the events cost nothing
+ * unless a recording is running.
+ * </p>
+ * <p>
+ * Phases with the same name are added up, e.g. {@code autosize} over all
+ * columns:
+ * </p>
+ * 
+ * <pre>
+ * try (Timing.Phase phase = timing.phase("fill")) {
+ * 	...
+ * 	phase.cells(n);
+ * }
+ * </pre>
+ */
+public class Timing {
+	
+	// VARIABLES ---------------------------------------------------- //
+	
+	private final String exporter;
+	
+	private final boolean display;
+	
+	private final long start = System.nanoTime();
+	
+	private final Map<String, long[]> phases = new LinkedHashMap<>();
+	
+	// CONSTRUCTOR -------------------------------------------------- //
+	
+	/**
+	 * @param display
+	 *            whether {@link #report()} displays the breakdown in Stata
+	 */
+	public Timing(String exporter, boolean display) {
+		this.exporter = exporter;
+		this.display = display;
+	}
+	
+	// PUBLIC ------------------------------------------------------- //
+	
+	public Phase phase(String name) {
+		return new Phase(name);
+	}
+	
+	/**
+	 * Whether {@link #report()} displays anything.
+	 */
+	public boolean isDisplayed() {
+		return display;
+	}
+	
+	/**
+	 * Displays time and cells per phase, and the total time since this timing
+	 * was created. Does nothing unless requested.
+	 */
+	public void report() {
+		if (!display)
+			return;
+		
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("{txt}timing (%s){col 32}ms{col 42}cells%n", exporter));
+		for (Map.Entry<String, long[]> e : phases.entrySet()) {
+			long[] p = e.getValue();
+			sb.append(String.format("  %s{col 22}{res}%12.1f", e.getKey(), p[0] / 1e6));
+			if (p[1] > 0)
+				sb.append(String.format("{col 36}%11d", p[1]));
+			sb.append(String.format("{txt}%n"));
+		}
+		sb.append(String.format("  total{col 22}{res}%12.1f{txt}%n", (System.nanoTime() - start) / 1e6));
+		SFIToolkit.display(sb.toString());
+	}
+	
+	// INNER CLASSES ------------------------------------------------ //
+	
+	public class Phase implements AutoCloseable {
+		
+		// VARIABLES ------------------------------------------------ //
+		
+		private final PhaseEvent event = new PhaseEvent();
+		
+		private final String name;
+		
+		private final long start;
+		
+		private long cells;
+		
+		// CONSTRUCTOR ---------------------------------------------- //
+		
+		private Phase(String name) {
+			this.name = name;
+			event.begin();
+			start = System.nanoTime();
+		}
+		
+		// PUBLIC --------------------------------------------------- //
+		
+		/**
+		 * Adds {@code n} to the cells handled in this phase.
+		 */
+		public void cells(long n) {
+			cells += n;
+		}
+		
+		@Override
+		public void close() {
+			long time = System.nanoTime() - start;
+			event.end();
+			if (event.shouldCommit()) {
+				event.exporter = exporter;
+				event.phase = name;
+				event.cells = cells;
+				event.commit();
+			}
+			
+			long[] total = phases.computeIfAbsent(name, (k) -> new long[2]);
+			total[0] += time;
+			total[1] += cells;
+		}
+		
+	}
+	
+	@Name("de.pbc.stata.ExportPhase")
+	@Label("Export Phase")
+	@Category({ "Stata Out" })
+	@Description("A phase of a Stata Out export, e.g. reading results or writing the workbook")
+	static class PhaseEvent extends Event {
+		
+		@Label("Exporter")
+		String exporter;
+		
+		@Label("Phase")
+		String phase;
+		
+		@Label("Cells")
+		long cells;
+		
+	}
+	
+}
@@ -20,8 +20,6 @@ public class Variable {
 	
 	private String format;
 	
-	private String valueLabel;
-	
 	private Integer value;
 	
 	private boolean omitted = false;
@@ -36,6 +34,8 @@ public class Variable {
 	
 	private boolean delta = false;
 	
+	private String label;
+	
 	// CONSTRUCTOR -------------------------------------------------- //
 	
 	public Variable(String name) {
@@ -72,18 +72,38 @@ public class Variable {
 		
 //		SFIToolkit.displayln(String.format("%1$s o:%2$b b:%3$b d:%4$b", this.name, omitted, base, delta));
 		
-		if (format == null)
-			this.format = Data.getVarFormat(getIndex());
-		else
-			this.format = format;
-		
-		valueLabel = ValueLabel.getVarValueLabel(getIndex());
-		if (valueLabel != null && valueLabel.length() == 0)
-			valueLabel = null;
+		// the display format and value label are looked up with the label
+		this.format = format;
+	}
+	
+	/**
+	 * A variable whose label is known already, e.g. because it was stored with
+	 * an estimation. Doesn't call into Stata.
+	 */
+	Variable(String name, String format, String label) {
+		this(name, format);
+		this.label = label;
 	}
 	
 	// PUBLIC ------------------------------------------------------- //
 	
+	/**
+	 * {@link Term#OMITTED} and {@link Term#BASE} as the constructor would set
+	 * them for {@code name}, without keeping anything.
+	 */
+	static int flags(String name) {
+		int dot = name.indexOf('.');
+		if (dot < 0)
+			return 0;
+		
+		Matcher m = FLAGS.matcher(name);
+		if (!m.matches())
+			return 0;
+		
+		String flags = m.group("flags").toLowerCase();
+		return (flags.contains("o") ? Term.OMITTED : 0) | (flags.contains("b") && !flags.contains("bn") ? Term.BASE : 0);
+	}
+	
 	public String getName() {
 		return name;
 	}
@@ -96,10 +116,36 @@ public class Variable {
 		return getIndex() <= Data.getVarCount();
 	}
 	
+	/**
+	 * Resolved from Stata on first call and kept afterwards.
+	 */
 	public String getLabel() {
+		if (label == null)
+			label = buildLabel();
+		return label;
+	}
+	
+	public boolean isOmitted() {
+		return omitted;
+	}
+	
+	public boolean isBase() {
+		return base;
+	}
+	
+	public String toString() {
+		return getLabel();
+	}
+	
+	// PRIVATE ------------------------------------------------------ //
+	
+	private String buildLabel() {
 		if (name.equals("_cons")) {
 			return "constant";
-		} else if (hasIndex()) {
+		}
+		
+		int index = getIndex();
+		if (index <= Data.getVarCount()) {
 			/*
 			 * Sometimes, Stata returns a non-empty label string, even when
 			 * there is no label defined in Stata. In this case, one can (1) try
@@ -110,7 +156,11 @@ public class Variable {
 			 * works, but it should since the case-insensitive flag was set in
 			 * the pattern.
 			 */
-			String varLabel = Data.getVarLabel(getIndex());
+			String varLabel = Data.getVarLabel(index);
+			String format = this.format != null ? this.format : Data.getVarFormat(index);
+			String valueLabel = ValueLabel.getVarValueLabel(index);
+			if (valueLabel != null && valueLabel.length() == 0)
+				valueLabel = null;
 			
 			if (varLabel.isEmpty()) {
 				varLabel = name;
@@ -142,16 +192,4 @@ public class Variable {
 		}
 	}
 	
-	public boolean isOmitted() {
-		return omitted;
-	}
-	
-	public boolean isBase() {
-		return base;
-	}
-	
-	public String toString() {
-		return getLabel();
-	}
-	
 }
\ No newline at end of file
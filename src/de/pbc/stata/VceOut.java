@@ -0,0 +1,188 @@
+package de.pbc.stata;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.stata.sfi.Data;
+import com.stata.sfi.Macro;
+import com.stata.sfi.Matrix;
+import com.stata.sfi.SFIToolkit;
+
+/**
+ * <p>
+ * Stata Java plugin to export a variance-covariance matrix ({@code e(V)} by
+ * default), e.g. for the delta method or meta-analyses outside Stata.
+ * </p>
+ * <p>
+ * The matrix is written packed, as binary file of its upper triangle, big
+ * endian:
+ * <ul>
+ * <li>header: {@code int} magic ("SOEV"), {@code int} version, {@code int}
+ * flags (1: values are {@code float}s), {@code int} dimension n</li>
+ * <li>names: n times {@code int} length and UTF-8 bytes, as
+ * {@code eq:name} for multi-equation models</li>
+ * <li>values: row i's elements i to n-1, for each row, as {@code double} (or
+ * {@code float}); missing values as NaN</li>
+ * </ul>
+ * The matrix is read element by element and written in blocks of rows, so
+ * that it is never held in memory.
+ * </p>
+ * <p>
+ * Takes the following arguments:
+ * <ul>
+ * <li>{@code path=}: path of output file (vce.bin default)</li>
+ * <li>{@code matrix=}: the matrix (e(V) default)</li>
+ * <li>{@code float}: write values as {@code float}s, which halves the file
+ * size</li>
+ * <li>{@code format=csv}: write the full matrix as CSV with names instead,
+ * for small models</li>
+ * <li>{@code timing}: display how long each phase of the export took</li>
+ * </ul>
+ * </p>
+ */
+public class VceOut {
+
+	// CONSTANTS ---------------------------------------------------- //
+
+	private static final int MAGIC = 0x534f4556; // "SOEV"
+
+	private static final int VERSION = 1;
+
+	private static final int FLOAT = 1;
+
+	private static final int BLOCK = 1 << 20;
+
+	// ENTRY POINT --------------------------------------------------- //
+
+	public static int start(String[] args) {
+		return new VceOut().execute(args);
+	}
+
+	// PUBLIC ------------------------------------------------------- //
+
+	public int execute(String[] args) {
+		List<String> argsList = Arrays.asList(args).stream().map((s) -> s.toLowerCase()).collect(Collectors.toList());
+		Timing timing = new Timing("vceout", argsList.contains("timing"));
+
+		String matrix = Arrays.stream(args).filter((a) -> a.toLowerCase().startsWith("matrix=")).findFirst()
+				.map((a) -> a.substring("matrix=".length())).orElse("e(V)");
+		boolean csv = argsList.contains("format=csv");
+		Path path = Path.of(SFIToolkit.getWorkingDir()).resolve(argsList.stream().filter((a) -> a.startsWith("path="))
+				.findFirst().map((a) -> a.substring("path=".length())).orElse(csv ? "vce.csv" : "vce.bin"));
+
+		try {
+			if (matrix.equals("e(V)") && Macro.getGlobal("cmd", Macro.TYPE_ERETURN) == null)
+				throw new RuntimeException("no estimation stored");
+
+			int n = Matrix.getMatrixRowDim(matrix);
+			if (n != Matrix.getMatrixColDim(matrix))
+				throw new IllegalArgumentException(matrix + " is not square");
+			String[] names = names(matrix);
+
+			try (Timing.Phase phase = timing.phase("write")) {
+				if (csv)
+					writeCsv(path, matrix, names);
+				else
+					writePacked(path, matrix, names, argsList.contains("float"));
+				phase.cells(csv ? (long) n * n : (long) n * (n + 1) / 2);
+			}
+			timing.report();
+
+			SFIToolkit.displayln(String.format("%s (%d x %d) written to %s", matrix, n, n, path));
+			return 0;
+		} catch (Exception e) {
+			SFIToolkit.error(SFIToolkit.stackTraceToString(e));
+			return 45;
+		}
+	}
+
+	// PRIVATE ------------------------------------------------------ //
+
+	/**
+	 * The column names, as {@code eq:name} if the matrix has equations.
+	 */
+	private String[] names(String matrix) {
+		String[] names = Matrix.getMatrixColNames(matrix);
+
+		// there is no SFI call for equation names
+		SFIToolkit.executeCommand(String.format("local coleq : coleq %s", matrix), false);
+		String[] eqs = StataUtils.getMacroArray("coleq");
+		if (eqs.length == names.length && Arrays.stream(eqs).anyMatch((eq) -> !eq.equals("_"))) {
+			for (int i = 0; i < names.length; i++)
+				names[i] = eqs[i] + ":" + names[i];
+		}
+		return names;
+	}
+
+	private void writePacked(Path path, String matrix, String[] names, boolean asFloat) throws IOException {
+		int n = names.length;
+		int size = asFloat ? Float.BYTES : Double.BYTES;
+
+		try (FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buf = ByteBuffer.allocate(Math.max(BLOCK, n * size));
+			buf.putInt(MAGIC).putInt(VERSION).putInt(asFloat ? FLOAT : 0).putInt(n);
+			for (String name : names) {
+				byte[] b = name.getBytes(StandardCharsets.UTF_8);
+				if (buf.remaining() < Integer.BYTES + b.length)
+					flush(ch, buf);
+				buf.putInt(b.length).put(b);
+			}
+
+			// a row at a time, so that a row never needs to be split
+			for (int i = 0; i < n; i++) {
+				if (buf.remaining() < (n - i) * size)
+					flush(ch, buf);
+				for (int j = i; j < n; j++) {
+					double val = Matrix.getMatrixValue(matrix, i, j);
+					if (Data.isValueMissing(val))
+						val = Double.NaN;
+					if (asFloat)
+						buf.putFloat((float) val);
+					else
+						buf.putDouble(val);
+				}
+			}
+			flush(ch, buf);
+		}
+	}
+
+	private void writeCsv(Path path, String matrix, String[] names) throws IOException {
+		int n = names.length;
+		try (BufferedWriter out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+			StringBuilder sb = new StringBuilder();
+			for (String name : names)
+				sb.append(',').append(name);
+			out.write(sb.append("\r\n").toString());
+
+			for (int i = 0; i < n; i++) {
+				sb.setLength(0);
+				sb.append(names[i]);
+				for (int j = 0; j < n; j++) {
+					double val = Matrix.getMatrixValue(matrix, i, j);
+					sb.append(',');
+					if (!Data.isValueMissing(val))
+						sb.append(val);
+				}
+				out.write(sb.append("\r\n").toString());
+			}
+		}
+	}
+
+	private static void flush(FileChannel ch, ByteBuffer buf) throws IOException {
+		buf.flip();
+		while (buf.hasRemaining())
+			ch.write(buf);
+		buf.clear();
+	}
+
+}
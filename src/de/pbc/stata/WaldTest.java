@@ -0,0 +1,236 @@
+package de.pbc.stata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.apache.commons.math3.distribution.ChiSquaredDistribution;
+import org.apache.commons.math3.distribution.FDistribution;
+
+import com.stata.sfi.Data;
+import com.stata.sfi.Matrix;
+
+/**
+ * <p>
+ * Joint Wald tests that groups of coefficients of the active estimation are
+ * zero, like Stata's {@code test}, computed from {@code e(b)} and
+ * {@code e(V)} without running a command per group. A group is a list of
+ * Stata-style patterns joined by {@code +}, e.g. {@code x1+x2} or
+ * {@code *.year}; patterns with a colon match {@code eq:name}, others the
+ * coefficient name in any equation.
+ * </p>
+ * <p>
+ * W = b'V⁻¹b is computed as z'z with L z = b, where L L' is the Cholesky
+ * decomposition of the group's submatrix of {@code e(V)}. Only the elements
+ * of the submatrices are read. Coefficients are factored in the order of
+ * {@code e(b)}, so a group that starts with the same coefficients as a group
+ * tested before reuses that group's rows of L and z. Omitted and base terms
+ * (zero variance) and collinear constraints are dropped, as by {@code test}.
+ * </p>
+ * <p>
+ * With {@code e(df_r)}, F = W / q is reported, else chi2 = W, each with its
+ * p-value.
+ * </p>
+ */
+public class WaldTest {
+
+	// CONSTANTS ---------------------------------------------------- //
+
+	/** Constraints whose pivot is below this share of their variance are collinear. */
+	private static final double TOLERANCE = 1e-12;
+
+	// VARIABLES ---------------------------------------------------- //
+
+	private final String matrix;
+
+	private final String[] names, qualified;
+
+	private final double[] b;
+
+	private final Double dfR;
+
+	/** The factorizations so far, for reuse. */
+	private final List<Factor> factors = new ArrayList<>();
+
+	// CONSTRUCTOR -------------------------------------------------- //
+
+	private WaldTest(StataResults results) {
+		StataResults.ResultMatrix eb = results.getMatrix("e(b)");
+		if (eb == null)
+			throw new IllegalStateException("e(b) not found");
+		this.matrix = "e(V)";
+		this.names = eb.getColNames();
+		this.b = eb.getValues()[0];
+		this.dfR = results.getScalar("df_r");
+
+		String[] eqs = eb.getColEqs();
+		qualified = new String[names.length];
+		for (int i = 0; i < names.length; i++)
+			qualified[i] = eqs == null || eqs[i].equals("_") ? names[i] : eqs[i] + ":" + names[i];
+	}
+
+	// PUBLIC ------------------------------------------------------- //
+
+	/**
+	 * Tests each of {@code groups} on the active estimation. Has to be called
+	 * on Stata's thread.
+	 *
+	 * @return two statistics per group, the test statistic and its p-value;
+	 *         none for groups without (testable) coefficients
+	 */
+	public static List<ModelStat> test(List<String> groups) {
+		WaldTest wt = new WaldTest(StataResults
+				.fetch(new StataResults.Request().scalars("df_r").matrixWithEquations("e(b)")));
+
+		List<ModelStat> stats = new ArrayList<>(groups.size() * 2);
+		for (int g = 0; g < groups.size(); g++) {
+			String group = groups.get(g);
+			Factor f = wt.factor(wt.select(group));
+			if (f.rank == 0)
+				continue;
+
+			String label = group.replace('+', ' ');
+			double w = 0;
+			for (int k = 0; k < f.rank; k++)
+				w += f.z[k] * f.z[k];
+
+			double stat, p;
+			if (wt.dfR == null) {
+				stat = w;
+				p = 1 - new ChiSquaredDistribution(f.rank).cumulativeProbability(stat);
+			} else {
+				stat = w / f.rank;
+				p = 1 - new FDistribution(f.rank, wt.dfR).cumulativeProbability(stat);
+			}
+			String name = "test" + (g + 1);
+			String kind = wt.dfR == null ? "chi2" : "F";
+			stats.add(new ModelStat(name, String.format("%s (%s)", kind, label), stat, p, 2));
+			stats.add(new ModelStat(name + "_p", String.format("p (%s)", label), p, null, 3));
+		}
+		return stats;
+	}
+
+	// PRIVATE ------------------------------------------------------ //
+
+	/**
+	 * The positions in {@code e(b)} of the coefficients matching
+	 * {@code group}, ascending.
+	 */
+	private int[] select(String group) {
+		List<String> patterns = Arrays.stream(group.split("\\+")).filter((s) -> !s.isEmpty()).toList();
+		List<String> qualifiedPatterns = patterns.stream().filter((s) -> s.contains(":")).toList();
+		List<String> plainPatterns = patterns.stream().filter((s) -> !s.contains(":")).toList();
+		Pattern q = qualifiedPatterns.isEmpty() ? null : TermFilter.compile(qualifiedPatterns);
+		Pattern p = plainPatterns.isEmpty() ? null : TermFilter.compile(plainPatterns);
+
+		int[] sel = new int[names.length];
+		int n = 0;
+		for (int i = 0; i < names.length; i++) {
+			if ((q != null && q.matcher(qualified[i]).matches()) || (p != null && p.matcher(names[i]).matches()))
+				sel[n++] = i;
+		}
+		return Arrays.copyOf(sel, n);
+	}
+
+	/**
+	 * Factors the submatrix of {@code idx}, starting from the factor with the
+	 * longest common prefix.
+	 */
+	private Factor factor(int[] idx) {
+		Factor base = null;
+		int prefix = 0;
+		for (Factor f : factors) {
+			int k = 0;
+			while (k < f.idx.length && k < idx.length && f.idx[k] == idx[k])
+				k++;
+			if (k > prefix) {
+				base = f;
+				prefix = k;
+			}
+		}
+
+		Factor f = new Factor(idx, base, prefix);
+		for (int k = prefix; k < idx.length; k++)
+			f.extend(idx[k]);
+		factors.add(f);
+		return f;
+	}
+
+	private double v(int i, int j) {
+		double val = Matrix.getMatrixValue(matrix, i, j);
+		return Data.isValueMissing(val) ? 0 : val;
+	}
+
+	// INNER CLASSES ------------------------------------------------ //
+
+	/**
+	 * Cholesky factor L (lower triangle, by row) and z = L⁻¹b of the
+	 * coefficients {@code idx}, without the dropped ones.
+	 */
+	private final class Factor {
+
+		// VARIABLES ------------------------------------------------ //
+
+		private final int[] idx, kept;
+
+		private final double[][] l;
+
+		private final double[] z;
+
+		private int rank;
+
+		// CONSTRUCTOR ---------------------------------------------- //
+
+		/**
+		 * Takes over the rows of the first {@code prefix} coefficients of
+		 * {@code base}; rows are never changed once factored, so they are
+		 * shared.
+		 */
+		private Factor(int[] idx, Factor base, int prefix) {
+			this.idx = idx;
+			kept = new int[idx.length];
+			l = new double[idx.length][];
+			z = new double[idx.length];
+			if (base != null) {
+				while (rank < base.rank && base.kept[rank] <= idx[prefix - 1]) {
+					kept[rank] = base.kept[rank];
+					l[rank] = base.l[rank];
+					z[rank] = base.z[rank];
+					rank++;
+				}
+			}
+		}
+
+		// PRIVATE -------------------------------------------------- //
+
+		private void extend(int i) {
+			double d = v(i, i);
+			if (d <= 0)
+				return;
+
+			double[] row = new double[rank + 1];
+			double ss = 0, sz = 0;
+			for (int k = 0; k < rank; k++) {
+				double a = v(i, kept[k]);
+				for (int m = 0; m < k; m++)
+					a -= row[m] * l[k][m];
+				row[k] = a / l[k][k];
+				ss += row[k] * row[k];
+				sz += row[k] * z[k];
+			}
+
+			double pivot = d - ss;
+			if (pivot <= TOLERANCE * d)
+				return;
+
+			row[rank] = Math.sqrt(pivot);
+			kept[rank] = i;
+			l[rank] = row;
+			z[rank] = (b[i] - sz) / row[rank];
+			rank++;
+		}
+
+	}
+
+}
@@ -0,0 +1,110 @@
+package de.pbc.stata;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+import org.apache.commons.math3.distribution.FDistribution;
+
+/**
+ * <p>
+ * Stata Java plugin to warm up the exporters, e.g. from {@code profile.do}
+ * with {@code regout2 warmup}: loads and runs the export path (POI, XMLBeans,
+ * log4j, commons-math and the exporters' own classes) on a tiny synthetic
+ * workbook in a temporary directory, so that the first real export doesn't
+ * pay for class loading and JIT compilation.
+ * </p>
+ * <p>
+ * {@link #start(String[])} returns right away; the warm-up runs on a daemon
+ * thread of low priority and doesn't call into SFI. {@link #main(String[])}
+ * runs it in the foreground, without Stata, which is the training run for a
+ * class-data-sharing archive (see {@code deploy/build-cds.cmd}).
+ * </p>
+ */
+public class Warmup {
+
+	// VARIABLES ---------------------------------------------------- //
+
+	private static final AtomicBoolean started = new AtomicBoolean();
+
+	// ENTRY POINT --------------------------------------------------- //
+
+	public static int start(String[] args) {
+		if (started.compareAndSet(false, true)) {
+			Thread t = new Thread(() -> {
+				try {
+					run();
+				} catch (Throwable e) {
+					// the first export loads whatever is missing
+				}
+			}, "regout2-warmup");
+			t.setDaemon(true);
+			t.setPriority(Thread.MIN_PRIORITY);
+			t.start();
+		}
+		return 0;
+	}
+
+	public static void main(String[] args) throws IOException {
+		run();
+	}
+
+	// PRIVATE ------------------------------------------------------ //
+
+	/**
+	 * Writes a new workbook, merges into it, writes a streaming workbook and
+	 * the text formats.
+	 */
+	private static void run() throws IOException {
+		Path dir = Files.createTempDirectory("regout2-warmup");
+		try {
+			List<ModelColumn> columns = List.of(column("(1)", 0), column("(2)", 1));
+
+			List<Journal.Entry> entries = new ArrayList<>();
+			for (ModelColumn column : columns)
+				entries.add(new Journal.Entry(0, null, !entries.isEmpty(), Table.Layout.TEXT.name(), column));
+			RegOut2.writeInBackground(dir.resolve("warmup.xlsx"), entries, false, Deflater.DEFAULT_COMPRESSION);
+
+			List<Journal.Entry> merge = new ArrayList<>();
+			for (ModelColumn column : columns)
+				merge.add(new Journal.Entry(1, "rows", true, Table.Layout.ROWS.name(), column));
+			RegOut2.writeInBackground(dir.resolve("warmup.xlsx"), merge, false, Deflater.DEFAULT_COMPRESSION);
+			RegOut2.writeInBackground(dir.resolve("stream.xlsx"), entries, true, Deflater.DEFAULT_COMPRESSION);
+
+			Table table = Table.of(columns, Table.Layout.TEXT);
+			TableRenderer.forFormat("csv").render(table, dir.resolve("warmup.csv"));
+			TableRenderer.forFormat("txt").render(table, dir.resolve("warmup.txt"));
+		} finally {
+			try (Stream<Path> files = Files.walk(dir)) {
+				for (Path p : files.sorted(Comparator.reverseOrder()).toList())
+					Files.deleteIfExists(p);
+			}
+		}
+	}
+
+	/**
+	 * A column of a few coefficients as rendered by {@link ColumnRenderer}.
+	 */
+	private static ModelColumn column(String title, int seed) {
+		List<ModelColumn.Cell> terms = new ArrayList<>();
+		for (int i = 1; i <= 5; i++) {
+			double coef = (i + seed) * .37 - 1, se = .1 * i;
+			double p = 1 - new FDistribution(1, 100).cumulativeProbability(coef * coef / (se * se));
+			String stars = Term.SIG_LEVELS.apply(p);
+			terms.add(new ModelColumn.Cell("x" + i,
+					DecimalFormatter.format(coef, 2) + stars + " (" + DecimalFormatter.format(se, 2) + ")", coef, se,
+					stars));
+		}
+		List<ModelColumn.Cell> constants = List.of(new ModelColumn.Cell("constant", "0.50 (0.10)", .5, .1, ""));
+		List<ModelColumn.Cell> stats = List.of(new ModelColumn.Cell("N", DecimalFormatter.format(100d, 0)),
+				new ModelColumn.Cell("R²", DecimalFormatter.format(.25, 2)));
+		return new ModelColumn(title, null, terms, constants, stats);
+	}
+
+}